@@ -0,0 +1,337 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.util.Pair;
+
+/**
+ * The class BulkFetcher fetches many urls at once. The requests are enqueued asynchronously in the shared OkHttpClient with a global and a per host
+ * concurrency cap, so fetching N sub resources takes about the time of the slowest requests instead of the sum of all requests.<br>
+ * The results can either be collected in input order (fetchAll(urls)) or be consumed as each request completes (fetchAll(urls, callback)). The
+ * callback is always invoked on the calling thread.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class BulkFetcher {
+  private static final Logger              LOGGER                  = LoggerFactory.getLogger(BulkFetcher.class);
+
+  /** the default amount of requests in flight */
+  public static final int                  DEFAULT_MAX_CONCURRENCY = 16;
+  /** the default amount of requests in flight per host */
+  public static final int                  DEFAULT_MAX_PER_HOST    = 4;
+
+  private final int                        maxConcurrency;
+  private final int                        maxPerHost;
+  private final List<Pair<String, String>> headers                 = new ArrayList<>();
+  private boolean                          useCache                = true;
+  private RequestPriority                  priority                = null;
+
+  /**
+   * callback interface to consume the results as they arrive
+   */
+  public interface Callback {
+    /**
+     * a request has been completed (successfully or not)
+     *
+     * @param result
+     *          the result
+     */
+    void onResult(Result result);
+  }
+
+  /**
+   * create a new BulkFetcher with the default concurrency caps
+   */
+  public BulkFetcher() {
+    this(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_PER_HOST);
+  }
+
+  /**
+   * create a new BulkFetcher
+   *
+   * @param maxConcurrency
+   *          the maximum amount of requests in flight
+   * @param maxPerHost
+   *          the maximum amount of requests in flight per host
+   */
+  public BulkFetcher(int maxConcurrency, int maxPerHost) {
+    this.maxConcurrency = Math.max(1, maxConcurrency);
+    this.maxPerHost = Math.max(1, maxPerHost);
+  }
+
+  /**
+   * use the CachedUrl for all requests (default) or a plain Url
+   *
+   * @param useCache
+   *          true to use the cache
+   */
+  public void setUseCache(boolean useCache) {
+    this.useCache = useCache;
+  }
+
+  /**
+   * set the priority lane of all requests (e.g. BULK_ARTWORK for artwork downloads)
+   *
+   * @param priority
+   *          the priority lane
+   */
+  public void setPriority(RequestPriority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * add a HTTP header which is sent with every request
+   *
+   * @param key
+   *          the header key
+   * @param value
+   *          the header value
+   */
+  public void addHeader(String key, String value) {
+    headers.add(new Pair<>(key, value));
+  }
+
+  /**
+   * fetch all urls and return the results in input order. Blocks until all requests have been completed
+   *
+   * @param urls
+   *          the urls to fetch
+   * @return the results (in input order)
+   * @throws InterruptedException
+   *           the thread has been interrupted - all requests in flight are cancelled
+   */
+  public List<Result> fetchAll(Collection<String> urls) throws InterruptedException {
+    final Result[] results = new Result[urls.size()];
+    fetchAll(urls, new Callback() {
+      @Override
+      public void onResult(Result result) {
+        results[result.getIndex()] = result;
+      }
+    });
+    return Arrays.asList(results);
+  }
+
+  /**
+   * fetch all urls and pass every result to the callback as soon as it arrives. Blocks until all requests have been completed
+   *
+   * @param urls
+   *          the urls to fetch
+   * @param callback
+   *          the callback (invoked on the calling thread)
+   * @throws InterruptedException
+   *           the thread has been interrupted - all requests in flight are cancelled
+   */
+  public void fetchAll(Collection<String> urls, Callback callback) throws InterruptedException {
+    List<String> list = new ArrayList<>(urls);
+    BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+    Map<Integer, HttpFuture<InputStream>> inFlight = new HashMap<>();
+    Map<String, Integer> perHost = new HashMap<>();
+    LinkedList<Integer> pending = new LinkedList<>();
+    for (int i = 0; i < list.size(); i++) {
+      pending.add(i);
+    }
+
+    boolean finished = false;
+    try {
+      while (!pending.isEmpty() || !inFlight.isEmpty()) {
+        // start as many requests as the caps allow (skip hosts which are saturated)
+        for (Iterator<Integer> it = pending.iterator(); it.hasNext() && inFlight.size() < maxConcurrency;) {
+          int index = it.next();
+          String host = getHost(list.get(index));
+          Integer running = perHost.get(host);
+          if (running != null && running >= maxPerHost) {
+            continue;
+          }
+          it.remove();
+          perHost.put(host, running == null ? 1 : running + 1);
+          inFlight.put(index, start(index, list.get(index), host, completed));
+        }
+
+        Result result = completed.take();
+        inFlight.remove(result.getIndex());
+        Integer running = perHost.get(result.host);
+        if (running != null) {
+          perHost.put(result.host, running - 1);
+        }
+        callback.onResult(result);
+      }
+      finished = true;
+    }
+    finally {
+      if (!finished) {
+        for (HttpFuture<InputStream> future : inFlight.values()) {
+          future.cancel(true);
+        }
+      }
+    }
+  }
+
+  private HttpFuture<InputStream> start(final int index, final String urlString, final String host, final BlockingQueue<Result> completed) {
+    final Url url;
+    try {
+      url = createUrl(urlString);
+    }
+    catch (MalformedURLException e) {
+      LOGGER.warn("malformed url: " + urlString);
+      HttpFuture<InputStream> future = HttpFuture.completed(null);
+      completed.add(new Result(index, urlString, host, null, null));
+      return future;
+    }
+    for (Pair<String, String> header : headers) {
+      url.addHeader(header);
+    }
+    url.setPriority(priority);
+
+    HttpFuture<InputStream> future = url.getInputStreamAsync();
+    future.addCallback(new HttpFuture.Callback<InputStream>() {
+      @Override
+      public void onSuccess(InputStream is) {
+        byte[] content = null;
+        if (is != null) {
+          try {
+            content = IOUtils.toByteArray(is);
+          }
+          catch (Exception e) {
+            LOGGER.warn("could not read " + url.getLogUrl() + " ; " + e.getMessage());
+          }
+          finally {
+            IOUtils.closeQuietly(is);
+          }
+        }
+        completed.add(new Result(index, urlString, host, url, content));
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        completed.add(new Result(index, urlString, host, url, null));
+      }
+    });
+    return future;
+  }
+
+  /**
+   * create the Url for a single request
+   *
+   * @param urlString
+   *          the url
+   * @return the CachedUrl or a plain Url (if the cache is not used)
+   * @throws MalformedURLException
+   *           the url is malformed
+   */
+  Url createUrl(String urlString) throws MalformedURLException {
+    return useCache ? new CachedUrl(urlString) : new Url(urlString);
+  }
+
+  private static String getHost(String url) {
+    try {
+      return new URL(url).getHost().toLowerCase(Locale.ROOT);
+    }
+    catch (MalformedURLException e) {
+      return "";
+    }
+  }
+
+  /**
+   * the result of a single request
+   */
+  public static class Result {
+    private final int     index;
+    private final String  url;
+    private final String  host;
+    private final int     statusCode;
+    private final Charset charset;
+    private final byte[]  content;
+
+    Result(int index, String url, String host, Url request, byte[] content) {
+      this.index = index;
+      this.url = url;
+      this.host = host;
+      this.statusCode = request != null ? request.getStatusCode() : 0;
+      this.charset = request != null ? request.getCharset() : null;
+      this.content = content;
+    }
+
+    /**
+     * the position of the url in the input collection
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * the requested url
+     */
+    public String getUrl() {
+      return url;
+    }
+
+    /**
+     * the HTTP status code (0 if there was no response)
+     */
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    /**
+     * the charset of the response (if any)
+     */
+    public Charset getCharset() {
+      return charset;
+    }
+
+    /**
+     * the content of the response or null if the request failed
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * the content of the response as stream or null if the request failed
+     */
+    public InputStream getInputStream() {
+      return content != null ? new ByteArrayInputStream(content) : null;
+    }
+
+    /**
+     * was the request successful?
+     */
+    public boolean isSuccessful() {
+      return content != null;
+    }
+  }
+}
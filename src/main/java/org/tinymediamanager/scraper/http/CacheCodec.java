@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The interface CacheCodec is used to encode (compress) the content of cached responses. The id of the codec is stored along with every entry, so
+ * the codec must be registered in CacheCodecs to decode entries from the disk cache
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface CacheCodec {
+  /**
+   * the unique id of this codec (0-127 are reserved for the built in codecs)
+   *
+   * @return the id
+   */
+  int getId();
+
+  /**
+   * encode the content
+   *
+   * @param content
+   *          the plain content
+   * @return the encoded content
+   * @throws IOException
+   *           any exception occurred while encoding
+   */
+  byte[] encode(byte[] content) throws IOException;
+
+  /**
+   * decode the content
+   *
+   * @param data
+   *          the encoded content
+   * @return a stream of the plain content
+   * @throws IOException
+   *           any exception occurred while decoding
+   */
+  InputStream decode(byte[] data) throws IOException;
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The class CacheCodecs holds the built in codecs for the CachedUrl and the registry to find a codec by its id
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public final class CacheCodecs {
+  /** store the content as it is */
+  public static final CacheCodec                          NONE   = new IdentityCodec();
+  /** gzip - also used for responses which have been stored in the gzip encoding of the server */
+  public static final CacheCodec                          GZIP   = new GzipCodec();
+
+  private static final ConcurrentMap<Integer, CacheCodec> CODECS = new ConcurrentHashMap<>();
+
+  static {
+    register(NONE);
+    register(GZIP);
+    register(new DeflateCodec(Deflater.DEFAULT_COMPRESSION));
+  }
+
+  private CacheCodecs() {
+  }
+
+  /**
+   * create a deflate codec
+   *
+   * @param level
+   *          the compression level (0-9; see Deflater)
+   * @return the codec
+   */
+  public static CacheCodec deflate(int level) {
+    return new DeflateCodec(level);
+  }
+
+  /**
+   * register a codec, so entries encoded by it can be decoded
+   *
+   * @param codec
+   *          the codec
+   */
+  public static void register(CacheCodec codec) {
+    CODECS.put(codec.getId(), codec);
+  }
+
+  /**
+   * get the codec for the given id
+   *
+   * @param id
+   *          the id of the codec
+   * @return the codec
+   * @throws IOException
+   *           there is no codec for this id
+   */
+  public static CacheCodec forId(int id) throws IOException {
+    CacheCodec codec = CODECS.get(id);
+    if (codec == null) {
+      throw new IOException("unknown codec: " + id);
+    }
+    return codec;
+  }
+
+  /**
+   * decode the content which is provided as a stream. The built in codecs decode the stream on the fly; other codecs need the whole content as
+   * byte array
+   *
+   * @param codec
+   *          the codec
+   * @param data
+   *          the stream of the encoded content (will be closed when the returned stream is closed)
+   * @return a stream of the plain content
+   * @throws IOException
+   *           any exception occurred while decoding
+   */
+  static InputStream decode(CacheCodec codec, InputStream data) throws IOException {
+    if (codec instanceof IdentityCodec) {
+      return data;
+    }
+    if (codec instanceof GzipCodec) {
+      try {
+        return new GZIPInputStream(data);
+      }
+      catch (IOException e) {
+        IOUtils.closeQuietly(data);
+        throw e;
+      }
+    }
+    if (codec instanceof DeflateCodec) {
+      return new InflaterInputStream(data);
+    }
+
+    try {
+      return codec.decode(IOUtils.toByteArray(data));
+    }
+    finally {
+      IOUtils.closeQuietly(data);
+    }
+  }
+
+  private static class IdentityCodec implements CacheCodec {
+    @Override
+    public int getId() {
+      return 0;
+    }
+
+    @Override
+    public byte[] encode(byte[] content) {
+      return content;
+    }
+
+    @Override
+    public InputStream decode(byte[] data) {
+      return new ByteArrayInputStream(data);
+    }
+  }
+
+  private static class GzipCodec implements CacheCodec {
+    @Override
+    public int getId() {
+      return 1;
+    }
+
+    @Override
+    public byte[] encode(byte[] content) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+      GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+      gzip.write(content);
+      gzip.close();
+      return bytes.toByteArray();
+    }
+
+    @Override
+    public InputStream decode(byte[] data) throws IOException {
+      return new GZIPInputStream(new ByteArrayInputStream(data));
+    }
+  }
+
+  /**
+   * deflate without the gzip header/checksum; the level is only needed for encoding, so all levels share the same id
+   */
+  private static class DeflateCodec implements CacheCodec {
+    private final int level;
+
+    DeflateCodec(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public int getId() {
+      return 2;
+    }
+
+    @Override
+    public byte[] encode(byte[] content) throws IOException {
+      Deflater deflater = new Deflater(level);
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+      }
+      finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public InputStream decode(byte[] data) {
+      return new InflaterInputStream(new ByteArrayInputStream(data));
+    }
+  }
+}
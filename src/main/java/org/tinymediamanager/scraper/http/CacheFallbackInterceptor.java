@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class CacheFallbackInterceptor. An OkHttp interceptor which serves expired responses from the OkHttp cache if the provider is not available
+ * (stale-if-error): on network failures, 5xx responses or an open circuit breaker a GET request is answered from the cache, as long as the cached
+ * response is not older than the maximum staleness. Such responses are flagged with a "Warning: 111" header (see Url.isStale()).<br>
+ * In offline mode no request touches the network at all - everything is answered from the cache (or with a 504 if it is not cached). The CachedUrl
+ * honors both settings for its own cache too.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class CacheFallbackInterceptor implements Interceptor {
+  private static final Logger     LOGGER                = LoggerFactory.getLogger(CacheFallbackInterceptor.class);
+
+  /** the default maximum staleness of a response served on errors (in seconds) */
+  public static final long        DEFAULT_MAX_STALENESS = 24 * 60 * 60;
+  /** the warning header which flags a stale response served because of an error */
+  static final String             STALE_WARNING         = "111 - \"Revalidation Failed\"";
+
+  private static volatile long    maxStaleness          = DEFAULT_MAX_STALENESS;
+  private static volatile boolean offlineMode           = false;
+
+  /**
+   * set the maximum staleness of responses which are served if the provider is not available
+   *
+   * @param seconds
+   *          the maximum staleness in seconds (0 to disable stale-if-error)
+   */
+  public static void setMaxStaleness(long seconds) {
+    maxStaleness = Math.max(0, seconds);
+  }
+
+  /**
+   * get the maximum staleness of responses which are served if the provider is not available
+   *
+   * @return the maximum staleness in seconds
+   */
+  public static long getMaxStaleness() {
+    return maxStaleness;
+  }
+
+  /**
+   * enable/disable the offline mode: no request will touch the network, everything is served from the caches (regardless of the age)
+   *
+   * @param offline
+   *          true to enable the offline mode
+   */
+  public static void setOfflineMode(boolean offline) {
+    offlineMode = offline;
+  }
+
+  /**
+   * is the offline mode active?
+   *
+   * @return true/false
+   */
+  public static boolean isOfflineMode() {
+    return offlineMode;
+  }
+
+  /**
+   * is this request only answered from the cache (so the network related interceptors can pass it through)?
+   *
+   * @param request
+   *          the request
+   * @return true/false
+   */
+  static boolean isCacheOnly(Request request) {
+    return request.cacheControl().onlyIfCached();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+
+    if (offlineMode) {
+      return chain.proceed(request.newBuilder().cacheControl(CacheControl.FORCE_CACHE).build());
+    }
+
+    if (maxStaleness <= 0 || !"GET".equals(request.method()) || isCacheOnly(request)) {
+      return chain.proceed(request);
+    }
+
+    Response response;
+    try {
+      response = chain.proceed(request);
+    }
+    catch (IOException e) {
+      // includes an open circuit breaker
+      if (chain.call().isCanceled()) {
+        throw e;
+      }
+      Response cached = fromCache(chain, request);
+      if (cached == null) {
+        throw e;
+      }
+      LOGGER.info("serving stale response of " + request.url().host() + " - " + e.getMessage());
+      return cached;
+    }
+
+    if (response.code() >= 500) {
+      Response cached = fromCache(chain, request);
+      if (cached != null) {
+        LOGGER.info("serving stale response of " + request.url().host() + " - got " + response.code());
+        response.close();
+        return cached;
+      }
+    }
+
+    return response;
+  }
+
+  private Response fromCache(Chain chain, Request request) {
+    CacheControl cacheControl = new CacheControl.Builder().onlyIfCached().maxStale((int) Math.min(Integer.MAX_VALUE, maxStaleness), TimeUnit.SECONDS)
+        .build();
+    try {
+      Response cached = chain.proceed(request.newBuilder().cacheControl(cacheControl).build());
+      if (cached.cacheResponse() == null) {
+        // not cached (504 - Unsatisfiable Request)
+        cached.close();
+        return null;
+      }
+      return cached.newBuilder().addHeader("Warning", STALE_WARNING).build();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+}
@@ -17,67 +17,603 @@ package org.tinymediamanager.scraper.http;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import org.apache.commons.io.IOUtils;
-import org.tinymediamanager.scraper.util.CacheMap;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.http.PresetDictionaries.DictionaryCodec;
+import org.tinymediamanager.scraper.util.CacheMapRegistry;
 import org.tinymediamanager.scraper.util.Pair;
+import org.tinymediamanager.scraper.util.RemovalCause;
+import org.tinymediamanager.scraper.util.RemovalListener;
+import org.tinymediamanager.scraper.util.SegmentStore;
+import org.tinymediamanager.scraper.util.SlabStore;
+import org.tinymediamanager.scraper.util.Weigher;
+import org.tinymediamanager.scraper.util.WeightedCacheMap;
 
 import okhttp3.Headers;
 
 /**
- * The class CachedUrl is used to cache some sort of Urls (e.g. when they are accessed several times in a short period)
+ * The class CachedUrl is used to cache some sort of Urls (e.g. when they are accessed several times in a short period). Concurrent requests for the
+ * same (not yet cached) url are coalesced into a single request whose result is shared. Optionally a persistent disk cache can be enabled as a second
+ * tier beneath the memory cache.<br>
+ * Entries are fresh for FRESHNESS seconds; afterwards they are revalidated with a conditional request (If-None-Match/If-Modified-Since) if the
+ * response contained validators, so an unchanged resource costs just a round trip without body.<br>
+ * The content is stored with a pluggable codec (see CacheCodecs); small contents are stored uncompressed and optionally the gzip encoding of the
+ * server is kept, so nothing has to be re-compressed on the hot path.<br>
+ * If the provider is not available (network failure, 5xx or an open circuit breaker), an expired entry is served as long as it does not exceed the
+ * maximum staleness of the CacheFallbackInterceptor (see isStale()). In offline mode cached entries are served regardless of their age; a miss is
+ * answered from the OkHttp cache (see CacheFallbackInterceptor).<br>
+ * Optionally big contents of the memory cache are held off heap (see enableOffHeapStorage()); they are read directly from the SlabStore and given
+ * back when the entry is removed from the memory cache.
  */
 public class CachedUrl extends Url {
-  private final static CacheMap<String, CachedRequest> CACHE = new CacheMap<>(600, 5);
+  /** the default maximum size of the memory cache (in bytes) */
+  public static final long                                              DEFAULT_MAXIMUM_CACHE_SIZE    = 50 * 1024 * 1024;
+
+  /** the time an entry is fresh (in seconds); afterwards it will be revalidated */
+  public static final long                                              FRESHNESS                     = 600;
+  /** the time an entry is held in the memory cache without being accessed (in seconds) */
+  public static final long                                              RETENTION                     = 3600;
+
+  private final static WeightedCacheMap<String, CachedRequest>          CACHE                         = new WeightedCacheMap<>(RETENTION, 5,
+      DEFAULT_MAXIMUM_CACHE_SIZE, new CachedRequestWeigher());
+  private final static ConcurrentMap<String, HttpFuture<FetchResult>>   IN_FLIGHT                     = new ConcurrentHashMap<>();
+  // prefetches are tracked on their own: a real request must not wait for a request in the (lowest) PREFETCH lane
+  private final static ConcurrentMap<String, HttpFuture<FetchResult>>   PREFETCH_IN_FLIGHT            = new ConcurrentHashMap<>();
+  private final static AtomicLong                                       COALESCED                     = new AtomicLong();
+  private final static AtomicLong                                       REVALIDATED                   = new AtomicLong();
+
+  /** the default directory of the disk cache */
+  public static final String                                            DISK_CACHE_DIR                = "cache/url";
+  /** the default size budget of the disk cache (in bytes) */
+  public static final long                                              DEFAULT_DISK_CACHE_SIZE       = 200 * 1024 * 1024;
+  /** the default time to live of an entry in the disk cache (in seconds) */
+  public static final long                                              DEFAULT_DISK_CACHE_TTL        = 7 * 24 * 60 * 60;
+
+  private static final Logger                                           LOGGER                        = LoggerFactory.getLogger(CachedUrl.class);
+  private static final int                                              SERIALIZATION_VERSION         = 4;
+
+  /** the default size below which contents are stored uncompressed (in bytes) */
+  public static final int                                               DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+  private static volatile CacheCodec                                    storageCodec                  = CacheCodecs.deflate(Deflater.BEST_SPEED);
+  private static volatile boolean                                       storeUpstreamEncoding         = false;
+  private static volatile int                                           compressionThreshold          = DEFAULT_COMPRESSION_THRESHOLD;
+
+  private static volatile SegmentStore                                  DISK_CACHE                    = null;
+  private static volatile long                                          diskCacheTimeToLive           = TimeUnit.SECONDS.toMillis(DEFAULT_DISK_CACHE_TTL);
+
+  /** the default size from which contents are stored off heap (in bytes) */
+  public static final int                                               DEFAULT_OFF_HEAP_THRESHOLD    = 8 * 1024;
+
+  private static volatile SlabStore                                     OFF_HEAP_STORE                = null;
+  private static volatile int                                           offHeapThreshold              = DEFAULT_OFF_HEAP_THRESHOLD;
+
+  // a speculative request of the SearchPrefetcher
+  boolean                                                               prefetching                   = false;
+
+  static {
+    CACHE.setRemovalListener(new OffHeapContentReleaser());
+    CacheMapRegistry.register("CachedUrl", CACHE);
+  }
 
   public CachedUrl(String url) throws MalformedURLException {
     this.url = url;
-    if (url.contains("|")) {
-      splitHeadersFromUrl();
+    parseUrl();
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException, InterruptedException {
+    timedOut = false;
+    CachedRequest cachedRequest = lookup(url);
+    if (!isServable(cachedRequest)) {
+      // not cached or expired (an expired entry will be revalidated)
+      HttpMetrics.getInstance().recordCacheMiss();
+      CachedRequest stale = cachedRequest;
+
+      // is there already a request for this url in flight? then wait for its result rather than sending another request
+      HttpFuture<FetchResult> inFlight = new HttpFuture<>();
+      HttpFuture<FetchResult> existing = IN_FLIGHT.putIfAbsent(url, inFlight);
+      FetchResult result;
+      if (existing != null) {
+        COALESCED.incrementAndGet();
+        try {
+          result = existing.get();
+        }
+        catch (ExecutionException | CancellationException e) {
+          // the other request has been aborted - do it on our own
+          result = fetch(stale);
+        }
+      }
+      else {
+        try {
+          result = fetch(stale);
+          inFlight.complete(result);
+        }
+        catch (IOException | InterruptedException | RuntimeException e) {
+          inFlight.completeExceptionally(e);
+          throw e;
+        }
+        finally {
+          IN_FLIGHT.remove(url, inFlight);
+        }
+      }
+
+      cachedRequest = result.cachedRequest;
+      if (cachedRequest == null) {
+        // take over the status, so that the caller can tell a permanent failure from a transient one
+        takeOverStatus(result);
+        return null;
+      }
+    }
+    else {
+      HttpMetrics.getInstance().recordCacheHit();
+    }
+
+    InputStream is = readFromCache(cachedRequest);
+    if (is == null) {
+      // the off heap content has been released between the lookup and the read - look it up again
+      return getInputStream();
+    }
+    return is;
+  }
+
+  /**
+   * Gets the input stream asynchronously. Cached (fresh) entries are returned immediately; otherwise the request is enqueued via the asynchronous
+   * API of Url and the response will be cached before the future is completed.
+   *
+   * @return the future containing the InputStream
+   */
+  @Override
+  public HttpFuture<InputStream> getInputStreamAsync() {
+    final CachedRequest cachedRequest = lookup(url);
+    if (isServable(cachedRequest)) {
+      HttpMetrics.getInstance().recordCacheHit();
+      try {
+        InputStream is = readFromCache(cachedRequest);
+        if (is != null) {
+          return HttpFuture.completed(is);
+        }
+        // the off heap content has been released between the lookup and the read - fetch it again
+      }
+      catch (IOException e) {
+        return HttpFuture.failed(e);
+      }
+    }
+
+    HttpMetrics.getInstance().recordCacheMiss();
+    final HttpFuture<InputStream> future = new HttpFuture<>();
+    final HttpFuture<FetchResult> inFlight = new HttpFuture<>();
+    final ConcurrentMap<String, HttpFuture<FetchResult>> inFlightRequests = prefetching ? PREFETCH_IN_FLIGHT : IN_FLIGHT;
+    // a prefetch may join a real request, but not the other way round
+    HttpFuture<FetchResult> existing = prefetching ? IN_FLIGHT.get(url) : null;
+    if (existing == null) {
+      existing = inFlightRequests.putIfAbsent(url, inFlight);
     }
 
-    // morph to URI to check syntax of the url
+    if (existing != null) {
+      // there is already a request for this url in flight - share its result
+      COALESCED.incrementAndGet();
+      existing.addCallback(new HttpFuture.Callback<FetchResult>() {
+        @Override
+        public void onSuccess(FetchResult result) {
+          completeFromCache(future, result);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // the other request has been aborted - do it on our own
+          HttpFuture<FetchResult> upstream = fetchAsync(cachedRequest);
+          future.setUpstream(upstream);
+          upstream.addCallback(new HttpFuture.Callback<FetchResult>() {
+            @Override
+            public void onSuccess(FetchResult result) {
+              completeFromCache(future, result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              future.completeExceptionally(t);
+            }
+          });
+        }
+      });
+      return future;
+    }
+
+    HttpFuture<FetchResult> upstream = fetchAsync(cachedRequest);
+    future.setUpstream(upstream);
+    upstream.addCallback(new HttpFuture.Callback<FetchResult>() {
+      @Override
+      public void onSuccess(FetchResult result) {
+        inFlightRequests.remove(url, inFlight);
+        inFlight.complete(result);
+        completeFromCache(future, result);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        inFlightRequests.remove(url, inFlight);
+        inFlight.completeExceptionally(t);
+        future.completeExceptionally(t);
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * fetch the url with a real request and cache the response
+   * 
+   * @param stale
+   *          the expired entry for this url which should be revalidated (or null)
+   * @return the result containing the CachedRequest (or null and the status if the request failed)
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   * @throws InterruptedException
+   *           the request has been interrupted
+   */
+  private FetchResult fetch(CachedRequest stale) throws IOException, InterruptedException {
+    Url url = createUrl(stale);
     try {
-      this.uri = morphStringToUri(url);
+      return new FetchResult(url, processResponse(url, url.getInputStream(), stale));
+    }
+    catch (InterruptedException e) {
+      // the retry logic runs on this instance - it needs to know whether the request timed out
+      timedOut = url.timedOut;
+      headersResponse = url.headersResponse;
+      if (!url.timedOut || !isServableOnError(stale)) {
+        throw e;
+      }
+      return serveStale(url, stale, "timeout");
     }
-    catch (URISyntaxException e) {
-      throw new MalformedURLException(url);
+    catch (IOException e) {
+      // e.g. the connection broke while reading the body
+      if (!isServableOnError(stale)) {
+        throw e;
+      }
+      return serveStale(url, stale, e.getMessage());
     }
   }
 
-  @Override
-  public InputStream getInputStream() throws IOException, InterruptedException {
-    CachedRequest cachedRequest = CACHE.get(url);
-    if (cachedRequest == null) {
-      // need to fetch it with a real request
-      Url url = new Url(this.url);
-      url.headersRequest = headersRequest;
-      InputStream is = url.getInputStream();
+  private static boolean isServableOnError(CachedRequest stale) {
+    return stale != null && stale.isServableOnError();
+  }
+
+  /**
+   * the provider is not available - serve the expired entry (stale-if-error)
+   */
+  private static FetchResult serveStale(Url url, CachedRequest stale, String reason) {
+    LOGGER.info("serving stale entry of " + url.getLogUrl() + " - provider not available (" + reason + ")");
+    return new FetchResult(url, stale);
+  }
+
+  /**
+   * fetch the url with a real (asynchronous) request and cache the response
+   * 
+   * @param stale
+   *          the expired entry for this url which should be revalidated (or null)
+   * @return the future containing the result of the request
+   */
+  private HttpFuture<FetchResult> fetchAsync(final CachedRequest stale) {
+    final Url url;
+    try {
+      url = createUrl(stale);
+    }
+    catch (MalformedURLException e) {
+      return HttpFuture.failed(e);
+    }
+
+    final HttpFuture<FetchResult> future = new HttpFuture<>();
+    HttpFuture<InputStream> upstream = url.getInputStreamAsync();
+    future.setUpstream(upstream);
+    upstream.addCallback(new HttpFuture.Callback<InputStream>() {
+      @Override
+      public void onSuccess(InputStream is) {
+        try {
+          future.complete(new FetchResult(url, processResponse(url, is, stale)));
+        }
+        catch (IOException e) {
+          if (isServableOnError(stale)) {
+            future.complete(serveStale(url, stale, e.getMessage()));
+          }
+          else {
+            future.completeExceptionally(e);
+          }
+        }
+        catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        future.completeExceptionally(t);
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * create the Url for the real request. If there is an expired entry with validators, the request will be a conditional one
+   *
+   * @param stale
+   *          the expired entry for this url (or null)
+   * @return the Url for the request
+   * @throws MalformedURLException
+   *           the url is malformed
+   */
+  Url createUrl(CachedRequest stale) throws MalformedURLException {
+    Url url = new Url(this.url);
+    url.headersRequest = new ArrayList<>(headersRequest);
+    url.hedging = hedging;
+    url.priority = priority;
+
+    // let the server compress the body and keep it that way (OkHttp does not decompress if we ask for an encoding on our own)
+    if (storeUpstreamEncoding && !hasRequestHeader(url, "Accept-Encoding")) {
+      url.addHeader("Accept-Encoding", "gzip");
+    }
+
+    if (stale != null) {
+      if (StringUtils.isNotBlank(stale.eTag)) {
+        url.addHeader("If-None-Match", stale.eTag);
+      }
+      if (StringUtils.isNotBlank(stale.lastModified)) {
+        url.addHeader("If-Modified-Since", stale.lastModified);
+      }
+    }
+    return url;
+  }
+
+  private static boolean hasRequestHeader(Url url, String key) {
+    for (Pair<String, String> header : url.headersRequest) {
+      if (key.equalsIgnoreCase(header.first())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * process the response of the real request: a 304 (not modified) just refreshes the expired entry, every other successful response will be cached.
+   * If the request failed because the provider is not available, the expired entry is returned (if it is not too old)
+   *
+   * @param url
+   *          the url which has been used for the request
+   * @param is
+   *          the InputStream of the response (or null if the request failed)
+   * @param stale
+   *          the expired entry which has been revalidated (or null)
+   * @return the CachedRequest or null if the request failed
+   * @throws IOException
+   *           any exception occurred while reading the response
+   */
+  CachedRequest processResponse(Url url, InputStream is, CachedRequest stale) throws IOException {
+    if (is == null) {
+      // the provider is not available - serve the expired entry (stale-if-error)
+      if ((url.responseCode == 0 || url.responseCode >= 500) && isServableOnError(stale)) {
+        LOGGER.info("serving stale entry of " + url.getLogUrl() + " - provider not available (" + url.responseCode + ")");
+        return stale;
+      }
+      return null;
+    }
+
+    if (url.responseCode == 304 && stale != null) {
+      IOUtils.closeQuietly(is);
+      LOGGER.debug("not modified: " + url.getLogUrl());
+      REVALIDATED.incrementAndGet();
+      stale.revalidated(url);
+      store(stale);
+      return stale;
+    }
+
+    return cacheResponse(url, is);
+  }
+
+  /**
+   * take over the status of a failed request (of this or a coalesced instance)
+   */
+  private void takeOverStatus(FetchResult result) {
+    responseCode = result.responseCode;
+    responseMessage = result.responseMessage;
+    headersResponse = result.headersResponse;
+    timedOut = result.timedOut;
+  }
+
+  private void completeFromCache(HttpFuture<InputStream> future, FetchResult result) {
+    if (result.cachedRequest == null) {
+      takeOverStatus(result);
+      future.complete(null);
+      return;
+    }
+    try {
+      InputStream is = readFromCache(result.cachedRequest);
       if (is == null) {
-        return null;
+        throw new IOException("the cached content of " + getLogUrl() + " has been released");
+      }
+      future.complete(is);
+    }
+    catch (Exception e) {
+      future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * buffer the response (encoded by the storage codec) in a CachedRequest and put it into the cache if the request was successful. Contents
+   * smaller than the compression threshold are stored uncompressed; contents which have been compressed by the server are stored as they are (if
+   * storing the upstream encoding is enabled)
+   * 
+   * @param url
+   *          the url which has been used for the request
+   * @param is
+   *          the InputStream of the response
+   * @return the CachedRequest
+   * @throws IOException
+   *           any exception occurred while reading the response
+   */
+  private CachedRequest cacheResponse(Url url, InputStream is) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = IOUtils.toByteArray(is);
+    }
+    finally {
+      IOUtils.closeQuietly(is);
+    }
+
+    // a partial content (206 of a range request) must not be cached under the plain url
+    boolean successful = url.responseCode >= 200 && url.responseCode < 300 && url.responseCode != 206;
+    String host = url.getHost();
+    DictionaryCodec dictionaryCodec = PresetDictionaries.getCodec(host);
+
+    CacheCodec codec;
+    byte[] content;
+    if ("gzip".equalsIgnoreCase(url.getHeader("Content-Encoding")) && storeUpstreamEncoding) {
+      if (bytes.length < compressionThreshold) {
+        codec = CacheCodecs.NONE;
+        content = IOUtils.toByteArray(CacheCodecs.GZIP.decode(bytes));
       }
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      GZIPOutputStream gzip = new GZIPOutputStream(outputStream);
-      IOUtils.copy(is, gzip);
-      IOUtils.closeQuietly(gzip);
-      IOUtils.closeQuietly(outputStream);
+      else {
+        codec = CacheCodecs.GZIP;
+        content = bytes;
+      }
+    }
+    else if (dictionaryCodec != null && bytes.length >= PresetDictionaries.MIN_SIZE) {
+      codec = dictionaryCodec;
+      content = codec.encode(bytes);
+    }
+    else if (bytes.length < compressionThreshold) {
+      codec = CacheCodecs.NONE;
+      content = bytes;
+    }
+    else {
+      codec = storageCodec;
+      content = codec.encode(bytes);
+    }
+
+    // offer the plain content for the dictionary training
+    if (successful && dictionaryCodec == null && codec != CacheCodecs.GZIP) {
+      PresetDictionaries.sample(host, bytes);
+    }
+
+    // and now fill the CachedRequest object with the result
+    CachedRequest cachedRequest = new CachedRequest(url, content, codec.getId());
+    if (codec == dictionaryCodec) {
+      cachedRequest.dictionaryId = dictionaryCodec.getDictionaryId();
+    }
+    if (successful) {
+      store(cachedRequest);
+    }
+    return cachedRequest;
+  }
+
+  /**
+   * put the entry into the memory cache and the disk cache (if enabled)
+   *
+   * @param cachedRequest
+   *          the entry to store
+   */
+  private void store(CachedRequest cachedRequest) {
+    if (prefetching) {
+      // mark it before an off heap copy is put into the memory cache
+      cachedRequest.prefetched = true;
+    }
+    putInMemoryCache(this.url, cachedRequest);
+
+    SegmentStore diskCache = DISK_CACHE;
+    if (diskCache != null) {
+      try {
+        if (cachedRequest.codecId == PresetDictionaries.CODEC_ID) {
+          // the entry is worthless without its dictionary
+          PresetDictionaries.persist(cachedRequest.dictionaryId);
+        }
+        diskCache.put(this.url, cachedRequest.toBytes(), diskCacheTimeToLive);
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not write to the disk cache: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * put the entry into the memory cache. If off heap storage is enabled, big contents are moved to the SlabStore (the memory cache gets a copy of
+   * the entry holding only the handle, so the given entry can still be read on the heap)
+   *
+   * @param url
+   *          the url
+   * @param cachedRequest
+   *          the entry to put
+   */
+  private static void putInMemoryCache(String url, CachedRequest cachedRequest) {
+    if (cachedRequest.offHeapContent != null) {
+      // an entry from the memory cache (e.g. revalidated): every insertion holds its own reference to the content
+      if (cachedRequest.offHeapContent.retain()) {
+        CACHE.put(url, cachedRequest);
+      }
+      return;
+    }
 
-      // and now fill the CachedRequest object with the result
-      cachedRequest = new CachedRequest(url, outputStream.toByteArray());
-      if (url.responseCode >= 200 && url.responseCode < 300) {
-        CACHE.put(this.url, cachedRequest);
+    SlabStore offHeapStore = OFF_HEAP_STORE;
+    if (offHeapStore != null && cachedRequest.content.length >= offHeapThreshold) {
+      CachedRequest offHeap = cachedRequest.copyOffHeap(offHeapStore);
+      if (offHeap != null) {
+        CACHE.put(url, offHeap);
+        return;
       }
     }
 
+    CACHE.put(url, cachedRequest);
+  }
+
+  /**
+   * can the entry be served without a request? In offline mode every cached entry is served (regardless of its age)
+   */
+  private static boolean isServable(CachedRequest cachedRequest) {
+    return cachedRequest != null && (cachedRequest.isFresh() || CacheFallbackInterceptor.isOfflineMode());
+  }
+
+  /**
+   * take over the response data from the CachedRequest and provide the (decoded) content
+   * 
+   * @param cachedRequest
+   *          the CachedRequest
+   * @return the InputStream of the content or null if the off heap content has already been released
+   * @throws IOException
+   *           any exception occurred while decoding
+   */
+  private InputStream readFromCache(CachedRequest cachedRequest) throws IOException {
+    InputStream is = cachedRequest.decodeContent();
+    if (is == null) {
+      return null;
+    }
+
+    if (prefetching) {
+      cachedRequest.prefetched = true;
+    }
+    else if (cachedRequest.prefetched) {
+      cachedRequest.prefetched = false;
+      SearchPrefetcher.recordHit();
+    }
+
+    this.stale = !cachedRequest.isFresh();
     responseCode = cachedRequest.responseCode;
     responseMessage = cachedRequest.responseMessage;
     responseCharset = cachedRequest.responseCharset;
@@ -87,22 +623,236 @@ public class CachedUrl extends Url {
     headersResponse = cachedRequest.headersResponse;
     headersRequest.addAll(cachedRequest.headersRequest);
 
-    return new GZIPInputStream(new ByteArrayInputStream(cachedRequest.content));
+    return is;
+  }
+
+  /**
+   * set the codec which is used to store the content of cached responses (e.g. CacheCodecs.NONE, CacheCodecs.GZIP or CacheCodecs.deflate(level))
+   *
+   * @param codec
+   *          the codec
+   */
+  public static void setStorageCodec(CacheCodec codec) {
+    if (codec != null) {
+      CacheCodecs.register(codec);
+      storageCodec = codec;
+    }
+  }
+
+  /**
+   * store the content in the (gzip) encoding of the server rather than decoding and re-encoding it. Only responses which have actually been
+   * compressed by the server are stored that way; all other responses are stored with the storage codec
+   *
+   * @param enabled
+   *          true to keep the upstream encoding
+   */
+  public static void setStoreUpstreamEncoding(boolean enabled) {
+    storeUpstreamEncoding = enabled;
+  }
+
+  /**
+   * set the size below which the content is stored uncompressed
+   *
+   * @param bytes
+   *          the threshold in bytes
+   */
+  public static void setCompressionThreshold(int bytes) {
+    compressionThreshold = Math.max(0, bytes);
+  }
+
+  /**
+   * get the amount of requests which have been served by waiting for an already running request of the same url (rather than sending an own
+   * request)
+   *
+   * @return the amount of coalesced requests
+   */
+  public static long getCoalescedRequestCount() {
+    return COALESCED.get();
+  }
+
+  /**
+   * set the maximum size of the memory cache (in bytes)
+   *
+   * @param bytes
+   *          the maximum size in bytes
+   */
+  public static void setMaximumCacheSize(long bytes) {
+    CACHE.setMaximumWeight(bytes);
+  }
+
+  /**
+   * get the actual size of the memory cache (in bytes)
+   *
+   * @return the size of all cached entries in bytes
+   */
+  public static long getCacheSize() {
+    return CACHE.getWeight();
+  }
+
+  /**
+   * get the amount of entries which have been evicted from the memory cache due to the size limit
+   *
+   * @return the amount of evictions
+   */
+  public static long getCacheEvictionCount() {
+    return CACHE.getEvictionCount();
+  }
+
+  /**
+   * enable the persistent disk cache as a second tier beneath the memory cache. Responses are written to the disk cache too and memory cache
+   * misses are looked up in the disk cache, so the cache survives restarts
+   *
+   * @param directory
+   *          the directory for the disk cache
+   * @param maxBytes
+   *          the size budget of the disk cache (in bytes)
+   * @param timeToLive
+   *          the time to live of an entry in the disk cache (in seconds)
+   * @throws IOException
+   *           the disk cache could not be opened
+   */
+  public static synchronized void enableDiskCache(File directory, long maxBytes, long timeToLive) throws IOException {
+    disableDiskCache();
+    diskCacheTimeToLive = TimeUnit.SECONDS.toMillis(timeToLive);
+    DISK_CACHE = new SegmentStore(directory, maxBytes);
+    PresetDictionaries.setStore(DISK_CACHE);
+  }
+
+  /**
+   * enable the persistent disk cache with the default settings (see DISK_CACHE_DIR, DEFAULT_DISK_CACHE_SIZE and DEFAULT_DISK_CACHE_TTL)
+   *
+   * @throws IOException
+   *           the disk cache could not be opened
+   */
+  public static void enableDiskCache() throws IOException {
+    enableDiskCache(new File(DISK_CACHE_DIR), DEFAULT_DISK_CACHE_SIZE, DEFAULT_DISK_CACHE_TTL);
+  }
+
+  /**
+   * disable (and close) the persistent disk cache
+   */
+  public static synchronized void disableDiskCache() {
+    if (DISK_CACHE != null) {
+      PresetDictionaries.setStore(null);
+      DISK_CACHE.close();
+      DISK_CACHE = null;
+    }
+  }
+
+  /**
+   * hold big contents of the memory cache off heap (in direct memory), so they do not occupy the old generation of the heap
+   *
+   * @param maxBytes
+   *          the maximum amount of off heap memory (in bytes)
+   * @param threshold
+   *          the size from which contents are stored off heap (in bytes)
+   */
+  public static synchronized void enableOffHeapStorage(long maxBytes, int threshold) {
+    disableOffHeapStorage();
+    offHeapThreshold = Math.max(0, threshold);
+    OFF_HEAP_STORE = new SlabStore(maxBytes);
+  }
+
+  /**
+   * hold big contents of the memory cache off heap with the default threshold (see DEFAULT_OFF_HEAP_THRESHOLD)
+   *
+   * @param maxBytes
+   *          the maximum amount of off heap memory (in bytes)
+   */
+  public static void enableOffHeapStorage(long maxBytes) {
+    enableOffHeapStorage(maxBytes, DEFAULT_OFF_HEAP_THRESHOLD);
+  }
+
+  /**
+   * disable the off heap storage; the memory cache is cleared
+   */
+  public static synchronized void disableOffHeapStorage() {
+    if (OFF_HEAP_STORE != null) {
+      SlabStore offHeapStore = OFF_HEAP_STORE;
+      OFF_HEAP_STORE = null;
+      CACHE.cleanup(true);
+      offHeapStore.close();
+    }
+  }
+
+  /**
+   * get the amount of off heap memory which is occupied by the contents of the memory cache
+   *
+   * @return the size in bytes (0 if off heap storage is disabled)
+   */
+  public static long getOffHeapSize() {
+    SlabStore offHeapStore = OFF_HEAP_STORE;
+    return offHeapStore == null ? 0 : offHeapStore.getUsedBytes();
+  }
+
+  /**
+   * look up the url in the memory cache and afterwards in the disk cache (if enabled)
+   *
+   * @param url
+   *          the url to look up
+   * @return the CachedRequest or null
+   */
+  static CachedRequest lookup(String url) {
+    CachedRequest cachedRequest = CACHE.get(url);
+    if (cachedRequest != null && cachedRequest.offHeapContent != null && cachedRequest.offHeapContent.isReleased()) {
+      // put in while the off heap storage has been disabled
+      CACHE.remove(url);
+      cachedRequest = null;
+    }
+    if (cachedRequest != null) {
+      return cachedRequest;
+    }
+
+    SegmentStore diskCache = DISK_CACHE;
+    if (diskCache == null) {
+      return null;
+    }
+
+    byte[] bytes = diskCache.get(url);
+    if (bytes == null) {
+      return null;
+    }
+
+    try {
+      cachedRequest = CachedRequest.fromBytes(bytes);
+      putInMemoryCache(url, cachedRequest);
+      return cachedRequest;
+    }
+    catch (IOException e) {
+      LOGGER.debug("could not read " + url + " from the disk cache: " + e.getMessage());
+      diskCache.remove(url);
+      return null;
+    }
+  }
+
+  /**
+   * get the amount of expired entries which have been revalidated by a conditional request (304 - not modified) rather than downloading them again
+   *
+   * @return the amount of revalidated entries
+   */
+  public static long getRevalidationCount() {
+    return REVALIDATED.get();
   }
 
   public static void clearCache() {
     CACHE.cleanup(true);
+    SegmentStore diskCache = DISK_CACHE;
+    if (diskCache != null) {
+      diskCache.clear();
+      PresetDictionaries.persistAll();
+    }
   }
 
   /**
-   * Is the url already cached?
+   * Is the url already cached (and not expired)?
    * 
    * @param url
    *          the url to check
    * @return true/false
    */
   public static boolean isCached(String url) {
-    return CACHE.get(url) != null;
+    CachedRequest cachedRequest = lookup(url);
+    return cachedRequest != null && cachedRequest.isFresh();
   }
 
   /**
@@ -115,10 +865,65 @@ public class CachedUrl extends Url {
   }
 
   /**
-   * A inner class for representing cached entries
+   * the weigher for the cached entries: the (compressed) content plus an estimation for headers and metadata
+   */
+  private static class CachedRequestWeigher implements Weigher<CachedRequest> {
+    @Override
+    public int weigh(CachedRequest value) {
+      int weight = 256;
+      if (value.content != null) {
+        weight += value.content.length;
+      }
+      else if (value.offHeapContent != null) {
+        // off heap contents count too, so the maximum cache size limits the SlabStore as well
+        weight += value.offHeapContent.length();
+      }
+      if (value.headersResponse != null) {
+        weight += value.headersResponse.size() * 64;
+      }
+      return weight;
+    }
+  }
+
+  /**
+   * give the off heap content of removed entries back to the SlabStore
+   */
+  private static class OffHeapContentReleaser implements RemovalListener<String, CachedRequest> {
+    @Override
+    public void onRemoval(String key, CachedRequest value, RemovalCause cause) {
+      if (value.offHeapContent != null) {
+        value.offHeapContent.release();
+      }
+    }
+  }
+
+  /**
+   * the result of a real request: the entry or the status of the failed request (shared with the coalesced requests)
    */
-  private static class CachedRequest {
+  private static class FetchResult {
+    final CachedRequest cachedRequest;
+    final int           responseCode;
+    final String        responseMessage;
+    final Headers       headersResponse;
+    final boolean       timedOut;
+
+    FetchResult(Url url, CachedRequest cachedRequest) {
+      this.cachedRequest = cachedRequest;
+      this.responseCode = url.responseCode;
+      this.responseMessage = url.responseMessage;
+      this.headersResponse = url.headersResponse;
+      this.timedOut = url.timedOut;
+    }
+  }
+
+  /**
+   * A inner class for representing cached entries (the content is either held on the heap or off heap)
+   */
+  static class CachedRequest {
     byte[]                     content;
+    SlabStore.Handle           offHeapContent        = null;
+    int                        codecId               = 0;
+    int                        dictionaryId          = 0;
 
     int                        responseCode          = 0;
     String                     responseMessage       = "";
@@ -129,8 +934,19 @@ public class CachedUrl extends Url {
     Headers                    headersResponse       = null;
     List<Pair<String, String>> headersRequest        = new ArrayList<>();
 
-    CachedRequest(Url url, byte[] content) {
+    // validators for conditional requests
+    volatile String            eTag                  = "";
+    volatile String            lastModified          = "";
+    volatile long              storedAt              = System.currentTimeMillis();
+    // fetched by the SearchPrefetcher and not used yet
+    volatile boolean           prefetched            = false;
+
+    private CachedRequest() {
+    }
+
+    CachedRequest(Url url, byte[] content, int codecId) {
       this.content = content;
+      this.codecId = codecId;
 
       this.responseCode = url.responseCode;
       this.responseMessage = url.responseMessage;
@@ -140,6 +956,179 @@ public class CachedUrl extends Url {
 
       this.headersResponse = url.headersResponse;
       this.headersRequest.addAll(url.headersRequest);
+
+      this.eTag = url.getHeader("ETag");
+      this.lastModified = url.getHeader("Last-Modified");
+    }
+
+    /**
+     * is this entry still fresh or does it need to be revalidated/fetched again?
+     */
+    boolean isFresh() {
+      return System.currentTimeMillis() - storedAt < TimeUnit.SECONDS.toMillis(FRESHNESS);
+    }
+
+    /**
+     * may this (expired) entry be served if the provider is not available?
+     */
+    boolean isServableOnError() {
+      long maxAge = TimeUnit.SECONDS.toMillis(FRESHNESS + CacheFallbackInterceptor.getMaxStaleness());
+      return CacheFallbackInterceptor.getMaxStaleness() > 0 && System.currentTimeMillis() - storedAt < maxAge;
+    }
+
+    /**
+     * the entry has been revalidated by a 304 response; refresh the expiry and take over updated validators
+     */
+    void revalidated(Url url) {
+      if (StringUtils.isNotBlank(url.getHeader("ETag"))) {
+        eTag = url.getHeader("ETag");
+      }
+      if (StringUtils.isNotBlank(url.getHeader("Last-Modified"))) {
+        lastModified = url.getHeader("Last-Modified");
+      }
+      storedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * create a copy of this entry with the content stored in the given SlabStore
+     *
+     * @return the copy or null if the SlabStore is full
+     */
+    CachedRequest copyOffHeap(SlabStore offHeapStore) {
+      SlabStore.Handle handle = offHeapStore.put(content);
+      if (handle == null) {
+        return null;
+      }
+
+      CachedRequest copy = new CachedRequest();
+      copy.offHeapContent = handle;
+      copy.codecId = codecId;
+      copy.dictionaryId = dictionaryId;
+      copy.responseCode = responseCode;
+      copy.responseMessage = responseMessage;
+      copy.responseCharset = responseCharset;
+      copy.responseContentType = responseContentType;
+      copy.responseContentLength = responseContentLength;
+      copy.headersResponse = headersResponse;
+      copy.headersRequest.addAll(headersRequest);
+      copy.eTag = eTag;
+      copy.lastModified = lastModified;
+      copy.storedAt = storedAt;
+      copy.prefetched = prefetched;
+      return copy;
+    }
+
+    /**
+     * get a stream of the decoded content
+     *
+     * @return the stream or null if the off heap content has already been released
+     */
+    InputStream decodeContent() throws IOException {
+      CacheCodec codec = getCodec();
+      if (content != null) {
+        return codec.decode(content);
+      }
+      InputStream is = offHeapContent.openStream();
+      return is == null ? null : CacheCodecs.decode(codec, is);
+    }
+
+    /**
+     * get the (encoded) content as byte array
+     */
+    byte[] getContentBytes() throws IOException {
+      if (content != null) {
+        return content;
+      }
+      byte[] bytes = offHeapContent.toByteArray();
+      if (bytes == null) {
+        throw new IOException("the off heap content has already been released");
+      }
+      return bytes;
+    }
+
+    /**
+     * get the codec to decode the content
+     */
+    CacheCodec getCodec() throws IOException {
+      if (codecId == PresetDictionaries.CODEC_ID) {
+        return PresetDictionaries.forId(dictionaryId);
+      }
+      return CacheCodecs.forId(codecId);
+    }
+
+    /**
+     * serialize this entry for the disk cache (the request headers are not persisted)
+     */
+    byte[] toBytes() throws IOException {
+      byte[] contentBytes = getContentBytes();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(contentBytes.length + 512);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(SERIALIZATION_VERSION);
+      out.writeInt(responseCode);
+      out.writeUTF(StringUtils.defaultString(responseMessage));
+      out.writeUTF(responseCharset == null ? "" : responseCharset.name());
+      out.writeUTF(StringUtils.defaultString(responseContentType));
+      out.writeLong(responseContentLength);
+      out.writeUTF(StringUtils.defaultString(eTag));
+      out.writeUTF(StringUtils.defaultString(lastModified));
+      out.writeLong(storedAt);
+
+      int headerCount = headersResponse == null ? 0 : headersResponse.size();
+      out.writeInt(headerCount);
+      for (int i = 0; i < headerCount; i++) {
+        out.writeUTF(headersResponse.name(i));
+        out.writeUTF(headersResponse.value(i));
+      }
+
+      out.writeByte(codecId);
+      out.writeInt(dictionaryId);
+      out.writeInt(contentBytes.length);
+      out.write(contentBytes);
+      out.close();
+      return bytes.toByteArray();
+    }
+
+    /**
+     * deserialize an entry from the disk cache
+     */
+    static CachedRequest fromBytes(byte[] bytes) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readByte() != SERIALIZATION_VERSION) {
+        throw new IOException("unknown version");
+      }
+
+      CachedRequest cachedRequest = new CachedRequest();
+      cachedRequest.responseCode = in.readInt();
+      cachedRequest.responseMessage = in.readUTF();
+      String charset = in.readUTF();
+      if (StringUtils.isNotBlank(charset)) {
+        try {
+          cachedRequest.responseCharset = Charset.forName(charset);
+        }
+        catch (Exception ignored) {
+        }
+      }
+      cachedRequest.responseContentType = in.readUTF();
+      cachedRequest.responseContentLength = in.readLong();
+      cachedRequest.eTag = in.readUTF();
+      cachedRequest.lastModified = in.readUTF();
+      cachedRequest.storedAt = in.readLong();
+
+      int headerCount = in.readInt();
+      Headers.Builder headers = new Headers.Builder();
+      for (int i = 0; i < headerCount; i++) {
+        headers.add(in.readUTF(), in.readUTF());
+      }
+      cachedRequest.headersResponse = headers.build();
+
+      cachedRequest.codecId = in.readUnsignedByte();
+      cachedRequest.dictionaryId = in.readInt();
+      cachedRequest.content = new byte[in.readInt()];
+      in.readFully(cachedRequest.content);
+
+      // fail early if the entry cannot be decoded (e.g. the dictionary is gone)
+      cachedRequest.getCodec();
+      return cachedRequest;
     }
   }
 }
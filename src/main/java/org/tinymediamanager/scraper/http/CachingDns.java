@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Dns;
+
+/**
+ * The class CachingDns. An in-process DNS cache for OkHttp: resolved addresses are kept for the configured time to live. If a lookup fails, an
+ * expired entry is used as a fallback (up to the max staleness), so a flaky resolver does not break running scrapes.<br>
+ * The cache is held statically, so all clients share the same entries.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class CachingDns implements Dns {
+  private static final Logger                       LOGGER        = LoggerFactory.getLogger(CachingDns.class);
+
+  /** the default time to live of an entry (in seconds) */
+  public static final long                          DEFAULT_TTL   = 300;
+  /** the maximum time an expired entry is used if the lookup fails (in seconds) */
+  public static final long                          MAX_STALENESS = 86400;
+
+  private static final ConcurrentMap<String, Entry> CACHE         = new ConcurrentHashMap<>();
+  private static volatile long                      timeToLive    = TimeUnit.SECONDS.toMillis(DEFAULT_TTL);
+
+  private final Dns                                 delegate;
+
+  public CachingDns() {
+    this(Dns.SYSTEM);
+  }
+
+  public CachingDns(Dns delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * set the time to live for all entries
+   *
+   * @param seconds
+   *          the time to live in seconds (0 disables the cache)
+   */
+  public static void setTimeToLive(long seconds) {
+    timeToLive = TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+  }
+
+  /**
+   * remove all entries from the cache
+   */
+  public static void clear() {
+    CACHE.clear();
+  }
+
+  /**
+   * is there a valid entry for the given host?
+   *
+   * @param hostname
+   *          the host
+   * @return true/false
+   */
+  public static boolean isCached(String hostname) {
+    Entry entry = CACHE.get(hostname.toLowerCase(Locale.ROOT));
+    return entry != null && !entry.isExpired(System.currentTimeMillis());
+  }
+
+  @Override
+  public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+    String key = hostname.toLowerCase(Locale.ROOT);
+    long now = System.currentTimeMillis();
+
+    Entry entry = CACHE.get(key);
+    if (entry != null && !entry.isExpired(now)) {
+      return entry.addresses;
+    }
+
+    try {
+      List<InetAddress> addresses = Collections.unmodifiableList(delegate.lookup(hostname));
+      if (timeToLive > 0 && !addresses.isEmpty()) {
+        CACHE.put(key, new Entry(addresses, now + timeToLive));
+      }
+      return addresses;
+    }
+    catch (UnknownHostException e) {
+      if (entry != null && now - entry.expires < TimeUnit.SECONDS.toMillis(MAX_STALENESS)) {
+        LOGGER.debug("could not resolve " + hostname + " - using expired addresses");
+        return entry.addresses;
+      }
+      throw e;
+    }
+  }
+
+  private static class Entry {
+    final List<InetAddress> addresses;
+    final long              expires;
+
+    Entry(List<InetAddress> addresses, long expires) {
+      this.addresses = addresses;
+      this.expires = expires;
+    }
+
+    boolean isExpired(long now) {
+      return now >= expires;
+    }
+  }
+}
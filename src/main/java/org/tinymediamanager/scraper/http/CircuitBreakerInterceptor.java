@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * The class CircuitBreakerInterceptor. An OkHttp interceptor which stops sending requests to a host that keeps failing (connection problems,
+ * timeouts or 5xx responses). After the configured amount of consecutive failures the breaker opens and all requests to this host fail immediately
+ * with a CircuitOpenException. After the open duration a single probe request is let through (half open); if it succeeds the breaker closes again,
+ * otherwise it stays open for another period.<br>
+ * The state is held statically, so all clients share the same breakers. Callers can query the state to skip a provider which is down.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+  private static final Logger                             LOGGER                    = LoggerFactory.getLogger(CircuitBreakerInterceptor.class);
+
+  /** the default amount of consecutive failures which opens the breaker */
+  public static final int                                 DEFAULT_FAILURE_THRESHOLD = 5;
+  /** the default time the breaker stays open (in ms) */
+  public static final long                                DEFAULT_OPEN_DURATION     = 30000;
+
+  private static final ConcurrentMap<String, Thresholds>  THRESHOLDS                = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, HostBreaker> BREAKERS                  = new ConcurrentHashMap<>();
+  private static volatile Thresholds                      defaultThresholds         = new Thresholds(DEFAULT_FAILURE_THRESHOLD,
+      DEFAULT_OPEN_DURATION);
+
+  /**
+   * the state of a circuit breaker
+   */
+  public enum State {
+    /** requests pass */
+    CLOSED,
+    /** requests are rejected */
+    OPEN,
+    /** a single probe request is in flight */
+    HALF_OPEN
+  }
+
+  /**
+   * set the default thresholds for all hosts without an own config
+   *
+   * @param failureThreshold
+   *          the amount of consecutive failures which opens the breaker
+   * @param openDuration
+   *          the time the breaker stays open before probing the host again (in ms)
+   */
+  public static void setThresholds(int failureThreshold, long openDuration) {
+    defaultThresholds = new Thresholds(failureThreshold, openDuration);
+    for (HostBreaker breaker : BREAKERS.values()) {
+      breaker.configure(getThresholds(breaker.host));
+    }
+  }
+
+  /**
+   * set the thresholds for the given hosts
+   *
+   * @param failureThreshold
+   *          the amount of consecutive failures which opens the breaker
+   * @param openDuration
+   *          the time the breaker stays open before probing the host again (in ms)
+   * @param hosts
+   *          the hosts
+   */
+  public static void setThresholds(int failureThreshold, long openDuration, String... hosts) {
+    Thresholds thresholds = new Thresholds(failureThreshold, openDuration);
+    for (String host : hosts) {
+      if (StringUtils.isBlank(host)) {
+        continue;
+      }
+      String key = host.toLowerCase(Locale.ROOT);
+      THRESHOLDS.put(key, thresholds);
+      HostBreaker breaker = BREAKERS.get(key);
+      if (breaker != null) {
+        breaker.configure(thresholds);
+      }
+    }
+  }
+
+  /**
+   * get the state of the breaker for the given host
+   *
+   * @param host
+   *          the host
+   * @return the state
+   */
+  public static State getState(String host) {
+    HostBreaker breaker = BREAKERS.get(host.toLowerCase(Locale.ROOT));
+    if (breaker == null) {
+      return State.CLOSED;
+    }
+    return breaker.getState();
+  }
+
+  /**
+   * check whether a request to the given host would currently be let through (the breaker is closed or the open duration is over)
+   *
+   * @param host
+   *          the host
+   * @return true if a request may be sent
+   */
+  public static boolean isAvailable(String host) {
+    HostBreaker breaker = BREAKERS.get(host.toLowerCase(Locale.ROOT));
+    return breaker == null || breaker.isAvailable();
+  }
+
+  /**
+   * close all breakers (the configuration will be kept)
+   */
+  public static void reset() {
+    BREAKERS.clear();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    // requests which are answered from the cache never hit the network
+    if (CacheFallbackInterceptor.isCacheOnly(chain.request())) {
+      return chain.proceed(chain.request());
+    }
+
+    String host = chain.request().url().host();
+    HostBreaker breaker = getBreaker(host);
+
+    if (!breaker.tryAcquire()) {
+      throw new CircuitOpenException(host, breaker.getRetryAt());
+    }
+
+    Response response;
+    try {
+      response = chain.proceed(chain.request());
+    }
+    catch (IOException | RuntimeException e) {
+      if (chain.call() != null && chain.call().isCanceled()) {
+        // not the fault of the host
+        breaker.released();
+      }
+      else if (breaker.failed()) {
+        LOGGER.warn("host " + host + " keeps failing - opening circuit breaker; " + e.getMessage());
+      }
+      throw e;
+    }
+
+    if (response.code() >= 500 && response.code() != 501 && response.code() != 505) {
+      if (breaker.failed()) {
+        LOGGER.warn("host " + host + " keeps failing - opening circuit breaker; HTTP " + response.code());
+      }
+    }
+    else {
+      if (breaker.succeeded()) {
+        LOGGER.info("host " + host + " is reachable again - closing circuit breaker");
+      }
+    }
+
+    return response;
+  }
+
+  private static Thresholds getThresholds(String key) {
+    Thresholds thresholds = THRESHOLDS.get(key);
+    return thresholds != null ? thresholds : defaultThresholds;
+  }
+
+  private static HostBreaker getBreaker(String host) {
+    String key = host.toLowerCase(Locale.ROOT);
+    HostBreaker breaker = BREAKERS.get(key);
+    if (breaker == null) {
+      breaker = new HostBreaker(key, getThresholds(key));
+      HostBreaker existing = BREAKERS.putIfAbsent(key, breaker);
+      if (existing != null) {
+        breaker = existing;
+      }
+    }
+    return breaker;
+  }
+
+  /**
+   * the configured thresholds
+   */
+  static class Thresholds {
+    final int  failureThreshold;
+    final long openDuration;
+
+    Thresholds(int failureThreshold, long openDuration) {
+      this.failureThreshold = Math.max(1, failureThreshold);
+      this.openDuration = Math.max(0, openDuration);
+    }
+  }
+
+  /**
+   * the breaker of a single host. While closed the check is a single volatile read, so the overhead for healthy hosts is negligible
+   */
+  static class HostBreaker {
+    private final String   host;
+    private volatile State state     = State.CLOSED;
+    private volatile long  openUntil = 0;
+    private int            failures  = 0;
+    private boolean        probing   = false;
+    private Thresholds     thresholds;
+
+    HostBreaker(String host, Thresholds thresholds) {
+      this.host = host;
+      this.thresholds = thresholds;
+    }
+
+    synchronized void configure(Thresholds thresholds) {
+      this.thresholds = thresholds;
+    }
+
+    State getState() {
+      return state;
+    }
+
+    long getRetryAt() {
+      return openUntil;
+    }
+
+    boolean isAvailable() {
+      State s = state;
+      return s == State.CLOSED || (s == State.OPEN && System.currentTimeMillis() >= openUntil);
+    }
+
+    /**
+     * may a request be sent?
+     *
+     * @return true if the request may pass
+     */
+    boolean tryAcquire() {
+      if (state == State.CLOSED) {
+        return true;
+      }
+      synchronized (this) {
+        if (state == State.CLOSED) {
+          return true;
+        }
+        if (state == State.OPEN && !probing && System.currentTimeMillis() >= openUntil) {
+          // let a single probe through
+          state = State.HALF_OPEN;
+          probing = true;
+          return true;
+        }
+        return false;
+      }
+    }
+
+    /**
+     * the request failed
+     *
+     * @return true if the breaker has been opened by this failure
+     */
+    synchronized boolean failed() {
+      failures++;
+      if (probing) {
+        probing = false;
+        open();
+        return false;
+      }
+      if (state == State.CLOSED && failures >= thresholds.failureThreshold) {
+        open();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * the request succeeded
+     *
+     * @return true if the breaker has been closed by this success
+     */
+    synchronized boolean succeeded() {
+      failures = 0;
+      if (state != State.CLOSED) {
+        state = State.CLOSED;
+        probing = false;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * the request has been cancelled - a probe does not count
+     */
+    synchronized void released() {
+      if (probing) {
+        probing = false;
+        state = State.OPEN;
+      }
+    }
+
+    private void open() {
+      openUntil = System.currentTimeMillis() + thresholds.openDuration;
+      state = State.OPEN;
+    }
+  }
+}
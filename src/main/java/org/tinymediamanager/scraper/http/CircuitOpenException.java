@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+
+/**
+ * The class CircuitOpenException is thrown if a request has been rejected because the circuit breaker of the host is open
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class CircuitOpenException extends IOException {
+  private static final long serialVersionUID = 2364521870451928741L;
+
+  private final String      host;
+  private final long        retryAt;
+
+  public CircuitOpenException(String host, long retryAt) {
+    super("circuit breaker for " + host + " is open");
+    this.host = host;
+    this.retryAt = retryAt;
+  }
+
+  /**
+   * the host which has been rejected
+   *
+   * @return the host
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * the time when the host will be probed again
+   *
+   * @return the time in ms (System.currentTimeMillis())
+   */
+  public long getRetryAt() {
+    return retryAt;
+  }
+}
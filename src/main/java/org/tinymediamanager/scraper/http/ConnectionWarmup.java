@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.MediaProviderInfo;
+
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class ConnectionWarmup. Providers register the hosts they will talk to (by the id of their MediaProviderInfo); a warm up resolves these hosts
+ * and opens a connection to them on a background thread, so the first scrape does not pay the DNS, TCP and TLS handshake costs. The connections
+ * are kept in the connection pool of the shared OkHttpClient; the warm up requests bypass its interceptors (rate limit, circuit breaker, metrics).
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class ConnectionWarmup {
+  private static final Logger                             LOGGER   = LoggerFactory.getLogger(ConnectionWarmup.class);
+  private static final ConcurrentMap<String, Set<String>> HOSTS    = new ConcurrentHashMap<>();
+  private static final ExecutorService                    EXECUTOR = createExecutor();
+
+  private static OkHttpClient                             client   = null;
+  private static OkHttpClient                             source   = null;
+
+  private ConnectionWarmup() {
+  }
+
+  /**
+   * register the hosts of a provider
+   *
+   * @param providerInfo
+   *          the provider info of the provider
+   * @param hosts
+   *          the hosts (with optional scheme, e.g. "api.themoviedb.org" or "https://api.themoviedb.org"; https is used if no scheme is given)
+   */
+  public static void register(MediaProviderInfo providerInfo, String... hosts) {
+    register(providerInfo.getId(), hosts);
+  }
+
+  /**
+   * register the hosts of a provider
+   *
+   * @param providerId
+   *          the id of the provider (see MediaProviderInfo)
+   * @param hosts
+   *          the hosts (with optional scheme, e.g. "api.themoviedb.org" or "https://api.themoviedb.org"; https is used if no scheme is given)
+   */
+  public static void register(String providerId, String... hosts) {
+    if (StringUtils.isBlank(providerId)) {
+      return;
+    }
+
+    Set<String> registered = HOSTS.get(providerId);
+    if (registered == null) {
+      registered = new CopyOnWriteArraySet<>();
+      Set<String> existing = HOSTS.putIfAbsent(providerId, registered);
+      if (existing != null) {
+        registered = existing;
+      }
+    }
+
+    for (String host : hosts) {
+      if (StringUtils.isNotBlank(host)) {
+        registered.add(normalize(host));
+      }
+    }
+  }
+
+  /**
+   * get all registered hosts of the given provider
+   *
+   * @param providerId
+   *          the id of the provider
+   * @return the registered hosts (base urls)
+   */
+  public static List<String> getHosts(String providerId) {
+    Set<String> hosts = HOSTS.get(providerId);
+    if (hosts == null) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(hosts);
+  }
+
+  /**
+   * warm up the connections to the hosts of all registered providers (in the background)
+   *
+   * @return the future of the warm up
+   */
+  public static Future<?> warmUp() {
+    Set<String> all = new LinkedHashSet<>();
+    for (Set<String> hosts : HOSTS.values()) {
+      all.addAll(hosts);
+    }
+    return warmUp(all);
+  }
+
+  /**
+   * warm up the connections to the hosts of the given provider (in the background)
+   *
+   * @param providerId
+   *          the id of the provider
+   * @return the future of the warm up
+   */
+  public static Future<?> warmUp(String providerId) {
+    Set<String> hosts = HOSTS.get(providerId);
+    if (hosts == null) {
+      return warmUp(new LinkedHashSet<String>());
+    }
+    return warmUp(new LinkedHashSet<>(hosts));
+  }
+
+  private static Future<?> warmUp(final Set<String> hosts) {
+    return EXECUTOR.submit(new Runnable() {
+      @Override
+      public void run() {
+        for (String host : hosts) {
+          if (Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          warmUpHost(host);
+        }
+      }
+    });
+  }
+
+  /**
+   * resolve the host and open a connection via a HEAD request of the root - the connection stays in the pool afterwards
+   */
+  private static void warmUpHost(String baseUrl) {
+    long start = System.currentTimeMillis();
+    Response response = null;
+    try {
+      Request request = new Request.Builder().url(baseUrl + "/").head().build();
+      response = getClient().newCall(request).execute();
+      LOGGER.debug("warmed up " + baseUrl + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+    catch (Exception e) {
+      LOGGER.debug("could not warm up " + baseUrl + " ; " + e.getMessage());
+    }
+    finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * get the client for the warm up: it shares the connection pool, dns cache and proxy/SSL settings of the main client, but none of its
+   * interceptors - a warm up must not use up the rate limit, trip the circuit breaker or show up in the metrics
+   */
+  static synchronized OkHttpClient getClient() {
+    OkHttpClient mainClient = TmmHttpClient.getHttpClient();
+    if (client == null || source != mainClient) {
+      // (re-)created along with the main client
+      OkHttpClient.Builder builder = mainClient.newBuilder();
+      builder.interceptors().clear();
+      builder.networkInterceptors().clear();
+      builder.eventListener(EventListener.NONE);
+      client = builder.build();
+      source = mainClient;
+    }
+    return client;
+  }
+
+  private static String normalize(String host) {
+    String h = host.trim().toLowerCase(Locale.ROOT);
+    if (!h.startsWith("http://") && !h.startsWith("https://")) {
+      h = "https://" + h;
+    }
+    while (h.endsWith("/")) {
+      h = h.substring(0, h.length() - 1);
+    }
+    return h;
+  }
+
+  private static ExecutorService createExecutor() {
+    return Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "connection-warmup");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+}
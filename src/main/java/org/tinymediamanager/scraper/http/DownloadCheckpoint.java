@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class DownloadCheckpoint is used for resumable downloads. The content is downloaded into a .part file; a small sidecar file (.part.meta)
+ * holds the validator (ETag or Last-Modified) of the resource and the amount of bytes already written, so an interrupted download can be resumed
+ * with a range request.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+class DownloadCheckpoint {
+  private static final Logger LOGGER        = LoggerFactory.getLogger(DownloadCheckpoint.class);
+  private static final String KEY_URL       = "url";
+  private static final String KEY_VALIDATOR = "validator";
+  private static final String KEY_OFFSET    = "offset";
+
+  private final File          target;
+  private final File          partFile;
+  private final File          sidecarFile;
+
+  private String              url           = "";
+  private String              validator     = "";
+  private long                offset        = 0;
+
+  /**
+   * create (or load) the checkpoint for the given target file
+   *
+   * @param target
+   *          the target file of the download
+   * @param url
+   *          the url of the download
+   */
+  DownloadCheckpoint(File target, String url) {
+    this.target = target;
+    this.partFile = new File(target.getPath() + ".part");
+    this.sidecarFile = new File(target.getPath() + ".part.meta");
+    load(url);
+  }
+
+  private void load(String url) {
+    if (!partFile.exists() || !sidecarFile.exists()) {
+      return;
+    }
+
+    Properties properties = new Properties();
+    InputStream is = null;
+    try {
+      is = new FileInputStream(sidecarFile);
+      properties.load(is);
+
+      // only resume the same url
+      if (!url.equals(properties.getProperty(KEY_URL))) {
+        return;
+      }
+      this.url = url;
+      this.validator = properties.getProperty(KEY_VALIDATOR, "");
+      // the part file may be shorter than the recorded offset (data not flushed before a crash)
+      this.offset = Math.min(Long.parseLong(properties.getProperty(KEY_OFFSET, "0")), partFile.length());
+    }
+    catch (Exception e) {
+      LOGGER.debug("could not read download checkpoint " + sidecarFile + ": " + e.getMessage());
+      validator = "";
+      offset = 0;
+    }
+    finally {
+      IOUtils.closeQuietly(is);
+    }
+  }
+
+  /**
+   * can the download be resumed?
+   *
+   * @return true if there is a part file along with a validator
+   */
+  boolean canResume() {
+    return offset > 0 && StringUtils.isNotBlank(validator);
+  }
+
+  File getPartFile() {
+    return partFile;
+  }
+
+  String getValidator() {
+    return validator;
+  }
+
+  long getOffset() {
+    return offset;
+  }
+
+  /**
+   * start a new download (from the beginning or from the actual offset)
+   *
+   * @param url
+   *          the url of the download
+   * @param validator
+   *          the validator of the resource (or empty if the resource has none - then the download cannot be resumed)
+   * @param offset
+   *          the offset where the download starts
+   */
+  void start(String url, String validator, long offset) {
+    this.url = url;
+    this.validator = StringUtils.defaultString(validator);
+    this.offset = offset;
+    save();
+  }
+
+  /**
+   * record the progress of the download
+   *
+   * @param offset
+   *          the amount of bytes written to the part file
+   */
+  void update(long offset) {
+    this.offset = offset;
+    save();
+  }
+
+  /**
+   * the download is complete: move the part file atomically to the target file and remove the sidecar
+   *
+   * @throws IOException
+   *           the part file could not be moved
+   */
+  void complete() throws IOException {
+    try {
+      Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    deleteSidecar();
+  }
+
+  /**
+   * discard the part file and the sidecar
+   */
+  void discard() {
+    if (partFile.exists() && !partFile.delete()) {
+      LOGGER.debug("could not delete " + partFile);
+    }
+    deleteSidecar();
+    validator = "";
+    offset = 0;
+  }
+
+  private void deleteSidecar() {
+    if (sidecarFile.exists() && !sidecarFile.delete()) {
+      LOGGER.debug("could not delete " + sidecarFile);
+    }
+  }
+
+  private void save() {
+    // without a validator we cannot resume - so there is no need for a sidecar
+    if (StringUtils.isBlank(validator)) {
+      deleteSidecar();
+      return;
+    }
+
+    Properties properties = new Properties();
+    properties.setProperty(KEY_URL, url);
+    properties.setProperty(KEY_VALIDATOR, validator);
+    properties.setProperty(KEY_OFFSET, Long.toString(offset));
+
+    OutputStream os = null;
+    try {
+      os = new FileOutputStream(sidecarFile);
+      properties.store(os, null);
+    }
+    catch (IOException e) {
+      LOGGER.debug("could not write download checkpoint " + sidecarFile + ": " + e.getMessage());
+    }
+    finally {
+      IOUtils.closeQuietly(os);
+    }
+  }
+}
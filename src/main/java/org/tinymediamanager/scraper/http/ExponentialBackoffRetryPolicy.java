@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The class ExponentialBackoffRetryPolicy retries idempotent requests with an exponential backoff and decorrelated jitter (the next delay is a random
+ * value between the base delay and three times the previous delay, capped at the maximum delay). A Retry-After of the server is honored and the
+ * retries stop once the maximum elapsed time would be exceeded.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+  private final long   baseDelay;
+  private final long   maxDelay;
+  private final long   maxElapsed;
+  private final Random random = new Random();
+
+  /**
+   * create a new policy with the default values (500ms base delay, 30s max delay, 60s max elapsed time)
+   */
+  public ExponentialBackoffRetryPolicy() {
+    this(500, 30000, 60000);
+  }
+
+  /**
+   * create a new policy
+   *
+   * @param baseDelay
+   *          the minimum delay (in ms)
+   * @param maxDelay
+   *          the maximum delay (in ms)
+   * @param maxElapsed
+   *          the maximum time for all attempts together (in ms)
+   */
+  public ExponentialBackoffRetryPolicy(long baseDelay, long maxDelay, long maxElapsed) {
+    this.baseDelay = Math.max(1, baseDelay);
+    this.maxDelay = Math.max(this.baseDelay, maxDelay);
+    this.maxElapsed = maxElapsed;
+  }
+
+  @Override
+  public boolean isRetryable(String method) {
+    String m = method.toUpperCase(Locale.ROOT);
+    return "GET".equals(m) || "HEAD".equals(m) || "OPTIONS".equals(m) || "PUT".equals(m) || "DELETE".equals(m);
+  }
+
+  @Override
+  public long nextDelay(int attempt, long previousDelay, long elapsed, long retryAfter) {
+    long delay;
+    if (retryAfter > 0) {
+      delay = retryAfter;
+    }
+    else {
+      // decorrelated jitter
+      long upper = Math.max(baseDelay, Math.min(maxDelay, previousDelay * 3));
+      delay = baseDelay + (long) (random.nextDouble() * (upper - baseDelay));
+    }
+
+    if (elapsed + delay > maxElapsed) {
+      return NO_RETRY;
+    }
+    return delay;
+  }
+}
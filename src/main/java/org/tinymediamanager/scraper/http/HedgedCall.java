@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class HedgedCall sends a request and - if no response arrived within the given delay - a second identical request. The first response wins,
+ * the other call is cancelled. Only use this for idempotent requests!
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+class HedgedCall {
+  private static final Logger                   LOGGER     = LoggerFactory.getLogger(HedgedCall.class);
+  private static final ScheduledExecutorService SCHEDULER  = createScheduler();
+  private static final AtomicLong               HEDGES     = new AtomicLong();
+  private static final AtomicLong               HEDGE_WINS = new AtomicLong();
+
+  private final OkHttpClient                    client;
+  private final Request                         request;
+  private final long                            delay;
+  private final HttpFuture<Response>            future     = new HttpFuture<>();
+  private final List<Call>                      calls      = new ArrayList<>(2);
+
+  private ScheduledFuture<?>                    hedgeTask  = null;
+  private Call                                  winner     = null;
+  private IOException                           failure    = null;
+  private int                                   pending    = 0;
+  private boolean                               hedged     = false;
+  private boolean                               finished   = false;
+
+  HedgedCall(OkHttpClient client, Request request, long delay) {
+    this.client = client;
+    this.request = request;
+    this.delay = delay;
+  }
+
+  /**
+   * the amount of hedge requests which have been sent
+   */
+  static long getHedgeCount() {
+    return HEDGES.get();
+  }
+
+  /**
+   * the amount of hedge requests which have been faster than the original request
+   */
+  static long getHedgeWinCount() {
+    return HEDGE_WINS.get();
+  }
+
+  /**
+   * enqueue the request (and schedule the hedge request)
+   *
+   * @return the future containing the response of the winning call
+   */
+  HttpFuture<Response> enqueue() {
+    future.addCallback(new HttpFuture.Callback<Response>() {
+      @Override
+      public void onSuccess(Response result) {
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (t instanceof CancellationException) {
+          finish(null);
+        }
+      }
+    });
+
+    synchronized (this) {
+      send(false);
+      hedgeTask = SCHEDULER.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (HedgedCall.this) {
+            if (!finished) {
+              HEDGES.incrementAndGet();
+              LOGGER.debug("no response from " + request.url().host() + " within " + delay + "ms - sending hedge request");
+              hedged = true;
+              send(true);
+            }
+          }
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    return future;
+  }
+
+  /**
+   * execute the request and block until the first response arrived
+   *
+   * @return the response of the winning call
+   * @throws IOException
+   *           the exception of the failed call(s)
+   */
+  Response execute() throws IOException {
+    HttpFuture<Response> f = enqueue();
+    try {
+      return f.get();
+    }
+    catch (InterruptedException e) {
+      f.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted");
+    }
+    catch (CancellationException e) {
+      throw new InterruptedIOException("canceled");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * get the winning call
+   *
+   * @return the call which delivered the response (or null)
+   */
+  synchronized Call getCall() {
+    return winner;
+  }
+
+  /*
+   * must be called with the lock held
+   */
+  private void send(final boolean hedge) {
+    final Call call = client.newCall(request);
+    calls.add(call);
+    pending++;
+
+    call.enqueue(new Callback() {
+      @Override
+      public void onResponse(Call call, Response response) {
+        if (!finish(call)) {
+          // we lost the race
+          response.close();
+          return;
+        }
+        if (hedge) {
+          HEDGE_WINS.incrementAndGet();
+        }
+        future.complete(response);
+      }
+
+      @Override
+      public void onFailure(Call call, IOException e) {
+        boolean allFailed;
+        synchronized (HedgedCall.this) {
+          pending--;
+          if (failure == null) {
+            failure = e;
+          }
+          // a fast failure of the first request will not be hedged
+          allFailed = !finished && pending == 0;
+        }
+        if (allFailed && finish(null)) {
+          future.completeExceptionally(failure);
+        }
+      }
+    });
+  }
+
+  /**
+   * finish the hedged call: cancel the hedge task and all calls except the winner
+   *
+   * @param call
+   *          the winning call (or null if there is no winner)
+   * @return true if this invocation finished the hedged call
+   */
+  private boolean finish(Call call) {
+    List<Call> toCancel;
+    synchronized (this) {
+      if (finished) {
+        return false;
+      }
+      finished = true;
+      winner = call;
+      toCancel = new ArrayList<>(calls);
+      if (hedgeTask != null) {
+        hedgeTask.cancel(false);
+      }
+    }
+
+    for (Call c : toCancel) {
+      if (c != call) {
+        c.cancel();
+      }
+    }
+    return true;
+  }
+
+  private static ScheduledExecutorService createScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "http-hedging");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+}
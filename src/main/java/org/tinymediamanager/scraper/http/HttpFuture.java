@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+
+/**
+ * The class HttpFuture. A completable future for asynchronous HTTP requests (we are bound to Java 7, so we cannot use the CompletableFuture from
+ * Java 8). The result can either be fetched in a blocking manner via get() or can be consumed by a callback which is invoked on the thread completing
+ * the future (mostly an OkHttp dispatcher thread - so do not block in the callback).
+ *
+ * @param <T>
+ *          the type of the result
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class HttpFuture<T> implements Future<T> {
+  private static final Logger     LOGGER    = LoggerFactory.getLogger(HttpFuture.class);
+
+  private final CountDownLatch    latch     = new CountDownLatch(1);
+  private final List<Callback<T>> callbacks = new ArrayList<>();
+
+  private volatile Call           call      = null;
+  private volatile Future<?>      upstream  = null;
+
+  private T                       result    = null;
+  private Throwable               failure   = null;
+  private boolean                 cancelled = false;
+  private boolean                 done      = false;
+
+  /**
+   * callback interface to get notified when the future completes
+   *
+   * @param <T>
+   *          the type of the result
+   */
+  public interface Callback<T> {
+    /**
+     * the future has been completed successfully (the result may be null, just like in the blocking API)
+     *
+     * @param result
+     *          the result
+     */
+    void onSuccess(T result);
+
+    /**
+     * the future has been completed exceptionally or has been cancelled
+     *
+     * @param t
+     *          the cause
+     */
+    void onFailure(Throwable t);
+  }
+
+  /**
+   * create an already completed future
+   *
+   * @param result
+   *          the result
+   * @return the completed future
+   */
+  public static <T> HttpFuture<T> completed(T result) {
+    HttpFuture<T> future = new HttpFuture<>();
+    future.complete(result);
+    return future;
+  }
+
+  /**
+   * create an already failed future
+   *
+   * @param t
+   *          the cause
+   * @return the failed future
+   */
+  public static <T> HttpFuture<T> failed(Throwable t) {
+    HttpFuture<T> future = new HttpFuture<>();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  /**
+   * attach the OkHttp call which produces the result of this future - cancelling the future cancels the call too
+   *
+   * @param call
+   *          the call
+   */
+  void setCall(Call call) {
+    this.call = call;
+    if (isCancelled()) {
+      call.cancel();
+    }
+  }
+
+  /**
+   * attach an upstream future on which this future depends - cancelling this future cancels the upstream future too
+   *
+   * @param upstream
+   *          the upstream future
+   */
+  void setUpstream(Future<?> upstream) {
+    this.upstream = upstream;
+    if (isCancelled()) {
+      upstream.cancel(true);
+    }
+  }
+
+  /**
+   * complete the future with the given result
+   *
+   * @param result
+   *          the result
+   * @return true if this call completed the future
+   */
+  public boolean complete(T result) {
+    List<Callback<T>> toNotify;
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      this.result = result;
+      this.done = true;
+      toNotify = new ArrayList<>(callbacks);
+      callbacks.clear();
+    }
+    latch.countDown();
+
+    for (Callback<T> callback : toNotify) {
+      notifySuccess(callback, result);
+    }
+    return true;
+  }
+
+  /**
+   * complete the future exceptionally
+   *
+   * @param t
+   *          the cause
+   * @return true if this call completed the future
+   */
+  public boolean completeExceptionally(Throwable t) {
+    List<Callback<T>> toNotify;
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      this.failure = t;
+      this.done = true;
+      toNotify = new ArrayList<>(callbacks);
+      callbacks.clear();
+    }
+    latch.countDown();
+
+    for (Callback<T> callback : toNotify) {
+      notifyFailure(callback, t);
+    }
+    return true;
+  }
+
+  /**
+   * add a callback which will be invoked when the future completes. If the future is already completed, the callback is invoked immediately on the
+   * calling thread
+   *
+   * @param callback
+   *          the callback
+   * @return this future (for chaining)
+   */
+  public HttpFuture<T> addCallback(Callback<T> callback) {
+    synchronized (this) {
+      if (!done) {
+        callbacks.add(callback);
+        return this;
+      }
+    }
+
+    if (failure != null) {
+      notifyFailure(callback, failure);
+    }
+    else {
+      notifySuccess(callback, result);
+    }
+    return this;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!completeExceptionally(new CancellationException())) {
+      return false;
+    }
+    synchronized (this) {
+      cancelled = true;
+    }
+
+    Call c = call;
+    if (c != null) {
+      c.cancel();
+    }
+    Future<?> f = upstream;
+    if (f != null) {
+      f.cancel(mayInterruptIfRunning);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled || failure instanceof CancellationException;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return getResult();
+  }
+
+  @Override
+  public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return getResult();
+  }
+
+  private synchronized T getResult() throws ExecutionException {
+    if (failure instanceof CancellationException) {
+      throw (CancellationException) failure;
+    }
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    return result;
+  }
+
+  private void notifySuccess(Callback<T> callback, T result) {
+    try {
+      callback.onSuccess(result);
+    }
+    catch (Exception e) {
+      LOGGER.warn("problem in future callback: " + e.getMessage(), e);
+    }
+  }
+
+  private void notifyFailure(Callback<T> callback, Throwable t) {
+    try {
+      callback.onFailure(t);
+    }
+    catch (Exception e) {
+      LOGGER.warn("problem in future callback: " + e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class HttpMetrics collects metrics of all HTTP calls per host (latencies of DNS, connect, TLS, time to first byte and total; bytes in/out;
+ * status codes) and of the CachedUrl (hits, misses, coalesced requests). The data is recorded by the MetricsEventListener and the
+ * MetricsInterceptor and can be fetched via the snapshot API or JMX.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class HttpMetrics implements HttpMetricsMXBean {
+  private static final Logger                      LOGGER      = LoggerFactory.getLogger(HttpMetrics.class);
+  /** the name of the MXBean */
+  public static final String                       OBJECT_NAME = "org.tinymediamanager.scraper.http:type=HttpMetrics";
+
+  private static final HttpMetrics                 INSTANCE    = new HttpMetrics();
+
+  private final ConcurrentMap<String, HostMetrics> hosts       = new ConcurrentHashMap<>();
+  private final AtomicLong                         cacheHits   = new AtomicLong();
+  private final AtomicLong                         cacheMisses = new AtomicLong();
+  private volatile long                            coalescedOffset;
+
+  private HttpMetrics() {
+  }
+
+  /**
+   * get the instance holding all metrics
+   *
+   * @return the instance
+   */
+  public static HttpMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * register the MXBean at the platform MBean server (if not already done)
+   */
+  public static synchronized void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    }
+    catch (Exception e) {
+      LOGGER.debug("could not register the metrics MXBean: " + e.getMessage());
+    }
+  }
+
+  /**
+   * get the snapshot of the given host
+   *
+   * @param host
+   *          the host
+   * @return the snapshot or null if there are no metrics of this host
+   */
+  public HostSnapshot getSnapshot(String host) {
+    HostMetrics metrics = hosts.get(host.toLowerCase(Locale.ROOT));
+    return metrics == null ? null : metrics.getSnapshot();
+  }
+
+  /**
+   * get the snapshots of all hosts
+   *
+   * @return a map of host to snapshot (sorted by host)
+   */
+  public Map<String, HostSnapshot> getSnapshots() {
+    Map<String, HostSnapshot> snapshots = new TreeMap<>();
+    for (Map.Entry<String, HostMetrics> entry : hosts.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().getSnapshot());
+    }
+    return snapshots;
+  }
+
+  @Override
+  public HostSnapshot[] getHostSnapshots() {
+    return getSnapshots().values().toArray(new HostSnapshot[0]);
+  }
+
+  @Override
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return cacheMisses.get();
+  }
+
+  @Override
+  public long getCoalescedRequests() {
+    return CachedUrl.getCoalescedRequestCount() - coalescedOffset;
+  }
+
+  @Override
+  public double getCacheHitRatio() {
+    long hits = cacheHits.get();
+    long total = hits + cacheMisses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  @Override
+  public void reset() {
+    hosts.clear();
+    cacheHits.set(0);
+    cacheMisses.set(0);
+    coalescedOffset = CachedUrl.getCoalescedRequestCount();
+  }
+
+  void recordCacheHit() {
+    cacheHits.incrementAndGet();
+  }
+
+  void recordCacheMiss() {
+    cacheMisses.incrementAndGet();
+  }
+
+  HostMetrics getHostMetrics(String host) {
+    String key = host.toLowerCase(Locale.ROOT);
+    HostMetrics metrics = hosts.get(key);
+    if (metrics == null) {
+      metrics = new HostMetrics(key);
+      HostMetrics existing = hosts.putIfAbsent(key, metrics);
+      if (existing != null) {
+        metrics = existing;
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * the metrics of a single host
+   */
+  static class HostMetrics {
+    final String           host;
+    final LatencyHistogram dns             = new LatencyHistogram();
+    final LatencyHistogram connect         = new LatencyHistogram();
+    final LatencyHistogram tls             = new LatencyHistogram();
+    final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    final LatencyHistogram total           = new LatencyHistogram();
+    final AtomicLong       requests        = new AtomicLong();
+    final AtomicLong       failures        = new AtomicLong();
+    final AtomicLong       bytesIn         = new AtomicLong();
+    final AtomicLong       bytesOut        = new AtomicLong();
+    final AtomicLong       cacheResponses  = new AtomicLong();
+    // index 1-5 for 1xx-5xx
+    final AtomicLongArray  statusCodes     = new AtomicLongArray(6);
+
+    HostMetrics(String host) {
+      this.host = host;
+    }
+
+    void recordStatus(int code) {
+      int index = code / 100;
+      if (index >= 1 && index <= 5) {
+        statusCodes.incrementAndGet(index);
+      }
+    }
+
+    HostSnapshot getSnapshot() {
+      return new HostSnapshot(host, requests.get(), failures.get(), bytesIn.get(), bytesOut.get(), cacheResponses.get(), statusCodes.get(2),
+          statusCodes.get(3), statusCodes.get(4), statusCodes.get(5), dns.getSnapshot(), connect.getSnapshot(), tls.getSnapshot(),
+          timeToFirstByte.getSnapshot(), total.getSnapshot());
+    }
+  }
+
+  /**
+   * an immutable snapshot of the metrics of a host
+   */
+  public static class HostSnapshot {
+    private final String                    host;
+    private final long                      requests;
+    private final long                      failures;
+    private final long                      bytesIn;
+    private final long                      bytesOut;
+    private final long                      cacheResponses;
+    private final long                      status2xx;
+    private final long                      status3xx;
+    private final long                      status4xx;
+    private final long                      status5xx;
+    private final LatencyHistogram.Snapshot dns;
+    private final LatencyHistogram.Snapshot connect;
+    private final LatencyHistogram.Snapshot tls;
+    private final LatencyHistogram.Snapshot timeToFirstByte;
+    private final LatencyHistogram.Snapshot total;
+
+    @ConstructorProperties({ "host", "requests", "failures", "bytesIn", "bytesOut", "cacheResponses", "status2xx", "status3xx", "status4xx",
+        "status5xx", "dns", "connect", "tls", "timeToFirstByte", "total" })
+    public HostSnapshot(String host, long requests, long failures, long bytesIn, long bytesOut, long cacheResponses, long status2xx, long status3xx,
+        long status4xx, long status5xx, LatencyHistogram.Snapshot dns, LatencyHistogram.Snapshot connect, LatencyHistogram.Snapshot tls,
+        LatencyHistogram.Snapshot timeToFirstByte, LatencyHistogram.Snapshot total) {
+      this.host = host;
+      this.requests = requests;
+      this.failures = failures;
+      this.bytesIn = bytesIn;
+      this.bytesOut = bytesOut;
+      this.cacheResponses = cacheResponses;
+      this.status2xx = status2xx;
+      this.status3xx = status3xx;
+      this.status4xx = status4xx;
+      this.status5xx = status5xx;
+      this.dns = dns;
+      this.connect = connect;
+      this.tls = tls;
+      this.timeToFirstByte = timeToFirstByte;
+      this.total = total;
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    /** the amount of calls (including failed ones) */
+    public long getRequests() {
+      return requests;
+    }
+
+    /** the amount of calls which failed without a response */
+    public long getFailures() {
+      return failures;
+    }
+
+    /** the received bytes (response bodies) */
+    public long getBytesIn() {
+      return bytesIn;
+    }
+
+    /** the sent bytes (request bodies) */
+    public long getBytesOut() {
+      return bytesOut;
+    }
+
+    /** the amount of responses served by the OkHttp cache */
+    public long getCacheResponses() {
+      return cacheResponses;
+    }
+
+    public long getStatus2xx() {
+      return status2xx;
+    }
+
+    public long getStatus3xx() {
+      return status3xx;
+    }
+
+    public long getStatus4xx() {
+      return status4xx;
+    }
+
+    public long getStatus5xx() {
+      return status5xx;
+    }
+
+    public LatencyHistogram.Snapshot getDns() {
+      return dns;
+    }
+
+    public LatencyHistogram.Snapshot getConnect() {
+      return connect;
+    }
+
+    public LatencyHistogram.Snapshot getTls() {
+      return tls;
+    }
+
+    public LatencyHistogram.Snapshot getTimeToFirstByte() {
+      return timeToFirstByte;
+    }
+
+    public LatencyHistogram.Snapshot getTotal() {
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      return host + ": requests=" + requests + " failures=" + failures + " in=" + bytesIn + " out=" + bytesOut + " 2xx=" + status2xx + " 3xx="
+          + status3xx + " 4xx=" + status4xx + " 5xx=" + status5xx + " ttfb[" + timeToFirstByte + "] total[" + total + "]";
+    }
+  }
+}
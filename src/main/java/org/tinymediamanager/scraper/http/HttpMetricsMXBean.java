@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+/**
+ * The interface HttpMetricsMXBean exposes the HTTP metrics via JMX
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface HttpMetricsMXBean {
+  /**
+   * get the metrics of all hosts
+   *
+   * @return the snapshots of all hosts
+   */
+  HttpMetrics.HostSnapshot[] getHostSnapshots();
+
+  /**
+   * the amount of CachedUrl requests which have been served from the cache
+   */
+  long getCacheHits();
+
+  /**
+   * the amount of CachedUrl requests which needed a request (or revalidation)
+   */
+  long getCacheMisses();
+
+  /**
+   * the amount of CachedUrl requests which have been merged into an already running request
+   */
+  long getCoalescedRequests();
+
+  /**
+   * the ratio of CachedUrl hits (0-1)
+   */
+  double getCacheHitRatio();
+
+  /**
+   * reset all metrics
+   */
+  void reset();
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The class LatencyHistogram is a lock free histogram of latencies with fixed (roughly logarithmic) buckets. Percentiles are estimated by the upper
+ * bound of the bucket
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class LatencyHistogram {
+  /** the upper bounds of the buckets (in ms); the last bucket takes everything above */
+  static final long[]           BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+  private final AtomicLong      count  = new AtomicLong();
+  private final AtomicLong      sum    = new AtomicLong();
+  private final AtomicLong      max    = new AtomicLong();
+
+  /**
+   * record a latency
+   *
+   * @param millis
+   *          the latency in ms
+   */
+  public void record(long millis) {
+    if (millis < 0) {
+      return;
+    }
+    int bucket = 0;
+    while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+    count.incrementAndGet();
+    sum.addAndGet(millis);
+
+    long current = max.get();
+    while (millis > current && !max.compareAndSet(current, millis)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * reset all values
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * take a snapshot of the actual values
+   *
+   * @return the snapshot
+   */
+  public Snapshot getSnapshot() {
+    long[] values = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = counts.get(i);
+      total += values[i];
+    }
+    return new Snapshot(total, total == 0 ? 0 : sum.get() / total, percentile(values, total, 0.5), percentile(values, total, 0.95),
+        percentile(values, total, 0.99), max.get());
+  }
+
+  private long percentile(long[] values, long total, double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile);
+    long seen = 0;
+    for (int i = 0; i < values.length; i++) {
+      seen += values[i];
+      if (seen >= rank) {
+        return i < BOUNDS.length ? Math.min(BOUNDS[i], max.get()) : max.get();
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * an immutable snapshot of a histogram (all values in ms)
+   */
+  public static class Snapshot {
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+    private final long max;
+
+    @ConstructorProperties({ "count", "mean", "p50", "p95", "p99", "max" })
+    public Snapshot(long count, long mean, long p50, long p95, long p99, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p95 = p95;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMean() {
+      return mean;
+    }
+
+    public long getP50() {
+      return p50;
+    }
+
+    public long getP95() {
+      return p95;
+    }
+
+    public long getP99() {
+      return p99;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + " mean=" + mean + "ms p50=" + p50 + "ms p95=" + p95 + "ms p99=" + p99 + "ms max=" + max + "ms";
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The class LatencyTracker keeps the latest response times (time until the headers arrived) per host to derive percentiles from them
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+class LatencyTracker {
+  /** the amount of samples kept per host */
+  static final int                                           SAMPLES     = 128;
+  /** the minimum amount of samples needed to calculate a percentile */
+  static final int                                           MIN_SAMPLES = 16;
+
+  private static final ConcurrentMap<String, LatencyTracker> TRACKERS    = new ConcurrentHashMap<>();
+
+  private final long[]                                       samples     = new long[SAMPLES];
+  private int                                                count       = 0;
+  private int                                                position    = 0;
+
+  /**
+   * record a response time of the given host
+   *
+   * @param host
+   *          the host
+   * @param millis
+   *          the time until the headers arrived (in ms)
+   */
+  static void record(String host, long millis) {
+    String key = host.toLowerCase(Locale.ROOT);
+    LatencyTracker tracker = TRACKERS.get(key);
+    if (tracker == null) {
+      tracker = new LatencyTracker();
+      LatencyTracker existing = TRACKERS.putIfAbsent(key, tracker);
+      if (existing != null) {
+        tracker = existing;
+      }
+    }
+    tracker.add(millis);
+  }
+
+  /**
+   * get the given percentile of the response times of the host
+   *
+   * @param host
+   *          the host
+   * @param percentile
+   *          the percentile (0 < percentile <= 1)
+   * @param defaultValue
+   *          the value to return if there are not enough samples
+   * @return the percentile in ms
+   */
+  static long getPercentile(String host, double percentile, long defaultValue) {
+    LatencyTracker tracker = TRACKERS.get(host.toLowerCase(Locale.ROOT));
+    if (tracker == null) {
+      return defaultValue;
+    }
+    return tracker.percentile(percentile, defaultValue);
+  }
+
+  /**
+   * forget all recorded samples
+   */
+  static void clear() {
+    TRACKERS.clear();
+  }
+
+  synchronized void add(long millis) {
+    samples[position] = millis;
+    position = (position + 1) % SAMPLES;
+    if (count < SAMPLES) {
+      count++;
+    }
+  }
+
+  long percentile(double percentile, long defaultValue) {
+    long[] sorted;
+    synchronized (this) {
+      if (count < MIN_SAMPLES) {
+        return defaultValue;
+      }
+      sorted = Arrays.copyOf(samples, count);
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(Math.max(0, Math.min(1, percentile)) * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+}
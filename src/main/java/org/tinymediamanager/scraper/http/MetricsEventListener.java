@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+/**
+ * The class MetricsEventListener. An OkHttp event listener which records the timings (DNS, connect, TLS, time to first byte and total) and the
+ * transferred bytes of a single call into the HttpMetrics. A new instance is created for every call (see FACTORY)
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class MetricsEventListener extends EventListener {
+  /** the factory which creates a listener for each call */
+  public static final EventListener.Factory FACTORY = new ListenerFactory();
+
+  private final HttpMetrics.HostMetrics     metrics;
+
+  // the events of a call may be fired from different threads
+  private volatile long                     callStart;
+  private volatile long                     dnsStart;
+  private volatile long                     connectStart;
+  private volatile long                     secureConnectStart;
+  private volatile long                     requestStart;
+  private volatile boolean                  firstByte;
+
+  MetricsEventListener(String host) {
+    this.metrics = HttpMetrics.getInstance().getHostMetrics(host);
+  }
+
+  @Override
+  public void callStart(Call call) {
+    callStart = System.nanoTime();
+  }
+
+  @Override
+  public void dnsStart(Call call, String domainName) {
+    dnsStart = System.nanoTime();
+  }
+
+  @Override
+  public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+    metrics.dns.record(since(dnsStart));
+  }
+
+  @Override
+  public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+    connectStart = System.nanoTime();
+  }
+
+  @Override
+  public void secureConnectStart(Call call) {
+    secureConnectStart = System.nanoTime();
+  }
+
+  @Override
+  public void secureConnectEnd(Call call, Handshake handshake) {
+    metrics.tls.record(since(secureConnectStart));
+  }
+
+  @Override
+  public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+    // includes the TLS handshake
+    metrics.connect.record(since(connectStart));
+  }
+
+  @Override
+  public void requestHeadersStart(Call call) {
+    // redirects/retries send a new request on the same call - measure the time to first byte of every request
+    requestStart = System.nanoTime();
+    firstByte = false;
+  }
+
+  @Override
+  public void requestBodyEnd(Call call, long byteCount) {
+    metrics.bytesOut.addAndGet(byteCount);
+  }
+
+  @Override
+  public void responseHeadersStart(Call call) {
+    if (!firstByte) {
+      firstByte = true;
+      metrics.timeToFirstByte.record(since(requestStart));
+    }
+  }
+
+  @Override
+  public void responseBodyEnd(Call call, long byteCount) {
+    metrics.bytesIn.addAndGet(byteCount);
+  }
+
+  @Override
+  public void callEnd(Call call) {
+    metrics.requests.incrementAndGet();
+    metrics.total.record(since(callStart));
+  }
+
+  @Override
+  public void callFailed(Call call, IOException ioe) {
+    metrics.requests.incrementAndGet();
+    metrics.failures.incrementAndGet();
+    metrics.total.record(since(callStart));
+  }
+
+  private static long since(long start) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private static class ListenerFactory implements EventListener.Factory {
+    @Override
+    public EventListener create(Call call) {
+      return new MetricsEventListener(call.request().url().host());
+    }
+  }
+}
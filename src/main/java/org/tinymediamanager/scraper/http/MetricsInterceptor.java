@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * The class MetricsInterceptor. An OkHttp interceptor which records the status codes and the responses served by the OkHttp cache into the
+ * HttpMetrics (the timings are recorded by the MetricsEventListener)
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class MetricsInterceptor implements Interceptor {
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Response response = chain.proceed(chain.request());
+
+    HttpMetrics.HostMetrics metrics = HttpMetrics.getInstance().getHostMetrics(chain.request().url().host());
+    metrics.recordStatus(response.code());
+    if (response.networkResponse() == null && response.cacheResponse() != null) {
+      metrics.cacheResponses.incrementAndGet();
+    }
+
+    return response;
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.util.SegmentStore;
+
+/**
+ * The class PresetDictionaries trains a preset dictionary for the Deflater per host from sampled responses. Provider responses are very repetitive
+ * (the same JSON keys, image base urls, language codes, ...), so a dictionary containing these strings compresses especially small responses much
+ * better than plain deflate/gzip.<br>
+ * The first responses of a host are sampled; once there are enough samples, the dictionary is trained on a background thread and used for all
+ * further entries of this host. Every entry stores the id of its dictionary (the Adler32 checksum of the dictionary, just like in the zlib format).
+ * If the disk cache is enabled, the dictionaries are persisted there too.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class PresetDictionaries {
+  private static final Logger                                  LOGGER          = LoggerFactory.getLogger(PresetDictionaries.class);
+
+  /** the id of the dictionary codec */
+  public static final int                                      CODEC_ID        = 3;
+  /** the maximum size of a dictionary (deflate can use up to 32k) */
+  public static final int                                      DICTIONARY_SIZE = 16 * 1024;
+  /** the amount of samples needed to train a dictionary */
+  public static final int                                      SAMPLE_COUNT    = 24;
+  /** samples are truncated to this size */
+  static final int                                             SAMPLE_SIZE     = 8 * 1024;
+  /** with a dictionary even small contents compress well - the minimum size to use the dictionary (in bytes) */
+  public static final int                                      MIN_SIZE        = 128;
+  /** the length of the segments the dictionary is built from */
+  static final int                                             SEGMENT_LENGTH  = 16;
+
+  private static final String                                  STORE_PREFIX    = "#dictionary:";
+  private static final long                                    STORE_TTL       = TimeUnit.DAYS.toMillis(365);
+  private static final ConcurrentMap<String, DictionaryCodec>  BY_HOST         = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<Integer, DictionaryCodec> BY_ID           = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, List<byte[]>>     SAMPLES         = new ConcurrentHashMap<>();
+  private static final ExecutorService                         TRAINER         = createTrainer();
+
+  private static volatile boolean                              enabled         = true;
+  private static volatile int                                  level           = Deflater.BEST_SPEED;
+  private static volatile SegmentStore                         store           = null;
+
+  private PresetDictionaries() {
+  }
+
+  /**
+   * enable/disable the usage (and training) of preset dictionaries
+   *
+   * @param enabled
+   *          true to enable
+   */
+  public static void setEnabled(boolean enabled) {
+    PresetDictionaries.enabled = enabled;
+  }
+
+  /**
+   * set the compression level of the Deflater
+   *
+   * @param level
+   *          the compression level (0-9)
+   */
+  public static void setLevel(int level) {
+    PresetDictionaries.level = level;
+  }
+
+  /**
+   * forget the dictionaries of all hosts and all samples, so the dictionaries will be trained again (known dictionaries are kept to decode the
+   * cached entries)
+   */
+  public static void clear() {
+    BY_HOST.clear();
+    SAMPLES.clear();
+  }
+
+  /**
+   * set the persistent store for the dictionaries (the disk cache); all known dictionaries are written to it
+   */
+  static void setStore(SegmentStore segmentStore) {
+    store = segmentStore;
+    persistAll();
+  }
+
+  /**
+   * write all known dictionaries to the persistent store (if they are not in there yet) - e.g. after the store has been cleared
+   */
+  static void persistAll() {
+    for (Integer dictionaryId : BY_ID.keySet()) {
+      persist(dictionaryId);
+    }
+  }
+
+  /**
+   * write the dictionary to the persistent store if it is not in there yet. Must be called whenever an entry encoded with this dictionary is
+   * written to the store, otherwise the entry cannot be decoded after a restart
+   *
+   * @param dictionaryId
+   *          the dictionary id
+   */
+  static void persist(int dictionaryId) {
+    SegmentStore segmentStore = store;
+    DictionaryCodec codec = BY_ID.get(dictionaryId);
+    if (segmentStore != null && codec != null && !segmentStore.contains(STORE_PREFIX + dictionaryId)) {
+      segmentStore.put(STORE_PREFIX + dictionaryId, codec.dictionary, STORE_TTL);
+    }
+  }
+
+  /**
+   * get the codec for the given host
+   *
+   * @param host
+   *          the host
+   * @return the codec or null if there is no dictionary (yet)
+   */
+  static DictionaryCodec getCodec(String host) {
+    if (!enabled || host == null) {
+      return null;
+    }
+    return BY_HOST.get(host.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * get the codec for the given dictionary id
+   *
+   * @param dictionaryId
+   *          the dictionary id
+   * @return the codec
+   * @throws IOException
+   *           the dictionary is unknown
+   */
+  static DictionaryCodec forId(int dictionaryId) throws IOException {
+    DictionaryCodec codec = BY_ID.get(dictionaryId);
+    if (codec != null) {
+      return codec;
+    }
+
+    SegmentStore segmentStore = store;
+    if (segmentStore != null) {
+      byte[] dictionary = segmentStore.get(STORE_PREFIX + dictionaryId);
+      if (dictionary != null) {
+        codec = new DictionaryCodec(dictionary);
+        if (codec.getDictionaryId() == dictionaryId) {
+          BY_ID.putIfAbsent(dictionaryId, codec);
+          return codec;
+        }
+      }
+    }
+    throw new IOException("unknown dictionary: " + dictionaryId);
+  }
+
+  /**
+   * offer a response of the host as sample for the training
+   *
+   * @param host
+   *          the host
+   * @param content
+   *          the (plain) content of the response
+   */
+  static void sample(String host, byte[] content) {
+    if (!enabled || host == null || content.length < SEGMENT_LENGTH * 4) {
+      return;
+    }
+
+    final String key = host.toLowerCase(Locale.ROOT);
+    if (BY_HOST.containsKey(key)) {
+      return;
+    }
+
+    List<byte[]> samples = SAMPLES.get(key);
+    if (samples == null) {
+      samples = new ArrayList<>();
+      List<byte[]> existing = SAMPLES.putIfAbsent(key, samples);
+      if (existing != null) {
+        samples = existing;
+      }
+    }
+
+    final List<byte[]> toTrain;
+    synchronized (samples) {
+      if (samples.size() >= SAMPLE_COUNT) {
+        // training already scheduled
+        return;
+      }
+      samples.add(content.length > SAMPLE_SIZE ? Arrays.copyOf(content, SAMPLE_SIZE) : content);
+      if (samples.size() < SAMPLE_COUNT) {
+        return;
+      }
+      toTrain = new ArrayList<>(samples);
+    }
+
+    TRAINER.execute(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.currentTimeMillis();
+        byte[] dictionary = train(toTrain, DICTIONARY_SIZE);
+        if (dictionary.length == 0) {
+          return;
+        }
+        DictionaryCodec codec = new DictionaryCodec(dictionary);
+        BY_ID.put(codec.getDictionaryId(), codec);
+        BY_HOST.put(key, codec);
+        SAMPLES.remove(key);
+
+        persist(codec.getDictionaryId());
+        LOGGER.debug("trained a dictionary for " + key + " (" + dictionary.length + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+      }
+    });
+  }
+
+  /**
+   * train a dictionary: the segments which occur in most of the samples are put into the dictionary (the most frequent at the end, because deflate
+   * encodes closer matches cheaper)
+   *
+   * @param samples
+   *          the samples
+   * @param maxSize
+   *          the maximum size of the dictionary
+   * @return the dictionary
+   */
+  static byte[] train(List<byte[]> samples, int maxSize) {
+    // count in how many samples every segment occurs (ISO-8859-1 maps each byte to exactly one char)
+    final Map<String, Integer> counts = new HashMap<>();
+    for (byte[] sample : samples) {
+      String s = new String(sample, StandardCharsets.ISO_8859_1);
+      Set<String> seen = new HashSet<>();
+      for (int i = 0; i + SEGMENT_LENGTH <= s.length(); i++) {
+        String segment = s.substring(i, i + SEGMENT_LENGTH);
+        if (seen.add(segment)) {
+          Integer count = counts.get(segment);
+          counts.put(segment, count == null ? 1 : count + 1);
+        }
+      }
+    }
+
+    List<String> candidates = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      if (entry.getValue() > 1) {
+        candidates.add(entry.getKey());
+      }
+    }
+    Collections.sort(candidates, new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        int result = counts.get(o2).compareTo(counts.get(o1));
+        return result != 0 ? result : o1.compareTo(o2);
+      }
+    });
+
+    // pick the most frequent segments which are not already contained
+    List<String> picked = new ArrayList<>();
+    StringBuilder contained = new StringBuilder();
+    for (String candidate : candidates) {
+      if (contained.length() + SEGMENT_LENGTH > maxSize) {
+        break;
+      }
+      if (contained.indexOf(candidate) < 0) {
+        picked.add(candidate);
+        contained.append(candidate);
+      }
+    }
+
+    StringBuilder dictionary = new StringBuilder(contained.length());
+    for (int i = picked.size() - 1; i >= 0; i--) {
+      dictionary.append(picked.get(i));
+    }
+    return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private static ExecutorService createTrainer() {
+    return Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "dictionary-trainer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * the deflate codec with a preset dictionary
+   */
+  static class DictionaryCodec implements CacheCodec {
+    private final byte[] dictionary;
+    private final int    dictionaryId;
+
+    DictionaryCodec(byte[] dictionary) {
+      this.dictionary = dictionary;
+      Adler32 adler = new Adler32();
+      adler.update(dictionary, 0, dictionary.length);
+      this.dictionaryId = (int) adler.getValue();
+    }
+
+    int getDictionaryId() {
+      return dictionaryId;
+    }
+
+    @Override
+    public int getId() {
+      return CODEC_ID;
+    }
+
+    @Override
+    public byte[] encode(byte[] content) {
+      Deflater deflater = new Deflater(level);
+      try {
+        deflater.setDictionary(dictionary);
+        deflater.setInput(content);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+          int len = deflater.deflate(buffer);
+          out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+      }
+      finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public InputStream decode(byte[] data) throws IOException {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[8192];
+        while (!inflater.finished()) {
+          int len = inflater.inflate(buffer);
+          if (len == 0) {
+            if (inflater.needsDictionary()) {
+              inflater.setDictionary(dictionary);
+            }
+            else if (inflater.needsInput()) {
+              throw new IOException("truncated data");
+            }
+          }
+          out.write(buffer, 0, len);
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+      }
+      catch (DataFormatException e) {
+        throw new IOException(e);
+      }
+      finally {
+        inflater.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * The class PriorityInterceptor. An OkHttp interceptor which schedules the requests via their priority lane (the RequestPriority set as tag of the
+ * request). The slot of a request is held until its response body has been consumed or closed, so running bulk downloads count against the
+ * capacity of their lane; error responses and HEAD requests release the slot at once. A request waits for a slot at most as long as its connect and
+ * read timeout (SocketTimeoutException).<br>
+ * By default 24 requests may run concurrently; 6 slots are reserved for INTERACTIVE and 6 for METADATA requests, so BULK_ARTWORK downloads and
+ * PREFETCH requests can use up to 12 slots. The state is held statically, so all clients share the same lanes.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class PriorityInterceptor implements Interceptor {
+  static final int                       DEFAULT_MAX_CONCURRENT = 24;
+  static final int                       DEFAULT_RESERVED       = 6;
+  /** the maximum time to wait for a slot if the client has no timeouts (in ms) */
+  static final long                      DEFAULT_MAX_WAIT       = 60000;
+
+  private static final PriorityScheduler SCHEDULER              = new PriorityScheduler(DEFAULT_MAX_CONCURRENT);
+
+  static {
+    SCHEDULER.setReserved(RequestPriority.INTERACTIVE, DEFAULT_RESERVED);
+    SCHEDULER.setReserved(RequestPriority.METADATA, DEFAULT_RESERVED);
+  }
+
+  /**
+   * set the maximum amount of concurrent requests over all lanes
+   *
+   * @param maxConcurrent
+   *          the maximum amount of concurrent requests
+   */
+  public static void setMaxConcurrentRequests(int maxConcurrent) {
+    SCHEDULER.setMaxConcurrent(maxConcurrent);
+  }
+
+  /**
+   * set the amount of slots which are reserved for the given lane (and cannot be used by lower lanes)
+   *
+   * @param priority
+   *          the lane
+   * @param slots
+   *          the amount of reserved slots
+   */
+  public static void setReservedCapacity(RequestPriority priority, int slots) {
+    SCHEDULER.setReserved(priority, slots);
+  }
+
+  /**
+   * get the amount of running requests in the given lane
+   *
+   * @param priority
+   *          the lane
+   * @return the amount of running requests
+   */
+  public static int getRunningRequests(RequestPriority priority) {
+    return SCHEDULER.getRunning(priority);
+  }
+
+  /**
+   * get the priority of the given request
+   *
+   * @param request
+   *          the request
+   * @return the priority from the tag or METADATA if there is none
+   */
+  static RequestPriority getPriority(Request request) {
+    Object tag = request.tag();
+    if (tag instanceof RequestPriority) {
+      return (RequestPriority) tag;
+    }
+    return RequestPriority.METADATA;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    // requests which are answered from the cache never hit the network
+    if (CacheFallbackInterceptor.isCacheOnly(chain.request())) {
+      return chain.proceed(chain.request());
+    }
+
+    final RequestPriority priority = getPriority(chain.request());
+    try {
+      // do not wait forever (slots may be leaked by bodies which are never closed); the client timeouts cannot fire before we got a slot
+      if (!SCHEDULER.acquire(priority, TimeUnit.MILLISECONDS.toNanos(getMaxWait(chain)))) {
+        throw new SocketTimeoutException("timeout while waiting for a free " + priority + " slot");
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for a free " + priority + " slot");
+    }
+
+    final AtomicBoolean released = new AtomicBoolean(false);
+    Response response;
+    try {
+      response = chain.proceed(chain.request());
+    }
+    catch (IOException | RuntimeException e) {
+      release(priority, released);
+      throw e;
+    }
+
+    final ResponseBody body = response.body();
+    if (body == null || body.contentLength() == 0 || "HEAD".equals(chain.request().method()) || !response.isSuccessful()) {
+      // error responses are not worth a slot - their (small) bodies are often not read at all
+      release(priority, released);
+      return response;
+    }
+
+    // hold the slot until the body has been read completely or closed
+    ForwardingSource source = new ForwardingSource(body.source()) {
+      @Override
+      public long read(Buffer sink, long byteCount) throws IOException {
+        long read;
+        try {
+          read = super.read(sink, byteCount);
+        }
+        catch (IOException e) {
+          release(priority, released);
+          throw e;
+        }
+        if (read == -1) {
+          release(priority, released);
+        }
+        return read;
+      }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        }
+        finally {
+          release(priority, released);
+        }
+      }
+    };
+
+    return response.newBuilder().body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source))).build();
+  }
+
+  /**
+   * the maximum time to wait for a slot: as long as the request itself may take to get going (connect + read timeout of the client)
+   */
+  private static long getMaxWait(Chain chain) {
+    long maxWait = (long) chain.connectTimeoutMillis() + chain.readTimeoutMillis();
+    return maxWait > 0 ? maxWait : DEFAULT_MAX_WAIT;
+  }
+
+  private static void release(RequestPriority priority, AtomicBoolean released) {
+    if (released.compareAndSet(false, true)) {
+      SCHEDULER.release(priority);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class PriorityScheduler limits the amount of concurrently running requests over all priority lanes. Every lane has a reserved capacity which
+ * lower lanes cannot use, and a waiting request of a higher lane is always served before the requests of lower lanes
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+class PriorityScheduler {
+  private final ReentrantLock lock      = new ReentrantLock();
+  private final Condition     available = lock.newCondition();
+
+  private final int[]         reserved  = new int[RequestPriority.values().length];
+  private final int[]         running   = new int[RequestPriority.values().length];
+  private final int[]         waiting   = new int[RequestPriority.values().length];
+  private int                 maxConcurrent;
+  private int                 inUse     = 0;
+
+  PriorityScheduler(int maxConcurrent) {
+    this.maxConcurrent = maxConcurrent;
+  }
+
+  /**
+   * set the maximum amount of concurrent requests over all lanes
+   *
+   * @param maxConcurrent
+   *          the maximum amount of concurrent requests
+   */
+  void setMaxConcurrent(int maxConcurrent) {
+    lock.lock();
+    try {
+      this.maxConcurrent = Math.max(1, maxConcurrent);
+      available.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * set the capacity which is reserved for the given lane (lower lanes cannot use it)
+   *
+   * @param priority
+   *          the lane
+   * @param slots
+   *          the reserved slots
+   */
+  void setReserved(RequestPriority priority, int slots) {
+    lock.lock();
+    try {
+      reserved[priority.ordinal()] = Math.max(0, slots);
+      available.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * wait for a free slot in the given lane
+   *
+   * @param priority
+   *          the lane
+   * @param timeoutNanos
+   *          the maximum time to wait (in ns)
+   * @return true if the slot has been acquired; false if the time elapsed
+   * @throws InterruptedException
+   *           if the thread has been interrupted while waiting
+   */
+  boolean acquire(RequestPriority priority, long timeoutNanos) throws InterruptedException {
+    int lane = priority.ordinal();
+    long nanos = timeoutNanos;
+    lock.lock();
+    try {
+      waiting[lane]++;
+      try {
+        while (!canRun(lane)) {
+          if (nanos <= 0) {
+            return false;
+          }
+          nanos = available.awaitNanos(nanos);
+        }
+      }
+      finally {
+        waiting[lane]--;
+        // we might have blocked lower lanes while waiting
+        available.signalAll();
+      }
+      running[lane]++;
+      inUse++;
+      return true;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * release the slot of the given lane
+   *
+   * @param priority
+   *          the lane
+   */
+  void release(RequestPriority priority) {
+    lock.lock();
+    try {
+      running[priority.ordinal()]--;
+      inUse--;
+      available.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * get the amount of running requests of the given lane
+   *
+   * @param priority
+   *          the lane
+   * @return the amount of running requests
+   */
+  int getRunning(RequestPriority priority) {
+    lock.lock();
+    try {
+      return running[priority.ordinal()];
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean canRun(int lane) {
+    int free = maxConcurrent - inUse;
+    for (int higher = 0; higher < lane; higher++) {
+      // waiting requests of higher lanes go first
+      if (waiting[higher] > 0) {
+        return false;
+      }
+      // keep the unused reserved capacity of higher lanes
+      free -= Math.max(0, reserved[higher] - running[higher]);
+    }
+    return free > 0;
+  }
+}
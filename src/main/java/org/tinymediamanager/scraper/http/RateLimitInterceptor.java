@@ -0,0 +1,368 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * The class RateLimitInterceptor. An OkHttp interceptor which limits the request rate per host with a token bucket. The rate for the hosts of a
+ * provider can be configured via the provider id; the rate adapts itself to the provider: on a 429/503 response the rate is halved (and a
+ * Retry-After header pauses the host completely), afterwards the rate slowly recovers to the configured rate.<br>
+ * The state is held statically, so all threads, all clients and all Url instances share the same buckets.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class RateLimitInterceptor implements Interceptor {
+  private static final Logger                              LOGGER                 = LoggerFactory.getLogger(RateLimitInterceptor.class);
+
+  /** the rate (requests per second) which is used for hosts without config after they throttled us the first time */
+  static final double                                      DEFAULT_THROTTLED_RATE = 5;
+  /** the minimum rate we will shrink to */
+  static final double                                      MIN_RATE               = 0.2;
+  /** the maximum time we will honor a Retry-After header (in seconds) */
+  static final long                                        MAX_RETRY_AFTER        = 120;
+  /** the interval in which the rate may recover (in ms) */
+  static final long                                        RECOVERY_INTERVAL      = 2000;
+
+  private static final ConcurrentMap<String, ProviderRate> PROVIDER_RATES         = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, String>       HOST_TO_PROVIDER       = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, HostLimiter>  LIMITERS               = new ConcurrentHashMap<>();
+
+  /**
+   * configure the rate limit for all given hosts of the provider
+   *
+   * @param providerId
+   *          the id of the provider (see MediaProviderInfo)
+   * @param requestsPerSecond
+   *          the maximum amount of requests per second for each host (<= 0 for unlimited)
+   * @param burst
+   *          the amount of requests which may be sent at once after an idle period
+   * @param hosts
+   *          the hosts of this provider
+   */
+  public static void setRateLimit(String providerId, double requestsPerSecond, int burst, String... hosts) {
+    if (StringUtils.isBlank(providerId)) {
+      return;
+    }
+
+    ProviderRate providerRate = new ProviderRate(requestsPerSecond, Math.max(1, burst));
+    PROVIDER_RATES.put(providerId, providerRate);
+
+    for (String host : hosts) {
+      if (StringUtils.isBlank(host)) {
+        continue;
+      }
+      String key = host.toLowerCase(Locale.ROOT);
+      HOST_TO_PROVIDER.put(key, providerId);
+      HostLimiter limiter = LIMITERS.get(key);
+      if (limiter != null) {
+        limiter.configure(providerRate);
+      }
+    }
+  }
+
+  /**
+   * configure the rate limit for all given hosts of the provider (burst of 1 request)
+   *
+   * @param providerId
+   *          the id of the provider (see MediaProviderInfo)
+   * @param requestsPerSecond
+   *          the maximum amount of requests per second for each host (<= 0 for unlimited)
+   * @param hosts
+   *          the hosts of this provider
+   */
+  public static void setRateLimit(String providerId, double requestsPerSecond, String... hosts) {
+    setRateLimit(providerId, requestsPerSecond, 1, hosts);
+  }
+
+  /**
+   * get the actual (adapted) rate for the given host
+   *
+   * @param host
+   *          the host
+   * @return the actual rate in requests per second or 0 if the host is not limited
+   */
+  public static double getCurrentRate(String host) {
+    HostLimiter limiter = LIMITERS.get(host.toLowerCase(Locale.ROOT));
+    if (limiter == null) {
+      return 0;
+    }
+    return limiter.getCurrentRate();
+  }
+
+  /**
+   * reset all adapted rates and pauses (the configuration will be kept)
+   */
+  public static void reset() {
+    LIMITERS.clear();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    // requests which are answered from the cache never hit the network
+    if (CacheFallbackInterceptor.isCacheOnly(chain.request())) {
+      return chain.proceed(chain.request());
+    }
+
+    HostLimiter limiter = getLimiter(chain.request().url().host());
+
+    long waitNanos = limiter.reserve();
+    if (waitNanos > 0) {
+      LOGGER.trace("rate limit for " + chain.request().url().host() + " - waiting " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms");
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for the rate limit");
+      }
+    }
+
+    Response response = chain.proceed(chain.request());
+
+    if (response.code() == 429 || response.code() == 503) {
+      long retryAfter = parseRetryAfter(response);
+      limiter.throttled(retryAfter);
+      LOGGER.debug("got throttled by " + chain.request().url().host() + " (" + response.code() + ") - reducing rate to "
+          + String.format(Locale.ROOT, "%.2f", limiter.getCurrentRate()) + " req/s");
+    }
+    else if (response.code() < 500) {
+      limiter.succeeded();
+    }
+
+    return response;
+  }
+
+  private static HostLimiter getLimiter(String host) {
+    String key = host.toLowerCase(Locale.ROOT);
+    HostLimiter limiter = LIMITERS.get(key);
+    if (limiter == null) {
+      limiter = new HostLimiter();
+      String providerId = HOST_TO_PROVIDER.get(key);
+      if (providerId != null) {
+        ProviderRate providerRate = PROVIDER_RATES.get(providerId);
+        if (providerRate != null) {
+          limiter.configure(providerRate);
+        }
+      }
+      HostLimiter existing = LIMITERS.putIfAbsent(key, limiter);
+      if (existing != null) {
+        limiter = existing;
+      }
+    }
+    return limiter;
+  }
+
+  /**
+   * parse the Retry-After header (either delta seconds or a HTTP date)
+   *
+   * @param response
+   *          the response
+   * @return the time to wait in ms (0 if there is no valid header)
+   */
+  static long parseRetryAfter(Response response) {
+    return parseRetryAfter(response.headers());
+  }
+
+  /**
+   * parse the Retry-After header (either delta seconds or a HTTP date)
+   *
+   * @param headers
+   *          the response headers
+   * @return the time to wait in ms (0 if there is no valid header)
+   */
+  static long parseRetryAfter(Headers headers) {
+    if (headers == null) {
+      return 0;
+    }
+    String retryAfter = headers.get("Retry-After");
+    if (StringUtils.isBlank(retryAfter)) {
+      return 0;
+    }
+
+    long millis = 0;
+    try {
+      millis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+    }
+    catch (NumberFormatException e) {
+      Date date = headers.getDate("Retry-After");
+      if (date != null) {
+        millis = date.getTime() - System.currentTimeMillis();
+      }
+    }
+
+    return Math.max(0, Math.min(millis, TimeUnit.SECONDS.toMillis(MAX_RETRY_AFTER)));
+  }
+
+  /**
+   * the configured rate of a provider
+   */
+  static class ProviderRate {
+    final double requestsPerSecond;
+    final int    burst;
+
+    ProviderRate(double requestsPerSecond, int burst) {
+      this.requestsPerSecond = requestsPerSecond;
+      this.burst = burst;
+    }
+  }
+
+  /**
+   * the token bucket for a single host. Callers reserve a token and get the time they have to wait for it (tokens may become negative), so the
+   * waiting happens outside the lock
+   */
+  static class HostLimiter {
+    private double maxRate      = 0;                // 0 = unlimited
+    private double currentRate  = 0;                // 0 = unlimited
+    private int    burst        = 1;
+    private double tokens       = 1;
+    private long   lastRefill   = System.nanoTime();
+    private long   blockedUntil = 0;
+    private long   lastAdjust   = System.nanoTime();
+
+    synchronized void configure(ProviderRate providerRate) {
+      maxRate = Math.max(0, providerRate.requestsPerSecond);
+      currentRate = maxRate;
+      burst = providerRate.burst;
+      tokens = Math.min(tokens, burst);
+    }
+
+    synchronized double getCurrentRate() {
+      return currentRate;
+    }
+
+    /**
+     * reserve a token
+     *
+     * @return the time to wait in ns before the request may be sent
+     */
+    long reserve() {
+      return reserve(System.nanoTime());
+    }
+
+    /**
+     * reserve a token
+     *
+     * @param now
+     *          the actual time (in ns - see System.nanoTime())
+     * @return the time to wait in ns before the request may be sent
+     */
+    synchronized long reserve(long now) {
+      long wait = Math.max(0, blockedUntil - now);
+
+      if (currentRate <= 0) {
+        return wait;
+      }
+
+      // refill the bucket
+      tokens = Math.min(burst, tokens + (now - lastRefill) * currentRate / TimeUnit.SECONDS.toNanos(1));
+      lastRefill = now;
+
+      tokens -= 1;
+      if (tokens >= 0) {
+        return wait;
+      }
+      return Math.max(wait, (long) (-tokens / currentRate * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * we got a 429/503 - halve the rate and honor the Retry-After
+     *
+     * @param retryAfterMillis
+     *          the time to pause this host (in ms)
+     */
+    void throttled(long retryAfterMillis) {
+      throttled(retryAfterMillis, System.nanoTime());
+    }
+
+    /**
+     * we got a 429/503 - halve the rate and honor the Retry-After
+     *
+     * @param retryAfterMillis
+     *          the time to pause this host (in ms)
+     * @param now
+     *          the actual time (in ns - see System.nanoTime())
+     */
+    synchronized void throttled(long retryAfterMillis, long now) {
+      if (currentRate <= 0) {
+        currentRate = maxRate > 0 ? maxRate / 2 : DEFAULT_THROTTLED_RATE;
+      }
+      else {
+        currentRate = currentRate / 2;
+      }
+      currentRate = Math.max(MIN_RATE, currentRate);
+
+      // do not let queued up reservations burst in
+      tokens = Math.min(tokens, 0);
+      lastRefill = now;
+      lastAdjust = now;
+
+      if (retryAfterMillis > 0) {
+        blockedUntil = Math.max(blockedUntil, now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+      }
+    }
+
+    /**
+     * a successful request - slowly recover the rate (additive increase)
+     */
+    void succeeded() {
+      succeeded(System.nanoTime());
+    }
+
+    /**
+     * a successful request - slowly recover the rate (additive increase)
+     *
+     * @param now
+     *          the actual time (in ns - see System.nanoTime())
+     */
+    synchronized void succeeded(long now) {
+      if (currentRate <= 0 || (maxRate > 0 && currentRate >= maxRate)) {
+        return;
+      }
+
+      if (now - lastAdjust < TimeUnit.MILLISECONDS.toNanos(RECOVERY_INTERVAL)) {
+        return;
+      }
+      lastAdjust = now;
+
+      if (maxRate > 0) {
+        currentRate = Math.min(maxRate, currentRate + Math.max(MIN_RATE, maxRate * 0.1));
+      }
+      else {
+        currentRate += DEFAULT_THROTTLED_RATE * 0.1;
+        // recovered enough: an unconfigured host is unlimited again
+        if (currentRate >= DEFAULT_THROTTLED_RATE * 4) {
+          currentRate = 0;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+/**
+ * The enum RequestPriority. The priority lanes of HTTP requests - requests of a higher lane are preferred and have reserved capacity, so a bulk
+ * download cannot starve requests the user is waiting for. Requests without priority are handled as METADATA
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public enum RequestPriority {
+  /** requests the user is actively waiting for (e.g. a search in the UI) */
+  INTERACTIVE,
+  /** metadata requests of scrapers (the default) */
+  METADATA,
+  /** bulk downloads like artwork */
+  BULK_ARTWORK,
+  /** speculative requests whose result may never be used (e.g. prefetching search results) */
+  PREFETCH
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+/**
+ * The interface RetryListener is a hook to collect metrics about retried requests
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface RetryListener {
+  /**
+   * a failed request will be retried after the given delay
+   *
+   * @param url
+   *          the url (with API keys removed)
+   * @param attempt
+   *          the number of the attempt which failed (starting with 1)
+   * @param statusCode
+   *          the HTTP status code of the failed attempt (0 if there was no response)
+   * @param delay
+   *          the time which has been slept before the next attempt (in ms)
+   */
+  void onRetry(String url, int attempt, int statusCode, long delay);
+
+  /**
+   * the request failed permanently after all retries
+   *
+   * @param url
+   *          the url (with API keys removed)
+   * @param attempts
+   *          the amount of attempts
+   * @param elapsed
+   *          the time elapsed since the first attempt (in ms)
+   */
+  void onGiveUp(String url, int attempts, long elapsed);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+/**
+ * The interface RetryPolicy decides if and when a failed request should be retried
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface RetryPolicy {
+  /** do not retry any more */
+  long NO_RETRY = -1;
+
+  /**
+   * may a request with the given method be retried at all (only idempotent requests should be retried)?
+   *
+   * @param method
+   *          the HTTP method of the request
+   * @return true/false
+   */
+  boolean isRetryable(String method);
+
+  /**
+   * calculate the delay before the next attempt
+   *
+   * @param attempt
+   *          the number of the attempt which just failed (starting with 1)
+   * @param previousDelay
+   *          the delay before the failed attempt (in ms; 0 for the first attempt)
+   * @param elapsed
+   *          the time elapsed since the first attempt (in ms)
+   * @param retryAfter
+   *          the delay requested by the server via Retry-After (in ms; 0 if there was no such header)
+   * @return the delay in ms or NO_RETRY to give up
+   */
+  long nextDelay(int attempt, long previousDelay, long elapsed, long retryAfter);
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.MediaSearchResult;
+
+/**
+ * The class SearchPrefetcher. After a search the next call is almost always getMetadata() for the top result, so the detail urls of the best
+ * results (above a score threshold) can be fetched speculatively into the CachedUrl while the user/caller is still choosing. The prefetch runs in
+ * the PREFETCH priority lane on low priority threads, the amount of prefetches in flight is bounded (further prefetches are dropped) and every
+ * prefetch can be cancelled.<br>
+ * The detail urls are taken from MediaSearchResult.getUrl() unless a provider sets an own UrlResolver. Prefetched entries which are used later on
+ * are counted as prefetch hits.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class SearchPrefetcher {
+  private static final Logger        LOGGER                  = LoggerFactory.getLogger(SearchPrefetcher.class);
+
+  /** the default minimum score of a search result to be prefetched */
+  public static final float          DEFAULT_SCORE_THRESHOLD = 0.75f;
+  /** the default amount of search results to prefetch */
+  public static final int            DEFAULT_MAX_RESULTS     = 2;
+  /** the maximum amount of prefetch requests in flight (over all prefetchers) */
+  static final int                   MAX_IN_FLIGHT           = 8;
+
+  private static final AtomicInteger IN_FLIGHT               = new AtomicInteger();
+  private static final AtomicLong    PREFETCHED              = new AtomicLong();
+  private static final AtomicLong    DROPPED                 = new AtomicLong();
+  private static final AtomicLong    HITS                    = new AtomicLong();
+
+  private final UrlResolver          resolver;
+  private float                      scoreThreshold          = DEFAULT_SCORE_THRESHOLD;
+  private int                        maxResults              = DEFAULT_MAX_RESULTS;
+
+  /**
+   * resolves the urls getMetadata() will request for a search result
+   */
+  public interface UrlResolver {
+    /**
+     * get the urls which will be requested for the details of the given search result
+     *
+     * @param result
+     *          the search result
+     * @return the urls (may be empty)
+     */
+    List<String> getDetailUrls(MediaSearchResult result);
+  }
+
+  /**
+   * create a prefetcher for the urls of the search results (MediaSearchResult.getUrl())
+   */
+  public SearchPrefetcher() {
+    this(new UrlResolver() {
+      @Override
+      public List<String> getDetailUrls(MediaSearchResult result) {
+        if (StringUtils.isBlank(result.getUrl())) {
+          return Collections.emptyList();
+        }
+        return Collections.singletonList(result.getUrl());
+      }
+    });
+  }
+
+  /**
+   * create a prefetcher with a provider specific resolver for the detail urls
+   *
+   * @param resolver
+   *          the resolver
+   */
+  public SearchPrefetcher(UrlResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  /**
+   * set the minimum score of a search result to be prefetched
+   *
+   * @param scoreThreshold
+   *          the minimum score
+   */
+  public void setScoreThreshold(float scoreThreshold) {
+    this.scoreThreshold = scoreThreshold;
+  }
+
+  /**
+   * set the maximum amount of search results to prefetch
+   *
+   * @param maxResults
+   *          the maximum amount
+   */
+  public void setMaxResults(int maxResults) {
+    this.maxResults = Math.max(0, maxResults);
+  }
+
+  /**
+   * prefetch the detail urls of the best search results in the background
+   *
+   * @param results
+   *          the search results
+   * @return the handle of the prefetch (to cancel it)
+   */
+  public Prefetch prefetch(List<MediaSearchResult> results) {
+    Prefetch prefetch = new Prefetch();
+    if (results == null || results.isEmpty() || maxResults == 0 || CacheFallbackInterceptor.isOfflineMode()) {
+      return prefetch;
+    }
+
+    List<MediaSearchResult> sorted = new ArrayList<>(results);
+    Collections.sort(sorted, new Comparator<MediaSearchResult>() {
+      @Override
+      public int compare(MediaSearchResult o1, MediaSearchResult o2) {
+        return Float.compare(o2.getScore(), o1.getScore());
+      }
+    });
+
+    for (int i = 0; i < sorted.size() && i < maxResults; i++) {
+      MediaSearchResult result = sorted.get(i);
+      if (result.getScore() < scoreThreshold) {
+        break;
+      }
+      for (String url : resolver.getDetailUrls(result)) {
+        start(url, prefetch);
+      }
+    }
+    return prefetch;
+  }
+
+  private void start(String url, Prefetch prefetch) {
+    if (StringUtils.isBlank(url) || CachedUrl.isCached(url)) {
+      return;
+    }
+    if (IN_FLIGHT.incrementAndGet() > MAX_IN_FLIGHT) {
+      IN_FLIGHT.decrementAndGet();
+      DROPPED.incrementAndGet();
+      LOGGER.trace("dropping prefetch of " + url + " - too many prefetches in flight");
+      return;
+    }
+
+    final CachedUrl cachedUrl;
+    try {
+      cachedUrl = createUrl(url);
+    }
+    catch (MalformedURLException e) {
+      IN_FLIGHT.decrementAndGet();
+      return;
+    }
+    cachedUrl.setPriority(RequestPriority.PREFETCH);
+    cachedUrl.prefetching = true;
+
+    HttpFuture<InputStream> future = cachedUrl.getInputStreamAsync();
+    prefetch.add(future);
+    future.addCallback(new HttpFuture.Callback<InputStream>() {
+      @Override
+      public void onSuccess(InputStream is) {
+        IN_FLIGHT.decrementAndGet();
+        if (is != null) {
+          PREFETCHED.incrementAndGet();
+          IOUtils.closeQuietly(is);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        IN_FLIGHT.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * create the CachedUrl for a prefetch
+   *
+   * @param url
+   *          the url to prefetch
+   * @return the CachedUrl
+   * @throws MalformedURLException
+   *           the url is malformed
+   */
+  CachedUrl createUrl(String url) throws MalformedURLException {
+    return new CachedUrl(url);
+  }
+
+  /**
+   * a prefetched entry has been used by a real request
+   */
+  static void recordHit() {
+    HITS.incrementAndGet();
+  }
+
+  /**
+   * get the amount of urls which have been prefetched
+   *
+   * @return the amount of prefetched urls
+   */
+  public static long getPrefetchCount() {
+    return PREFETCHED.get();
+  }
+
+  /**
+   * get the amount of prefetched urls which have been used afterwards
+   *
+   * @return the amount of prefetch hits
+   */
+  public static long getHitCount() {
+    return HITS.get();
+  }
+
+  /**
+   * get the amount of prefetches which have been dropped because too many prefetches were in flight
+   *
+   * @return the amount of dropped prefetches
+   */
+  public static long getDroppedCount() {
+    return DROPPED.get();
+  }
+
+  /**
+   * the handle of a running prefetch
+   */
+  public static class Prefetch {
+    private final List<HttpFuture<InputStream>> futures = new ArrayList<>();
+
+    private synchronized void add(HttpFuture<InputStream> future) {
+      futures.add(future);
+    }
+
+    /**
+     * cancel all requests of this prefetch which are still in flight
+     */
+    public synchronized void cancel() {
+      for (HttpFuture<InputStream> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    /**
+     * are all requests of this prefetch done?
+     *
+     * @return true/false
+     */
+    public synchronized boolean isDone() {
+      for (HttpFuture<InputStream> future : futures) {
+        if (!future.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
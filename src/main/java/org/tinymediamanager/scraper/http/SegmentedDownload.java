@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class SegmentedDownload is used to download a (big) file via several connections in parallel. The file is split into byte ranges which are
+ * fetched concurrently and written into the preallocated target file at their position. The ranges are requested without compression and (if
+ * the probe delivered a validator) with If-Range, so a resource which changed in the meantime is not stitched together from different versions.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+class SegmentedDownload {
+  private static final Logger              LOGGER      = LoggerFactory.getLogger(SegmentedDownload.class);
+  private static final int                 BUFFER_SIZE = 64 * 1024;
+  private static final Pattern             RANGE       = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+  private final OkHttpClient               client;
+  private final Request                    request;
+  private final long                       contentLength;
+  private final int                        segments;
+  private final String                     validator;
+
+  private final List<Call>                 calls       = new ArrayList<>();
+  private final AtomicReference<Exception> failure     = new AtomicReference<>();
+
+  /**
+   * the server does not support range requests (responded with the whole content)
+   */
+  static class RangeNotSupportedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    RangeNotSupportedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * create a new segmented download
+   *
+   * @param client
+   *          the client to use
+   * @param request
+   *          the (GET) request for the whole file
+   * @param contentLength
+   *          the length of the content (from the probe)
+   * @param segments
+   *          the amount of segments
+   * @param validator
+   *          the validator of the probe (a strong ETag or the Last-Modified date) for If-Range or an empty string
+   */
+  SegmentedDownload(OkHttpClient client, Request request, long contentLength, int segments, String validator) {
+    this.client = client;
+    this.request = request;
+    this.contentLength = contentLength;
+    this.segments = segments;
+    this.validator = validator;
+  }
+
+  /**
+   * check if the probe response allows a segmented download
+   *
+   * @param code
+   *          the status code of the HEAD request
+   * @param headers
+   *          the headers of the HEAD request
+   * @return true if the server supports byte ranges and tells us the content length of the uncompressed content
+   */
+  static boolean supportsRanges(int code, Headers headers) {
+    if (code < 200 || code >= 300 || headers == null) {
+      return false;
+    }
+    String acceptRanges = headers.get("Accept-Ranges");
+    if (StringUtils.isBlank(acceptRanges) || !acceptRanges.toLowerCase(Locale.ROOT).contains("bytes")) {
+      return false;
+    }
+    // the length of a compressed body is no base for byte ranges
+    String contentEncoding = headers.get("Content-Encoding");
+    if (StringUtils.isNotBlank(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding.trim())) {
+      return false;
+    }
+    return parseContentLength(headers) > 0;
+  }
+
+  static long parseContentLength(Headers headers) {
+    try {
+      return Long.parseLong(StringUtils.defaultIfBlank(headers.get("Content-Length"), "-1").trim());
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * check if the Content-Range of a segment is the requested one
+   *
+   * @param contentRange
+   *          the Content-Range header of the response (bytes 100-199/1000)
+   * @param start
+   *          the requested start
+   * @param end
+   *          the requested end (inclusive)
+   * @param contentLength
+   *          the length of the whole content
+   * @throws RangeNotSupportedException
+   *           the server sent another range (or another length of the content)
+   */
+  static void checkContentRange(String contentRange, long start, long end, long contentLength) throws RangeNotSupportedException {
+    Matcher matcher = RANGE.matcher(StringUtils.defaultString(contentRange));
+    if (!matcher.find() || Long.parseLong(matcher.group(1)) != start || Long.parseLong(matcher.group(2)) != end
+        || (!"*".equals(matcher.group(3)) && Long.parseLong(matcher.group(3)) != contentLength)) {
+      throw new RangeNotSupportedException("unexpected Content-Range \"" + contentRange + "\" for the range " + start + "-" + end);
+    }
+  }
+
+  /**
+   * download all segments into the given file
+   *
+   * @param file
+   *          the target file
+   * @throws IOException
+   *           any error while downloading (RangeNotSupportedException if the server ignored the range)
+   * @throws InterruptedException
+   *           the download has been interrupted
+   */
+  void download(File file) throws IOException, InterruptedException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      // preallocate the file
+      raf.setLength(contentLength);
+      final FileChannel channel = raf.getChannel();
+
+      long segmentSize = (contentLength + segments - 1) / segments;
+      final CountDownLatch latch = new CountDownLatch(segments);
+
+      for (int i = 0; i < segments; i++) {
+        final long start = i * segmentSize;
+        final long end = Math.min(contentLength, start + segmentSize) - 1;
+
+        // the ranges refer to the uncompressed content
+        Request.Builder builder = request.newBuilder().header("Range", "bytes=" + start + "-" + end).header("Accept-Encoding", "identity");
+        if (StringUtils.isNotBlank(validator)) {
+          // the whole (changed) content is sent if the validator does not match anymore
+          builder.header("If-Range", validator);
+        }
+        Request rangeRequest = builder.build();
+        Call call = client.newCall(rangeRequest);
+        synchronized (calls) {
+          calls.add(call);
+        }
+
+        call.enqueue(new Callback() {
+          @Override
+          public void onResponse(Call call, Response response) {
+            try {
+              if (response.code() != 206) {
+                throw new RangeNotSupportedException("server responded with " + response.code() + " to a range request");
+              }
+              checkContentRange(response.header("Content-Range"), start, end, contentLength);
+              writeSegment(response, channel, start, end);
+            }
+            catch (Exception e) {
+              fail(e);
+            }
+            finally {
+              response.close();
+              latch.countDown();
+            }
+          }
+
+          @Override
+          public void onFailure(Call call, IOException e) {
+            fail(e);
+            latch.countDown();
+          }
+        });
+      }
+
+      try {
+        latch.await();
+      }
+      catch (InterruptedException e) {
+        cancelAll();
+        throw e;
+      }
+
+      Exception e = failure.get();
+      if (e instanceof IOException) {
+        throw (IOException) e;
+      }
+      else if (e != null) {
+        throw new IOException(e);
+      }
+    }
+    finally {
+      IOUtils.closeQuietly(raf);
+    }
+  }
+
+  private void writeSegment(Response response, FileChannel channel, long start, long end) throws IOException {
+    InputStream is = response.body().byteStream();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long position = start;
+    int read;
+
+    while ((read = is.read(buffer)) != -1) {
+      if (failure.get() != null) {
+        // another segment failed - stop here
+        return;
+      }
+      if (position + read > end + 1) {
+        throw new IOException("server sent more data than requested");
+      }
+      ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+      while (bb.hasRemaining()) {
+        position += channel.write(bb, position);
+      }
+    }
+
+    if (position != end + 1) {
+      throw new IOException("incomplete segment " + start + "-" + end + " (got " + (position - start) + " bytes)");
+    }
+  }
+
+  private void fail(Exception e) {
+    if (failure.compareAndSet(null, e)) {
+      LOGGER.debug("segment download failed: " + e.getMessage());
+      cancelAll();
+    }
+  }
+
+  private void cancelAll() {
+    synchronized (calls) {
+      for (Call call : calls) {
+        call.cancel();
+      }
+    }
+  }
+}
@@ -24,13 +24,13 @@ import java.net.UnknownHostException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.tinymediamanager.scraper.util.Pair;
 
-import okhttp3.Request;
+import okhttp3.Response;
 
 /**
  * The class StreamingUrl. Used to build streaming downloads (e.g. bigger files
- * which can't the streamed via a ByteArrayInputStream).
+ * which can't the streamed via a ByteArrayInputStream). The asynchronous variant
+ * getInputStreamAsync() shares the same response handling.
  * 
  * @author Manuel Laggner
  */
@@ -56,33 +56,20 @@ public class StreamingUrl extends Url {
       return new FileInputStream(file);
     }
 
-    // replace our API keys for logging...
-    String logUrl = url.replaceAll("api_key=\\w+", "api_key=<API_KEY>").replaceAll("api/\\d+\\w+", "api/<API_KEY>");
-    LOGGER.debug("getting " + logUrl);
-    Request.Builder requestBuilder = new Request.Builder();
-    requestBuilder.url(url);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("getting " + getLogUrl());
+    }
 
     InputStream is = null;
 
-    // set custom headers
-    for (Pair<String, String> header : headersRequest) {
-      requestBuilder.addHeader(header.first(), header.second());
-    }
-
-    request = requestBuilder.build();
+    request = buildRequest(false);
 
     try {
-      call = client.newCall(request);
-      response = call.execute();
-      headersResponse = response.headers();
-      responseCode = response.code();
-      responseMessage = response.message();
-      responseCharset = response.body().contentType().charset();
-      responseContentType = response.body().contentType().toString();
-      is = response.body().byteStream();
+      call = getClient().newCall(request);
+      is = processResponse(call.execute());
     }
     catch (InterruptedIOException | IllegalStateException e) {
-      LOGGER.info("aborted request: " + logUrl + " ;" + e.getMessage());
+      LOGGER.info("aborted request: " + getLogUrl() + " ;" + e.getMessage());
       cleanup();
       throw new InterruptedException();
     }
@@ -90,8 +77,28 @@ public class StreamingUrl extends Url {
       LOGGER.error("proxy or host not found/reachable", e);
     }
     catch (Exception e) {
-      LOGGER.error("Exception getting url " + logUrl, e);
+      LOGGER.error("Exception getting url " + getLogUrl(), e);
     }
     return is;
   }
+
+  /**
+   * process the response without checking the response code - the caller is responsible for checking the status and closing the connection
+   *
+   * @param response
+   *          the response of the call
+   * @return the InputStream of the body
+   */
+  @Override
+  protected InputStream processResponse(Response response) {
+    this.response = response;
+    headersResponse = response.headers();
+    responseCode = response.code();
+    responseMessage = response.message();
+    if (response.body().contentType() != null) {
+      responseCharset = response.body().contentType().charset();
+      responseContentType = response.body().contentType().toString();
+    }
+    return response.body().byteStream();
+  }
 }
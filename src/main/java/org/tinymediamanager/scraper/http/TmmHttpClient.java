@@ -20,6 +20,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.security.cert.X509Certificate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
@@ -35,6 +39,7 @@ import okhttp3.Authenticator;
 import okhttp3.Cache;
 import okhttp3.ConnectionPool;
 import okhttp3.Credentials;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -49,10 +54,13 @@ import okhttp3.logging.HttpLoggingInterceptor.Level;
  * @since 1.0
  */
 public class TmmHttpClient {
-  private static final Logger LOGGER    = LoggerFactory.getLogger(TmmHttpClient.class);
-  public static final String  CACHE_DIR = "cache/http";
-  private static Cache        CACHE     = new Cache(new File(CACHE_DIR), 5 * 1024 * 1024);
-  private static OkHttpClient client    = createHttpClient();
+  private static final Logger                             LOGGER       = LoggerFactory.getLogger(TmmHttpClient.class);
+  public static final String                              CACHE_DIR    = "cache/http";
+  private static Cache                                    CACHE        = new Cache(new File(CACHE_DIR), 5 * 1024 * 1024);
+  private static OkHttpClient                             client       = createHttpClient();
+
+  // clients with an own dispatcher for the priority lanes (sharing the pool and all interceptors of the main client)
+  private static final Map<RequestPriority, OkHttpClient> LANE_CLIENTS = new EnumMap<>(RequestPriority.class);
 
   /**
    * instantiates a new OkHttpClient
@@ -63,13 +71,33 @@ public class TmmHttpClient {
     OkHttpClient.Builder builder = new OkHttpClient.Builder();
 
     // pool
-    builder.connectionPool(new ConnectionPool(5, 5000, TimeUnit.MILLISECONDS));
+    builder.connectionPool(new ConnectionPool(10, 5, TimeUnit.MINUTES));
+
+    // dns cache (shared state across all clients)
+    builder.dns(new CachingDns());
 
     // timeouts
     builder.connectTimeout(10, TimeUnit.SECONDS);
     builder.writeTimeout(10, TimeUnit.SECONDS);
     builder.readTimeout(30, TimeUnit.SECONDS);
 
+    // metrics (shared state across all clients)
+    HttpMetrics.registerMBean();
+    builder.eventListenerFactory(MetricsEventListener.FACTORY);
+    builder.addInterceptor(new MetricsInterceptor());
+
+    // stale-if-error and offline mode (shared state across all clients)
+    builder.addInterceptor(new CacheFallbackInterceptor());
+
+    // fail fast on hosts which are down (shared state across all clients)
+    builder.addInterceptor(new CircuitBreakerInterceptor());
+
+    // per host rate limit (shared state across all clients)
+    builder.addInterceptor(new RateLimitInterceptor());
+
+    // priority lanes (shared state across all clients)
+    builder.addInterceptor(new PriorityInterceptor());
+
     // log http calls
     if (LOGGER.isTraceEnabled()) {
       HttpLoggingInterceptor logging = new HttpLoggingInterceptor(new HttpLoggingInterceptor.Logger() {
@@ -154,12 +182,56 @@ public class TmmHttpClient {
     return client;
   }
 
+  /**
+   * Gets the pre-configured http client for the given priority lane. Every lane has its own dispatcher, so asynchronous requests of a lane do not
+   * queue up behind the requests of another lane
+   *
+   * @param priority
+   *          the priority lane (null for the default lane)
+   * @return the http client
+   */
+  public static synchronized OkHttpClient getHttpClient(RequestPriority priority) {
+    if (priority == null || priority == RequestPriority.METADATA) {
+      return client;
+    }
+
+    OkHttpClient laneClient = LANE_CLIENTS.get(priority);
+    if (laneClient == null) {
+      Dispatcher dispatcher;
+      if (priority == RequestPriority.PREFETCH) {
+        // speculative requests run on a few low priority threads
+        dispatcher = new Dispatcher(Executors.newCachedThreadPool(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "http-prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+          }
+        }));
+        dispatcher.setMaxRequests(4);
+        dispatcher.setMaxRequestsPerHost(2);
+      }
+      else {
+        dispatcher = new Dispatcher();
+        if (priority == RequestPriority.BULK_ARTWORK) {
+          dispatcher.setMaxRequests(16);
+          dispatcher.setMaxRequestsPerHost(4);
+        }
+      }
+      laneClient = client.newBuilder().dispatcher(dispatcher).build();
+      LANE_CLIENTS.put(priority, laneClient);
+    }
+    return laneClient;
+  }
+
   /**
    * re-create the http client due to settings changes
    */
-  public static void recreateHttpClient() {
+  public static synchronized void recreateHttpClient() {
     // recreate a new client instance
     client = createHttpClient();
+    LANE_CLIENTS.clear();
   }
 
   private static void setProxy(OkHttpClient.Builder builder) {
@@ -17,23 +17,25 @@ package org.tinymediamanager.scraper.http;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,38 +48,69 @@ import org.tinymediamanager.scraper.util.UrlUtil;
 
 import okhttp3.Call;
 import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
 /**
  * The Class Url. Used to make simple, blocking URL requests. The request is temporarily streamed into a ByteArrayInputStream, before the InputStream
- * is passed to the caller.
+ * is passed to the caller. For non-blocking requests use getInputStreamAsync(), which enqueues the request in the dispatcher of the OkHttpClient.
  * 
  * @author Manuel Laggner / Myron Boyle
  */
 public class Url {
-  private static final Logger          LOGGER                = LoggerFactory.getLogger(Url.class);
-  protected static OkHttpClient        client;
+  private static final Logger           LOGGER                = LoggerFactory.getLogger(Url.class);
+  protected static OkHttpClient         client;
 
-  protected static final String        USER_AGENT            = "User-Agent";
+  protected static final String         USER_AGENT            = "User-Agent";
   // where is such a list in std java?
-  public static final List<String>     KNOWN_HEADERS         = Arrays.asList("accept", "accept-charset", "accept-encoding", "accept-language",
+  public static final List<String>      KNOWN_HEADERS         = Arrays.asList("accept", "accept-charset", "accept-encoding", "accept-language",
       "authorization", "cookie", "customrequest", "noshout", "postdata", "referer", "user-agent", "seekable", "sslcipherlist", "Via");
-  protected int                        responseCode          = 0;
-  protected String                     responseMessage       = "";
-  protected Charset                    responseCharset       = null;
-  protected String                     responseContentType   = "";
-  protected long                       responseContentLength = -1;
+  /** the minimum size of a segment for segmented downloads */
+  public static final long              MIN_SEGMENT_SIZE      = 1024 * 1024;
+  /** the interval (in bytes) in which the progress of a download is recorded */
+  public static final long              CHECKPOINT_INTERVAL   = 1024 * 1024;
+  private static final Pattern          CONTENT_RANGE_PATTERN = Pattern.compile("bytes\\s+(\\d+)-");
+  private static final Pattern          HEADER_IN_URL_PATTERN = Pattern.compile(".*\\|(.*?)=(.*?)$");
+  private static final Pattern          API_KEY_PATTERN       = Pattern.compile("api_key=\\w+");
+  private static final Pattern          API_PATH_PATTERN      = Pattern.compile("api/\\d+\\w+");
 
-  protected String                     url                   = null;
-  protected Headers                    headersResponse       = null;
-  protected List<Pair<String, String>> headersRequest        = new ArrayList<>();
-  protected URI                        uri                   = null;
+  private static volatile RetryPolicy   defaultRetryPolicy    = new ExponentialBackoffRetryPolicy();
+  private static volatile RetryListener retryListener         = null;
+  /** the delay before a hedge request is sent if there are not enough samples of the host (in ms) */
+  public static final long              DEFAULT_HEDGE_DELAY   = 1000;
+  /** the minimum delay before a hedge request is sent (in ms) */
+  public static final long              MIN_HEDGE_DELAY       = 50;
+  private static volatile double        hedgePercentile       = 0.95;
 
-  protected Call                       call                  = null;
-  protected Request                    request               = null;
-  protected Response                   response              = null;
+  protected int                         responseCode          = 0;
+  protected String                      responseMessage       = "";
+  protected Charset                     responseCharset       = null;
+  protected String                      responseContentType   = "";
+  protected long                        responseContentLength = -1;
+
+  protected String                      url                   = null;
+  protected Headers                     headersResponse       = null;
+  protected List<Pair<String, String>>  headersRequest        = new ArrayList<>();
+  /**
+   * @deprecated HTTP urls are parsed by OkHttp only, so this field is null for them until getUri() has been called - use getUri()
+   */
+  @Deprecated
+  protected URI                         uri                   = null;
+  protected HttpUrl                     httpUrl               = null;
+  private String                        logUrl                = null;
+  private String                        logUrlSource          = null;
+
+  protected Call                        call                  = null;
+  protected Request                     request               = null;
+  protected Response                    response              = null;
+  protected RetryPolicy                 retryPolicy           = null;
+  protected boolean                     hedging               = false;
+  protected RequestPriority             priority              = null;
+  protected boolean                     stale                 = false;
+  // the last request failed by a connect/read timeout (rather than being interrupted/cancelled)
+  boolean                               timedOut              = false;
 
   /**
    * gets the specified header value from this connection<br>
@@ -120,18 +153,7 @@ public class Url {
       client = TmmHttpClient.getHttpClient();
     }
     this.url = url;
-
-    if (url.contains("|")) {
-      splitHeadersFromUrl();
-    }
-
-    // morph to URI to check syntax of the url
-    try {
-      uri = morphStringToUri(url);
-    }
-    catch (URISyntaxException e) {
-      throw new MalformedURLException(url);
-    }
+    parseUrl();
 
     // default user agent
     addHeader(USER_AGENT, UrlUtil.generateUA());
@@ -151,8 +173,7 @@ public class Url {
    * 
    */
   protected void splitHeadersFromUrl() {
-    Pattern p = Pattern.compile(".*\\|(.*?)=(.*?)$");
-    Matcher m = p.matcher(this.url);
+    Matcher m = HEADER_IN_URL_PATTERN.matcher(this.url);
     if (m.find()) {
       if (KNOWN_HEADERS.contains(m.group(1).toLowerCase(Locale.ROOT))) {
         // ok, url might have a pipe, but we now have a recognized header - set it
@@ -162,6 +183,56 @@ public class Url {
     }
   }
 
+  /**
+   * split the headers from the url and check its syntax. HTTP urls are parsed just once by OkHttp (the parsed url is re-used for the request);
+   * all other urls are checked by morphing them to an URI
+   *
+   * @throws MalformedURLException
+   *           the url is malformed
+   */
+  protected void parseUrl() throws MalformedURLException {
+    if (url.indexOf('|') >= 0) {
+      splitHeadersFromUrl();
+    }
+
+    httpUrl = HttpUrl.parse(url);
+    if (httpUrl != null) {
+      return;
+    }
+
+    // morph to URI to check syntax of the url
+    try {
+      uri = morphStringToUri(url);
+    }
+    catch (URISyntaxException e) {
+      throw new MalformedURLException(url);
+    }
+  }
+
+  /**
+   * get the url as URI. For HTTP urls the URI is derived from the parsed url on the first call
+   *
+   * @return the URI or null if the url could not be parsed
+   */
+  public URI getUri() {
+    if (uri == null && httpUrl != null) {
+      uri = httpUrl.uri();
+    }
+    return uri;
+  }
+
+  /**
+   * get the host of the url
+   *
+   * @return the host or null
+   */
+  String getHost() {
+    if (httpUrl != null) {
+      return httpUrl.host();
+    }
+    return uri != null ? uri.getHost() : null;
+  }
+
   /**
    * morph the url (string) to an URI to check the syntax and escape the path
    * 
@@ -176,6 +247,102 @@ public class Url {
     return new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
   }
 
+  /**
+   * set the default retry policy for all Url instances without an own retry policy
+   *
+   * @param retryPolicy
+   *          the retry policy
+   */
+  public static void setDefaultRetryPolicy(RetryPolicy retryPolicy) {
+    if (retryPolicy != null) {
+      defaultRetryPolicy = retryPolicy;
+    }
+  }
+
+  /**
+   * set a listener which gets informed about all retries (e.g. for metrics)
+   *
+   * @param listener
+   *          the listener or null to remove it
+   */
+  public static void setRetryListener(RetryListener listener) {
+    retryListener = listener;
+  }
+
+  /**
+   * set a retry policy for this Url (otherwise the default retry policy is used)
+   *
+   * @param retryPolicy
+   *          the retry policy
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * enable hedged requests for this Url: if no response arrived within the hedge delay, a second identical request is sent and the first response
+   * wins. Only idempotent GET requests will be hedged
+   *
+   * @param hedging
+   *          true to enable hedging
+   */
+  public void setHedging(boolean hedging) {
+    this.hedging = hedging;
+  }
+
+  /**
+   * set the priority lane of this Url (default: METADATA). Requests of a higher lane are preferred and have reserved capacity, so interactive
+   * requests do not have to wait for running bulk downloads
+   *
+   * @param priority
+   *          the priority lane
+   */
+  public void setPriority(RequestPriority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * get the http client for the priority lane of this Url
+   *
+   * @return the http client
+   */
+  protected OkHttpClient getClient() {
+    if (priority == null) {
+      return client;
+    }
+    return TmmHttpClient.getHttpClient(priority);
+  }
+
+  /**
+   * set the percentile of the response times of a host which is used as delay for hedge requests
+   *
+   * @param percentile
+   *          the percentile (e.g. 0.95)
+   */
+  public static void setHedgePercentile(double percentile) {
+    if (percentile > 0 && percentile <= 1) {
+      hedgePercentile = percentile;
+    }
+  }
+
+  /**
+   * get the amount of hedge requests which have been sent
+   *
+   * @return the amount of hedge requests
+   */
+  public static long getHedgeCount() {
+    return HedgedCall.getHedgeCount();
+  }
+
+  /**
+   * get the amount of hedge requests which have been faster than the original request
+   *
+   * @return the amount of winning hedge requests
+   */
+  public static long getHedgeWinCount() {
+    return HedgedCall.getHedgeWinCount();
+  }
+
   /**
    * set a specified User-Agent
    * 
@@ -210,7 +377,9 @@ public class Url {
       return;
     }
 
-    LOGGER.trace("add HTTP header: " + key + "=" + value);
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("add HTTP header: " + key + "=" + value);
+    }
 
     // looks like there is no need for duplicate check since some headers can
     // occur several times
@@ -280,46 +449,33 @@ public class Url {
 
     InputStream is = null;
 
-    // replace our API keys for logging...
-    String logUrl = url.replaceAll("api_key=\\w+", "api_key=<API_KEY>").replaceAll("api/\\d+\\w+", "api/<API_KEY>");
-    LOGGER.debug("getting " + logUrl);
-
-    Request.Builder requestBuilder = new Request.Builder();
-    requestBuilder.url(url);
-
-    if (headRequest) {
-      requestBuilder.head();
-    }
-
-    // set custom headers
-    for (Pair<String, String> header : headersRequest) {
-      requestBuilder.addHeader(header.first(), header.second());
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("getting " + getLogUrl());
     }
 
-    request = requestBuilder.build();
+    request = buildRequest(headRequest);
+    timedOut = false;
 
     try {
-      call = client.newCall(request);
-      response = call.execute();
-      headersResponse = response.headers();
-      responseCode = response.code();
-      responseMessage = response.message();
-
-      // log any "connection problems"
-      if (responseCode < 200 || responseCode >= 400) {
-        cleanup();
-        LOGGER.error("bad http response: " + responseCode + " ; " + responseMessage);
-        return null;
+      long start = System.currentTimeMillis();
+      Response resp;
+      if (isHedgeable(request)) {
+        HedgedCall hedgedCall = new HedgedCall(getClient(), request, getHedgeDelay());
+        call = null;
+        resp = hedgedCall.execute();
+        call = hedgedCall.getCall();
       }
-
-      if (response.body().contentType() != null) { // could be null, see AnimeDB
-        responseCharset = response.body().contentType().charset();
-        responseContentType = response.body().contentType().toString();
+      else {
+        call = getClient().newCall(request);
+        resp = call.execute();
       }
-      is = response.body().byteStream();
+      LatencyTracker.record(request.url().host(), System.currentTimeMillis() - start);
+      is = processResponse(resp);
     }
     catch (InterruptedIOException | IllegalStateException e) {
-      LOGGER.info("aborted request: " + logUrl + " ; " + e.getMessage());
+      // a timeout is an InterruptedIOException too - but not an abort (the interrupt flag is cleared by okio, so check the call)
+      timedOut = e instanceof SocketTimeoutException && (call == null || !call.isCanceled());
+      LOGGER.info((timedOut ? "timeout: " : "aborted request: ") + getLogUrl() + " ; " + e.getMessage());
       cleanup();
       throw new InterruptedException();
     }
@@ -327,15 +483,246 @@ public class Url {
       cleanup();
       LOGGER.error("proxy or host not found/reachable; " + e.getMessage());
     }
+    catch (CircuitOpenException e) {
+      cleanup();
+      LOGGER.debug("skipping " + getLogUrl() + " ; " + e.getMessage());
+    }
     catch (Exception e) {
       cleanup();
-      LOGGER.error("Exception getting url " + logUrl + " ; " + e.getMessage(), e);
+      LOGGER.error("Exception getting url " + getLogUrl() + " ; " + e.getMessage(), e);
     }
     return is;
   }
 
   /**
-   * gets the url with the given amount of retries
+   * Gets the input stream asynchronously. The request is enqueued in the dispatcher of the shared OkHttpClient, so no thread is blocked while
+   * waiting for the response. The future is completed with the same result as getInputStream() would return (null on connection problems or bad
+   * http responses); status code, headers and charset are available via this object once the future has been completed.
+   *
+   * @return the future containing the InputStream
+   */
+  public HttpFuture<InputStream> getInputStreamAsync() {
+    return getInputStreamAsync(false);
+  }
+
+  /**
+   * Gets the input stream asynchronously.
+   *
+   * @param headRequest
+   *          do you just want to send a HEAD request, for checking file availability?
+   * @return the future containing the InputStream
+   */
+  public HttpFuture<InputStream> getInputStreamAsync(boolean headRequest) {
+    // local files do not need any async processing
+    if (url.startsWith("file:")) {
+      try {
+        return HttpFuture.completed(headRequest ? getInputStream(true) : getInputStream());
+      }
+      catch (Exception e) {
+        return HttpFuture.failed(e);
+      }
+    }
+
+    final HttpFuture<InputStream> future = new HttpFuture<>();
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("getting async " + getLogUrl());
+    }
+
+    request = buildRequest(headRequest);
+    final long start = System.currentTimeMillis();
+
+    if (isHedgeable(request)) {
+      final HedgedCall hedgedCall = new HedgedCall(getClient(), request, getHedgeDelay());
+      HttpFuture<Response> responseFuture = hedgedCall.enqueue();
+      future.setUpstream(responseFuture);
+      responseFuture.addCallback(new HttpFuture.Callback<Response>() {
+        @Override
+        public void onSuccess(Response response) {
+          call = hedgedCall.getCall();
+          LatencyTracker.record(request.url().host(), System.currentTimeMillis() - start);
+          completeAsync(future, response);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          failAsync(future, t, t instanceof CancellationException);
+        }
+      });
+      return future;
+    }
+
+    call = getClient().newCall(request);
+    future.setCall(call);
+
+    call.enqueue(new okhttp3.Callback() {
+      @Override
+      public void onResponse(Call call, Response response) {
+        LatencyTracker.record(request.url().host(), System.currentTimeMillis() - start);
+        completeAsync(future, response);
+      }
+
+      @Override
+      public void onFailure(Call call, IOException e) {
+        failAsync(future, e, call.isCanceled());
+      }
+    });
+
+    return future;
+  }
+
+  private void completeAsync(HttpFuture<InputStream> future, Response response) {
+    try {
+      future.complete(processResponse(response));
+    }
+    catch (Exception e) {
+      cleanup();
+      LOGGER.error("Exception getting url " + getLogUrl() + " ; " + e.getMessage(), e);
+      future.complete(null);
+    }
+  }
+
+  private void failAsync(HttpFuture<InputStream> future, Throwable e, boolean canceled) {
+    cleanup();
+    if (canceled) {
+      LOGGER.info("aborted request: " + getLogUrl() + " ; " + e.getMessage());
+      future.cancel(false);
+    }
+    else if (e instanceof UnknownHostException) {
+      LOGGER.error("proxy or host not found/reachable; " + e.getMessage());
+      future.complete(null);
+    }
+    else if (e instanceof CircuitOpenException) {
+      LOGGER.debug("skipping " + getLogUrl() + " ; " + e.getMessage());
+      future.complete(null);
+    }
+    else {
+      LOGGER.error("Exception getting url " + getLogUrl() + " ; " + e.getMessage(), e);
+      future.complete(null);
+    }
+  }
+
+  /**
+   * may the given request be hedged? (hedging enabled and an idempotent GET without body)
+   */
+  private boolean isHedgeable(Request request) {
+    return hedging && "GET".equals(request.method()) && request.body() == null;
+  }
+
+  /**
+   * the delay for hedge requests is derived from the recorded response times of the host
+   */
+  private long getHedgeDelay() {
+    return Math.max(MIN_HEDGE_DELAY, LatencyTracker.getPercentile(request.url().host(), hedgePercentile, DEFAULT_HEDGE_DELAY));
+  }
+
+  /**
+   * build the request for this url (along with all custom headers)
+   *
+   * @param headRequest
+   *          build a HEAD request?
+   * @return the request
+   */
+  protected Request buildRequest(boolean headRequest) {
+    Request.Builder requestBuilder = new Request.Builder();
+    if (httpUrl != null) {
+      requestBuilder.url(httpUrl);
+    }
+    else {
+      requestBuilder.url(url);
+    }
+
+    if (headRequest) {
+      requestBuilder.head();
+    }
+
+    if (priority != null) {
+      requestBuilder.tag(priority);
+    }
+
+    // set custom headers
+    for (Pair<String, String> header : headersRequest) {
+      requestBuilder.addHeader(header.first(), header.second());
+    }
+
+    return requestBuilder.build();
+  }
+
+  /**
+   * process the response of the call: take over status code, headers and charset and provide the InputStream of the body
+   *
+   * @param response
+   *          the response of the call
+   * @return the InputStream of the body or null if the response signals a problem
+   */
+  protected InputStream processResponse(Response response) {
+    this.response = response;
+    headersResponse = response.headers();
+    responseCode = response.code();
+    responseMessage = response.message();
+    stale = isStaleResponse(response);
+
+    // log any "connection problems"
+    if (responseCode < 200 || responseCode >= 400) {
+      cleanup();
+      LOGGER.error("bad http response: " + responseCode + " ; " + responseMessage);
+      return null;
+    }
+
+    if (response.body().contentType() != null) { // could be null, see AnimeDB
+      responseCharset = response.body().contentType().charset();
+      responseContentType = response.body().contentType().toString();
+    }
+    return response.body().byteStream();
+  }
+
+  /**
+   * is the response an expired one from the cache (served because the provider is not available or the offline mode is active)?
+   */
+  private static boolean isStaleResponse(Response response) {
+    if (response.cacheResponse() == null) {
+      return false;
+    }
+    // 110 - response is stale; 111 - revalidation failed
+    for (String warning : response.headers("Warning")) {
+      if (warning.startsWith("110") || warning.startsWith("111")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * has the response been served from a cache although it is expired (because the provider was not available or the offline mode is active)?
+   *
+   * @return true if the response is stale
+   */
+  public boolean isStale() {
+    return stale;
+  }
+
+  /**
+   * get the url with our API keys replaced (for logging)
+   *
+   * @return the url to be logged
+   */
+  protected String getLogUrl() {
+    // the masked url is computed once per url (and only if it is actually logged)
+    String masked = logUrl;
+    if (masked == null || logUrlSource != url) {
+      masked = url;
+      if (masked.indexOf("api") >= 0) {
+        masked = API_KEY_PATTERN.matcher(masked).replaceAll("api_key=<API_KEY>");
+        masked = API_PATH_PATTERN.matcher(masked).replaceAll("api/<API_KEY>");
+      }
+      logUrl = masked;
+      logUrlSource = url;
+    }
+    return masked;
+  }
+
+  /**
+   * gets the url with the given amount of retries. The delay between the attempts is calculated by the retry policy (exponential backoff with
+   * jitter per default); a Retry-After of the server is honored
    *
    * @param retries
    *          the amount of retries (>0)
@@ -346,17 +733,29 @@ public class Url {
       return null;
     }
 
+    RetryPolicy policy = retryPolicy != null ? retryPolicy : defaultRetryPolicy;
+    long start = System.currentTimeMillis();
+    long previousDelay = 0;
     InputStream is = null;
 
     int counter = 0;
     do {
       counter++;
+      responseCode = 0;
+      headersResponse = null;
       try {
         is = getInputStream();
       }
+      catch (InterruptedException | InterruptedIOException e) {
+        // only a real interruption/cancellation stops; timeouts are retried like any other transient failure
+        if (!timedOut || Thread.currentThread().isInterrupted()) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
       catch (Exception ignored) {
       }
-      if (is != null || (is == null && getStatusCode() > 0 && getStatusCode() < 500)) {
+      if (is != null || isPermanentFailure()) {
         // we either got a response or a permanent failure
         return is;
       }
@@ -364,12 +763,54 @@ public class Url {
       if (Thread.interrupted()) {
         return null;
       }
-      LOGGER.info("could not fetch: " + url + " - retrying");
-    } while (counter <= retries);
+      if (counter > retries || !policy.isRetryable(request != null ? request.method() : "GET")) {
+        break;
+      }
+      // the host is down (or we are offline) - do not waste any time
+      if (CacheFallbackInterceptor.isOfflineMode()) {
+        break;
+      }
+      if (request != null && CircuitBreakerInterceptor.getState(request.url().host()) == CircuitBreakerInterceptor.State.OPEN) {
+        break;
+      }
 
+      long retryAfter = RateLimitInterceptor.parseRetryAfter(headersResponse);
+      long delay = policy.nextDelay(counter, previousDelay, System.currentTimeMillis() - start, retryAfter);
+      if (delay < 0) {
+        break;
+      }
+
+      LOGGER.info("could not fetch: " + getLogUrl() + " - retrying in " + delay + "ms");
+      try {
+        Thread.sleep(delay);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+
+      RetryListener listener = retryListener;
+      if (listener != null) {
+        listener.onRetry(getLogUrl(), counter, responseCode, delay);
+      }
+      previousDelay = delay;
+    } while (true);
+
+    RetryListener listener = retryListener;
+    if (listener != null) {
+      listener.onGiveUp(getLogUrl(), counter, System.currentTimeMillis() - start);
+    }
     return null;
   }
 
+  /**
+   * a failed request with a 4xx status is permanent (except throttling/timeouts)
+   */
+  private boolean isPermanentFailure() {
+    int code = getStatusCode();
+    return code > 0 && code < 500 && code != 429 && code != 408;
+  }
+
   /**
    * Cleanup the connection
    */
@@ -439,21 +880,84 @@ public class Url {
   }
 
   /**
-   * Download an Url to a file via NIO FileChannel (synchron)
+   * Download an Url to a file via NIO FileChannel (synchron). The content is written to a .part file which is renamed to the target file once the
+   * download is complete. If the resource has a validator (ETag or Last-Modified), an interrupted download is resumed with a range request at the
+   * next attempt
    * 
    * @param file
    * @return successful or not
    */
   public boolean download(File file) {
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, url);
+    boolean resume = checkpoint.canResume();
+    if (resume) {
+      addHeader("Range", "bytes=" + checkpoint.getOffset() + "-");
+      addHeader("If-Range", checkpoint.getValidator());
+    }
+
+    RandomAccessFile raf = null;
+    long position = 0;
     try {
       InputStream is = getInputStream();
       if (is == null) {
+        if (resume && responseCode == 416) {
+          // the part file does not match the resource (anymore) - start from scratch
+          checkpoint.discard();
+          removeHeader("Range");
+          removeHeader("If-Range");
+          return download(file);
+        }
         return false;
       }
-      ReadableByteChannel rbc = Channels.newChannel(is);
-      FileOutputStream fos = new FileOutputStream(file);
-      fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-      fos.close();
+
+      // the server answers with 206 only if the validator still matches (If-Range); otherwise we get the whole content
+      String validator = getValidator();
+      if (responseCode == 206) {
+        // a 206 does not need to repeat the validator, but if it does, it must match
+        boolean validatorMatches = StringUtils.isBlank(validator) || validator.equals(checkpoint.getValidator());
+        if (!resume || !validatorMatches || getContentRangeStart() != checkpoint.getOffset()) {
+          // the partial content does not fit to the part file - start from scratch
+          IOUtils.closeQuietly(is);
+          cleanup();
+          if (!resume) {
+            LOGGER.warn("unexpected partial content for " + getLogUrl());
+            return false;
+          }
+          checkpoint.discard();
+          removeHeader("Range");
+          removeHeader("If-Range");
+          return download(file);
+        }
+        if (StringUtils.isBlank(validator)) {
+          validator = checkpoint.getValidator();
+        }
+        position = checkpoint.getOffset();
+        LOGGER.debug("resuming download of " + getLogUrl() + " at byte " + position);
+      }
+      checkpoint.start(url, validator, position);
+
+      raf = new RandomAccessFile(checkpoint.getPartFile(), "rw");
+      raf.setLength(position);
+      FileChannel channel = raf.getChannel();
+
+      byte[] buffer = new byte[64 * 1024];
+      long lastCheckpoint = position;
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+        while (bb.hasRemaining()) {
+          position += channel.write(bb, position);
+        }
+        if (position - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+          checkpoint.update(position);
+          lastCheckpoint = position;
+        }
+      }
+      IOUtils.closeQuietly(is);
+      raf.close();
+      raf = null;
+
+      checkpoint.complete();
       return true;
     }
     catch (IOException e) {
@@ -464,9 +968,174 @@ public class Url {
         call.cancel();
       }
     }
+    finally {
+      if (raf != null) {
+        // record how far we got
+        IOUtils.closeQuietly(raf);
+        checkpoint.update(position);
+      }
+      if (resume) {
+        removeHeader("Range");
+        removeHeader("If-Range");
+      }
+    }
+    return false;
+  }
+
+  /**
+   * get the validator of the response for resuming downloads (a strong ETag or the Last-Modified date)
+   * 
+   * @return the validator or an empty string
+   */
+  private String getValidator() {
+    String eTag = getHeader("ETag");
+    if (StringUtils.isNotBlank(eTag) && !eTag.startsWith("W/")) {
+      return eTag;
+    }
+    return getHeader("Last-Modified");
+  }
+
+  /**
+   * get the start of the Content-Range of a 206 response (bytes 100-999/1000)
+   * 
+   * @return the start of the range or -1
+   */
+  private long getContentRangeStart() {
+    String contentRange = getHeader("Content-Range");
+    Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange);
+    if (matcher.find()) {
+      return Long.parseLong(matcher.group(1));
+    }
+    return -1;
+  }
+
+  /**
+   * removes the header
+   * 
+   * @param key
+   *          the key
+   */
+  private void removeHeader(String key) {
+    for (int i = headersRequest.size() - 1; i >= 0; i--) {
+      if (key.equals(headersRequest.get(i).first())) {
+        headersRequest.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Download an Url to a file using several connections in parallel (synchron). The server is probed with a HEAD request; if it supports byte ranges
+   * (Accept-Ranges) and tells us the Content-Length, the file is preallocated and the segments are downloaded concurrently. Otherwise (or if the file
+   * is too small to be split) the file is downloaded via a single stream
+   * 
+   * @param file
+   *          the file to download to
+   * @param segments
+   *          the maximum amount of parallel segments
+   * @return successful or not
+   */
+  public boolean download(File file, int segments) {
+    if (segments <= 1 || url.startsWith("file:")) {
+      return download(file);
+    }
+
+    // an interrupted download is resumed via a single stream rather than starting over
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, url);
+    if (checkpoint.canResume()) {
+      return download(file);
+    }
+
+    long contentLength;
+    try {
+      probe();
+      if (!SegmentedDownload.supportsRanges(responseCode, headersResponse)) {
+        LOGGER.debug("server does not support ranges - downloading via a single stream: " + getLogUrl());
+        return download(file);
+      }
+      contentLength = SegmentedDownload.parseContentLength(headersResponse);
+      responseContentLength = contentLength;
+    }
+    catch (InterruptedIOException e) {
+      return false;
+    }
+    catch (IOException e) {
+      LOGGER.debug("could not probe " + getLogUrl() + " - downloading via a single stream: " + e.getMessage());
+      return download(file);
+    }
+
+    // do not create too small segments
+    int segmentCount = (int) Math.max(1, Math.min(segments, contentLength / MIN_SEGMENT_SIZE));
+    if (segmentCount <= 1) {
+      return download(file);
+    }
+
+    // download into a fresh part file (a leftover one cannot be resumed) and move it to the target afterwards
+    checkpoint.discard();
+
+    try {
+      LOGGER.debug("downloading " + getLogUrl() + " in " + segmentCount + " segments");
+      downloadSegments(checkpoint.getPartFile(), contentLength, segmentCount, getValidator());
+      checkpoint.complete();
+      return true;
+    }
+    catch (SegmentedDownload.RangeNotSupportedException e) {
+      LOGGER.debug(e.getMessage() + " - downloading via a single stream: " + getLogUrl());
+      return download(file);
+    }
+    catch (IOException e) {
+      LOGGER.error("Error downloading " + this.url + " ; " + e.getMessage());
+    }
+    catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
     return false;
   }
 
+  /**
+   * probe the server with a HEAD request for a segmented download; takes over the status code and the headers of the response
+   *
+   * @throws IOException
+   *           the server could not be reached
+   */
+  void probe() throws IOException {
+    request = buildProbeRequest();
+    call = getClient().newCall(request);
+    response = call.execute();
+    headersResponse = response.headers();
+    responseCode = response.code();
+    responseMessage = response.message();
+    response.close();
+  }
+
+  /**
+   * build the HEAD request for the probe. The content must not be compressed: the Content-Length has to be the one the byte ranges refer to
+   *
+   * @return the request
+   */
+  Request buildProbeRequest() {
+    return buildRequest(true).newBuilder().header("Accept-Encoding", "identity").build();
+  }
+
+  /**
+   * download the segments into the given part file
+   *
+   * @param partFile
+   *          the part file
+   * @param contentLength
+   *          the length of the content
+   * @param segmentCount
+   *          the amount of segments
+   * @param validator
+   *          the validator of the probe for If-Range (or an empty string)
+   * @throws IOException
+   *           any error while downloading (RangeNotSupportedException if the segments cannot be used)
+   * @throws InterruptedException
+   *           the download has been interrupted
+   */
+  void downloadSegments(File partFile, long contentLength, int segmentCount, String validator) throws IOException, InterruptedException {
+    new SegmentedDownload(getClient(), buildRequest(false), contentLength, segmentCount, validator).download(partFile);
+  }
+
   /**
    * Download an Url to a file via NIO FileChannel (synchron)
    * 
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+/**
+ * The interface CacheLoader is used by the LoadingCacheMap to load the value of a key which is not cached (or needs to be refreshed)
+ *
+ * @param <K>
+ *          the key
+ * @param <T>
+ *          the value
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface CacheLoader<K, T> {
+  /**
+   * load the value for the given key
+   *
+   * @param key
+   *          the key
+   * @return the value or null if there is no value for this key (null values are not cached)
+   * @throws Exception
+   *           any exception while loading
+   */
+  T load(K key) throws Exception;
+}
@@ -15,15 +15,27 @@
  */
 package org.tinymediamanager.scraper.util;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * The class CacheMap is used to cache certain key/value pairs.
+ * The class CacheMap is used to cache certain key/value pairs. The entries are held in a concurrent map, so reads are lock free and a cleanup does
+ * not block any reader or writer. The cleanup of all CacheMap instances is done by a single shared scheduler thread (an instance which is no longer
+ * referenced will be unscheduled automatically).<br>
+ * With the expiration mode TIMER_WHEEL the entries are not swept periodically, but every entry is scheduled in a hierarchical timing wheel at its
+ * expiry and reclaimed in amortized O(1) once per second; accessing an entry does not touch the wheel (the entry is rescheduled lazily when its
+ * original deadline comes up).<br>
+ * Every instance counts hits, misses, loads and removals (by cause) - see getStats(); a RemovalListener can be attached to get notified about
+ * removed entries, and a CacheMap can be registered in the CacheMapRegistry to be listed via JMX.
  * 
  * @param <K>
  *          the key of the map
@@ -31,16 +43,40 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *          the value
  */
 public class CacheMap<K, T> {
-  protected long                timeToLive;
-  protected Map<K, CacheObject> cacheMap;
-  protected ReadWriteLock       readWriteLock = new ReentrantReadWriteLock();
+  private static final ScheduledThreadPoolExecutor CLEANUP_SCHEDULER = createScheduler();
+
+  protected long                                   timeToLive;
+  protected ConcurrentMap<K, CacheObject>          cacheMap;
+  protected final ExpirationMode                   expirationMode;
+  private final TimerWheel<K, CacheObject>         timerWheel;
+  private final TimerWheel.Handler<K, CacheObject> expirationHandler;
+
+  private final AtomicLong                         hits              = new AtomicLong();
+  private final AtomicLong                         misses            = new AtomicLong();
+  private final AtomicLong                         loads             = new AtomicLong();
+  private final AtomicLong                         loadFailures      = new AtomicLong();
+  private final AtomicLong                         loadTime          = new AtomicLong();
+  private final AtomicLongArray                    removals          = new AtomicLongArray(RemovalCause.values().length);
+  private volatile RemovalListener<K, T>           removalListener   = null;
+  volatile String                                  name              = null;
+
+  /**
+   * how are expired entries reclaimed?
+   */
+  public enum ExpirationMode {
+    /** all entries are checked every cleanup interval */
+    SWEEP,
+    /** the entries are scheduled in a timing wheel which is advanced every second (the cleanup interval is not used); used by WeightedCacheMap */
+    TIMER_WHEEL
+  }
 
   /**
    * inner class for managing the cache entries
    */
   protected class CacheObject {
-    public long lastAccessed = System.currentTimeMillis();
-    public T    value;
+    public final long    created      = System.currentTimeMillis();
+    public volatile long lastAccessed = created;
+    public T             value;
 
     protected CacheObject(T value) {
       this.value = value;
@@ -56,28 +92,53 @@ public class CacheMap<K, T> {
    *          cache cleaning interval (in seconds)
    */
   public CacheMap(final long timeToLive, final long cleanupInterval) {
+    this(timeToLive, cleanupInterval, ExpirationMode.SWEEP);
+  }
+
+  /**
+   * Constructs a new CacheMap
+   *
+   * @param timeToLive
+   *          time to live in the map (in seconds)
+   * @param cleanupInterval
+   *          cache cleaning interval (in seconds; 0 for no background sweep - the timer wheel is always advanced every second)
+   * @param expirationMode
+   *          the way expired entries are reclaimed
+   */
+  public CacheMap(final long timeToLive, final long cleanupInterval, ExpirationMode expirationMode) {
     this.timeToLive = timeToLive;
-    this.cacheMap = new HashMap<K, CacheObject>();
+    this.cacheMap = new ConcurrentHashMap<>();
+    this.expirationMode = expirationMode;
 
-    // the thread for cleanup
-    if (timeToLive > 0 && cleanupInterval > 0) {
-      Thread t = new Thread(new Runnable() {
+    if (expirationMode == ExpirationMode.TIMER_WHEEL && timeToLive > 0) {
+      this.timerWheel = new TimerWheel<>(1000, System.currentTimeMillis());
+      this.expirationHandler = new TimerWheel.Handler<K, CacheObject>() {
         @Override
-        public void run() {
-          while (true) {
-            try {
-              Thread.sleep(cleanupInterval * 1000);
-            }
-            catch (InterruptedException ex) {
-              break;
-            }
-            cleanup();
+        public long expired(K key, CacheObject c, long now) {
+          if (cacheMap.get(key) != c) {
+            // already removed or replaced
+            return -1;
+          }
+          long deadline = c.lastAccessed + timeToLive * 1000;
+          if (deadline > now) {
+            // accessed in the meantime
+            return deadline;
           }
+          removeExpired(key, c);
+          return -1;
         }
-      });
+      };
+    }
+    else {
+      this.timerWheel = null;
+      this.expirationHandler = null;
+    }
 
-      t.setDaemon(true);
-      t.start();
+    // schedule the cleanup (the timer wheel must always be advanced - otherwise every put would leave a node in it)
+    if (timeToLive > 0 && (timerWheel != null || cleanupInterval > 0)) {
+      long interval = timerWheel != null ? 1 : cleanupInterval;
+      CleanupTask task = new CleanupTask(this);
+      task.future = CLEANUP_SCHEDULER.scheduleWithFixedDelay(task, interval, interval, TimeUnit.SECONDS);
     }
   }
 
@@ -90,9 +151,12 @@ public class CacheMap<K, T> {
    *          the value of the entry
    */
   public void put(K key, T value) {
-    readWriteLock.writeLock().lock();
-    cacheMap.put(key, new CacheObject(value));
-    readWriteLock.writeLock().unlock();
+    CacheObject c = new CacheObject(value);
+    CacheObject old = cacheMap.put(key, c);
+    if (old != null) {
+      notifyRemoval(key, old, RemovalCause.REPLACED);
+    }
+    scheduleExpiration(key, c);
   }
 
   /**
@@ -103,19 +167,29 @@ public class CacheMap<K, T> {
    * @return the entry (if found) or null
    */
   public T get(K key) {
-    readWriteLock.readLock().lock();
     CacheObject c = cacheMap.get(key);
-    readWriteLock.readLock().unlock();
-
     if (c == null) {
+      misses.incrementAndGet();
       return null;
     }
-    else {
-      c.lastAccessed = System.currentTimeMillis();
-      return c.value;
+
+    long now = System.currentTimeMillis();
+    if (timerWheel != null && now > timeToLive * 1000 + c.lastAccessed) {
+      // expired, but the wheel did not reach it yet
+      removeExpired(key, c);
+      misses.incrementAndGet();
+      return null;
     }
+    c.lastAccessed = now;
+    hits.incrementAndGet();
+    return c.value;
   }
 
+  /**
+   * get the keys of all entries. The set is a (weakly consistent) view of the map - it is safe to iterate over it while the map is being modified
+   *
+   * @return the keys
+   */
   public Set<K> keySet() {
     return cacheMap.keySet();
   }
@@ -127,9 +201,10 @@ public class CacheMap<K, T> {
    *          the key of the entry
    */
   public void remove(K key) {
-    readWriteLock.writeLock().lock();
-    cacheMap.remove(key);
-    readWriteLock.writeLock().unlock();
+    CacheObject c = cacheMap.remove(key);
+    if (c != null) {
+      notifyRemoval(key, c, RemovalCause.EXPLICIT);
+    }
   }
 
   /**
@@ -138,10 +213,7 @@ public class CacheMap<K, T> {
    * @return the actual size of the map
    */
   public int size() {
-    readWriteLock.readLock().lock();
-    int size = cacheMap.size();
-    readWriteLock.readLock().unlock();
-    return size;
+    return cacheMap.size();
   }
 
   /**
@@ -159,22 +231,177 @@ public class CacheMap<K, T> {
    */
   public void cleanup(boolean force) {
     long now = System.currentTimeMillis();
-    ArrayList<K> deleteKey = new ArrayList<>((cacheMap.size() / 2) + 1);
 
-    readWriteLock.writeLock().lock();
+    if (timerWheel != null && !force) {
+      timerWheel.advance(now, expirationHandler);
+      return;
+    }
+
+    if (timerWheel != null) {
+      // clear the wheel first: an entry put during the sweep must keep its node (stale nodes of swept entries are skipped by the handler)
+      timerWheel.clear();
+    }
+
     for (Map.Entry<K, CacheObject> entry : cacheMap.entrySet()) {
-      K key = entry.getKey();
       CacheObject c = entry.getValue();
+      if (force || (now > (timeToLive * 1000 + c.lastAccessed))) {
+        // only remove this very entry (it may have been replaced in the meantime)
+        if (cacheMap.remove(entry.getKey(), c)) {
+          notifyRemoval(entry.getKey(), c, force ? RemovalCause.EXPLICIT : RemovalCause.EXPIRED);
+        }
+      }
+    }
+  }
+
+  /**
+   * set the listener which gets notified about every removed entry
+   *
+   * @param removalListener
+   *          the listener (or null)
+   */
+  public void setRemovalListener(RemovalListener<K, T> removalListener) {
+    this.removalListener = removalListener;
+  }
+
+  /**
+   * get a snapshot of the statistics of this cache
+   *
+   * @return the statistics
+   */
+  public CacheStats getStats() {
+    return new CacheStats(name, size(), getEstimatedWeight(), hits.get(), misses.get(), loads.get(), loadFailures.get(),
+        TimeUnit.NANOSECONDS.toMillis(loadTime.get()), removals.get(RemovalCause.EXPLICIT.ordinal()), removals.get(RemovalCause.REPLACED.ordinal()),
+        removals.get(RemovalCause.EXPIRED.ordinal()), removals.get(RemovalCause.SIZE.ordinal()),
+        removals.get(RemovalCause.REJECTED.ordinal()));
+  }
+
+  /**
+   * schedule the given (new) entry in the timer wheel (if the expiration mode is TIMER_WHEEL)
+   *
+   * @param key
+   *          the key of the entry
+   * @param c
+   *          the entry
+   */
+  protected void scheduleExpiration(K key, CacheObject c) {
+    if (timerWheel != null) {
+      timerWheel.schedule(key, c, c.lastAccessed + timeToLive * 1000);
+    }
+  }
+
+  /**
+   * remove the given entry because its time to live has been exceeded (only if it has not been removed or replaced in the meantime)
+   *
+   * @param key
+   *          the key of the entry
+   * @param c
+   *          the expired entry
+   */
+  protected void removeExpired(K key, CacheObject c) {
+    if (cacheMap.remove(key, c)) {
+      notifyRemoval(key, c, RemovalCause.EXPIRED);
+    }
+  }
 
-      if (c != null && ((now > (timeToLive * 1000 + c.lastAccessed)) || force)) {
-        deleteKey.add(key);
+  /**
+   * the estimated weight of all entries (the amount of entries if there is no weigher)
+   *
+   * @return the estimated weight
+   */
+  protected long getEstimatedWeight() {
+    return size();
+  }
+
+  protected void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  protected void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  /**
+   * record a load of a CacheLoader
+   *
+   * @param nanos
+   *          the time the load took (in ns)
+   * @param success
+   *          true if the load was successful
+   */
+  protected void recordLoad(long nanos, boolean success) {
+    loadTime.addAndGet(nanos);
+    if (success) {
+      loads.incrementAndGet();
+    }
+    else {
+      loadFailures.incrementAndGet();
+    }
+  }
+
+  /**
+   * count the removal and notify the removal listener
+   *
+   * @param key
+   *          the key of the removed entry
+   * @param c
+   *          the removed entry
+   * @param cause
+   *          the cause of the removal
+   */
+  protected void notifyRemoval(K key, CacheObject c, RemovalCause cause) {
+    removals.incrementAndGet(cause.ordinal());
+    RemovalListener<K, T> listener = removalListener;
+    if (listener != null) {
+      try {
+        listener.onRemoval(key, c.value, cause);
+      }
+      catch (Exception ignored) {
+        // a broken listener must not break the cache
+      }
+    }
+  }
+
+  private static ScheduledThreadPoolExecutor createScheduler() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "cachemap-cleanup");
+        t.setDaemon(true);
+        return t;
       }
+    });
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  /**
+   * the periodic cleanup of a CacheMap; holds the map weakly and unschedules itself if the map has been garbage collected
+   */
+  private static class CleanupTask implements Runnable {
+    private final WeakReference<CacheMap<?, ?>> reference;
+    private volatile ScheduledFuture<?>         future;
+
+    CleanupTask(CacheMap<?, ?> cacheMap) {
+      this.reference = new WeakReference<CacheMap<?, ?>>(cacheMap);
     }
 
-    for (K key : deleteKey) {
-      cacheMap.remove(key);
-      Thread.yield();
+    @Override
+    public void run() {
+      CacheMap<?, ?> cacheMap = reference.get();
+      if (cacheMap == null) {
+        ScheduledFuture<?> f = future;
+        if (f != null) {
+          f.cancel(false);
+        }
+        return;
+      }
+
+      try {
+        cacheMap.cleanup();
+      }
+      catch (Exception ignored) {
+        // do not kill the periodic task
+      }
     }
-    readWriteLock.writeLock().unlock();
   }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class CacheMapRegistry holds all named caches of the process, so they can be listed and sampled (also via JMX). The caches are only weakly
+ * referenced - a cache which is not used any more just vanishes from the registry.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class CacheMapRegistry implements CacheMapRegistryMXBean {
+  public static final String                                                OBJECT_NAME = "org.tinymediamanager.scraper.util:type=CacheMapRegistry";
+
+  private static final Logger                                               LOGGER      = LoggerFactory.getLogger(CacheMapRegistry.class);
+  private static final CacheMapRegistry                                     INSTANCE    = new CacheMapRegistry();
+  private static final ConcurrentMap<String, WeakReference<CacheMap<?, ?>>> CACHES      = new ConcurrentHashMap<>();
+
+  private CacheMapRegistry() {
+  }
+
+  /**
+   * get the instance of the registry
+   *
+   * @return the instance
+   */
+  public static CacheMapRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * register the MXBean at the platform MBean server (if not already done)
+   */
+  public static synchronized void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    }
+    catch (Exception e) {
+      LOGGER.debug("could not register the cache registry MXBean: " + e.getMessage());
+    }
+  }
+
+  /**
+   * register the cache with the given name (an already registered cache with the same name will be replaced)
+   *
+   * @param name
+   *          the name of the cache
+   * @param cache
+   *          the cache
+   */
+  public static void register(String name, CacheMap<?, ?> cache) {
+    if (StringUtils.isBlank(name) || cache == null) {
+      return;
+    }
+    cache.name = name;
+    CACHES.put(name, new WeakReference<CacheMap<?, ?>>(cache));
+    registerMBean();
+  }
+
+  /**
+   * remove the cache with the given name from the registry
+   *
+   * @param name
+   *          the name of the cache
+   */
+  public static void unregister(String name) {
+    if (name != null) {
+      CACHES.remove(name);
+    }
+  }
+
+  /**
+   * get the names of all registered caches
+   *
+   * @return the names (sorted)
+   */
+  public static List<String> getNames() {
+    List<String> names = new ArrayList<>();
+    for (String name : new ConcurrentSkipListSet<>(CACHES.keySet())) {
+      if (getCache(name) != null) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * get the statistics of the cache with the given name
+   *
+   * @param name
+   *          the name of the cache
+   * @return the statistics or null if there is no such cache
+   */
+  public static CacheStats getStats(String name) {
+    CacheMap<?, ?> cache = getCache(name);
+    return cache == null ? null : cache.getStats();
+  }
+
+  /**
+   * get the statistics of all registered caches
+   *
+   * @return the statistics of all caches (sorted by name)
+   */
+  public static List<CacheStats> getAllStats() {
+    List<CacheStats> stats = new ArrayList<>();
+    for (String name : getNames()) {
+      CacheStats cacheStats = getStats(name);
+      if (cacheStats != null) {
+        stats.add(cacheStats);
+      }
+    }
+    return stats;
+  }
+
+  private static CacheMap<?, ?> getCache(String name) {
+    WeakReference<CacheMap<?, ?>> ref = CACHES.get(name);
+    if (ref == null) {
+      return null;
+    }
+    CacheMap<?, ?> cache = ref.get();
+    if (cache == null) {
+      // the cache has been garbage collected
+      CACHES.remove(name, ref);
+    }
+    return cache;
+  }
+
+  @Override
+  public String[] getCacheNames() {
+    List<String> names = getNames();
+    return names.toArray(new String[names.size()]);
+  }
+
+  @Override
+  public CacheStats[] getCacheStats() {
+    List<CacheStats> stats = getAllStats();
+    return stats.toArray(new CacheStats[stats.size()]);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+/**
+ * The interface CacheMapRegistryMXBean exposes the statistics of all registered caches via JMX
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface CacheMapRegistryMXBean {
+  /**
+   * the names of all registered caches
+   */
+  String[] getCacheNames();
+
+  /**
+   * get the statistics of all registered caches
+   *
+   * @return the statistics of all caches (sorted by name)
+   */
+  CacheStats[] getCacheStats();
+}
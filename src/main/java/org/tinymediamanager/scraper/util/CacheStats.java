@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The class CacheStats is an immutable snapshot of the statistics of a CacheMap
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class CacheStats {
+  private final String name;
+  private final int    size;
+  private final long   weight;
+  private final long   hitCount;
+  private final long   missCount;
+  private final long   loadCount;
+  private final long   loadFailureCount;
+  private final long   totalLoadTime;
+  private final long   explicitRemovalCount;
+  private final long   replacedCount;
+  private final long   expiredCount;
+  private final long   sizeEvictionCount;
+  private final long   rejectedCount;
+
+  @ConstructorProperties({ "name", "size", "weight", "hitCount", "missCount", "loadCount", "loadFailureCount", "totalLoadTime", "explicitRemovalCount",
+      "replacedCount", "expiredCount", "sizeEvictionCount", "rejectedCount" })
+  public CacheStats(String name, int size, long weight, long hitCount, long missCount, long loadCount, long loadFailureCount, long totalLoadTime,
+      long explicitRemovalCount, long replacedCount, long expiredCount, long sizeEvictionCount,
+      long rejectedCount) {
+    this.name = name;
+    this.size = size;
+    this.weight = weight;
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.loadCount = loadCount;
+    this.loadFailureCount = loadFailureCount;
+    this.totalLoadTime = totalLoadTime;
+    this.explicitRemovalCount = explicitRemovalCount;
+    this.replacedCount = replacedCount;
+    this.expiredCount = expiredCount;
+    this.sizeEvictionCount = sizeEvictionCount;
+    this.rejectedCount = rejectedCount;
+  }
+
+  /** the name of the cache (if registered) */
+  public String getName() {
+    return name;
+  }
+
+  /** the amount of entries */
+  public int getSize() {
+    return size;
+  }
+
+  /** the estimated weight of all entries (the size for caches without weigher) */
+  public long getWeight() {
+    return weight;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /** the ratio of hits to all requests (0 - 1) */
+  public double getHitRatio() {
+    long requests = hitCount + missCount;
+    return requests == 0 ? 0 : (double) hitCount / requests;
+  }
+
+  /** the amount of values loaded by a CacheLoader (including refreshes) */
+  public long getLoadCount() {
+    return loadCount;
+  }
+
+  public long getLoadFailureCount() {
+    return loadFailureCount;
+  }
+
+  /** the total time spent loading values (in ms) */
+  public long getTotalLoadTime() {
+    return totalLoadTime;
+  }
+
+  /** the average time to load a value (in ms) */
+  public double getAverageLoadTime() {
+    return loadCount == 0 ? 0 : (double) totalLoadTime / loadCount;
+  }
+
+  public long getExplicitRemovalCount() {
+    return explicitRemovalCount;
+  }
+
+  public long getReplacedCount() {
+    return replacedCount;
+  }
+
+  public long getExpiredCount() {
+    return expiredCount;
+  }
+
+  public long getSizeEvictionCount() {
+    return sizeEvictionCount;
+  }
+
+  /** the amount of entries which have not been admitted to the cache at all */
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  @Override
+  public String toString() {
+    return (name != null ? name + ": " : "") + "size=" + size + " weight=" + weight + " hits=" + hitCount + " misses=" + missCount + " loads="
+        + loadCount + " expired=" + expiredCount + " evicted=" + sizeEvictionCount
+        + " rejected=" + rejectedCount;
+  }
+}
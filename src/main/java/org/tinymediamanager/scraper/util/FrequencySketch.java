@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.util.Arrays;
+
+/**
+ * The class FrequencySketch is a count-min sketch with 4 rows of 4-bit counters to estimate the access frequency of keys in a cache (the heart of
+ * the TinyLFU admission policy). To keep the estimations fresh, all counters are halved after a sample period of 10 * width increments.<br>
+ * This class is not thread-safe; the caller has to synchronize the access.
+ *
+ * @param <K>
+ *          the type of the keys
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class FrequencySketch<K> {
+  private static final int   DEPTH      = 4;
+  private static final int   MAX_COUNT  = 15;
+  private static final int[] SEEDS      = { 0x97cb3127, 0xbd6e5e15, 0x6bd4c3f1, 0xe2b3d3a7 };
+
+  private final byte[][]     table;
+  private final int          mask;
+  private final int          sampleSize;
+  private int                additions  = 0;
+
+  /**
+   * create a new sketch for the expected amount of entries
+   *
+   * @param expectedEntries
+   *          the expected amount of (distinct) entries in the cache
+   */
+  public FrequencySketch(int expectedEntries) {
+    int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1)) << 1;
+    this.table = new byte[DEPTH][width];
+    this.mask = width - 1;
+    this.sampleSize = 10 * width;
+  }
+
+  /**
+   * record an access of the given key
+   *
+   * @param key
+   *          the key
+   */
+  public void increment(K key) {
+    int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      if (table[i][index] < MAX_COUNT) {
+        table[i][index]++;
+        added = true;
+      }
+    }
+
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * estimate the access frequency of the given key
+   *
+   * @param key
+   *          the key
+   * @return the estimated frequency (0..15)
+   */
+  public int frequency(K key) {
+    int hash = spread(key.hashCode());
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+    }
+    return frequency;
+  }
+
+  /**
+   * clear all counters
+   */
+  public void clear() {
+    for (byte[] row : table) {
+      Arrays.fill(row, (byte) 0);
+    }
+    additions = 0;
+  }
+
+  /**
+   * age all counters by halving them
+   */
+  private void reset() {
+    for (byte[] row : table) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = (byte) (row[i] >>> 1);
+      }
+    }
+    additions = additions >>> 1;
+  }
+
+  private int indexOf(int hash, int row) {
+    int h = hash * SEEDS[row];
+    h ^= h >>> 16;
+    return h & mask;
+  }
+
+  private static int spread(int h) {
+    h ^= h >>> 17;
+    h *= 0xed5ad4bb;
+    h ^= h >>> 11;
+    h *= 0xac4c1b51;
+    h ^= h >>> 15;
+    return h;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class LoadingCacheMap is a CacheMap which loads missing values via a CacheLoader. A loaded value is valid for the time to live (counted from
+ * the load); once it passes the refresh fraction of its time to live, an access triggers an asynchronous reload and the old value is served until
+ * the reload has finished - so a hot entry never causes a synchronous miss. Concurrent loads of the same key are merged into a single call of the
+ * loader. Entries which are not accessed at all expire just like in the CacheMap.
+ *
+ * @param <K>
+ *          the key of the map
+ * @param <T>
+ *          the value
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class LoadingCacheMap<K, T> extends CacheMap<K, T> {
+  private static final Logger                   LOGGER                   = LoggerFactory.getLogger(LoadingCacheMap.class);
+
+  /** the default fraction of the time to live after which an entry is refreshed */
+  public static final double                    DEFAULT_REFRESH_FRACTION = 0.8;
+
+  private static final ThreadPoolExecutor       REFRESH_EXECUTOR         = createExecutor();
+
+  private final CacheLoader<K, T>               loader;
+  private final ConcurrentMap<K, FutureTask<T>> loading                  = new ConcurrentHashMap<>();
+  private volatile double                       refreshFraction          = DEFAULT_REFRESH_FRACTION;
+
+  /**
+   * Constructs a new LoadingCacheMap
+   *
+   * @param timeToLive
+   *          time to live of a loaded value (in seconds)
+   * @param cleanupInterval
+   *          cache cleaning interval (in seconds)
+   * @param loader
+   *          the loader for missing values
+   */
+  public LoadingCacheMap(long timeToLive, long cleanupInterval, CacheLoader<K, T> loader) {
+    this(timeToLive, cleanupInterval, ExpirationMode.SWEEP, loader);
+  }
+
+  /**
+   * Constructs a new LoadingCacheMap
+   *
+   * @param timeToLive
+   *          time to live of a loaded value (in seconds)
+   * @param cleanupInterval
+   *          cache cleaning interval (in seconds)
+   * @param expirationMode
+   *          the way expired entries are reclaimed
+   * @param loader
+   *          the loader for missing values
+   */
+  public LoadingCacheMap(long timeToLive, long cleanupInterval, ExpirationMode expirationMode, CacheLoader<K, T> loader) {
+    super(timeToLive, cleanupInterval, expirationMode);
+    this.loader = loader;
+  }
+
+  /**
+   * set the fraction of the time to live after which an accessed entry is reloaded in the background
+   *
+   * @param refreshFraction
+   *          the fraction (0 - 1; 1 disables the refresh ahead)
+   */
+  public void setRefreshFraction(double refreshFraction) {
+    this.refreshFraction = Math.max(0, Math.min(1, refreshFraction));
+  }
+
+  /**
+   * Get the value for the given key; missing or expired values are loaded (the calling thread waits for the load), values which are due for a refresh
+   * are served while they are reloaded in the background
+   *
+   * @param key
+   *          the key of the entry to get
+   * @return the value or null if the loader did not provide any value
+   */
+  @Override
+  public T get(K key) {
+    CacheObject c = cacheMap.get(key);
+    long now = System.currentTimeMillis();
+
+    if (c != null && timeToLive > 0) {
+      long age = now - c.created;
+      if (age < timeToLive * 1000) {
+        if (refreshFraction < 1 && age >= timeToLive * 1000 * refreshFraction) {
+          refresh(key);
+        }
+        c.lastAccessed = now;
+        recordHit();
+        return c.value;
+      }
+    }
+    else if (c != null) {
+      c.lastAccessed = now;
+      recordHit();
+      return c.value;
+    }
+
+    recordMiss();
+    return load(key);
+  }
+
+  /**
+   * Get the value for the given key if it is cached (without loading it)
+   *
+   * @param key
+   *          the key of the entry to get
+   * @return the cached value or null
+   */
+  public T getIfPresent(K key) {
+    return super.get(key);
+  }
+
+  /**
+   * reload the value for the given key in the background (the old value is served until the reload has finished)
+   *
+   * @param key
+   *          the key
+   */
+  public void refresh(final K key) {
+    final FutureTask<T> task = newLoadTask(key);
+    if (loading.putIfAbsent(key, task) != null) {
+      // already loading
+      return;
+    }
+
+    try {
+      REFRESH_EXECUTOR.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+            task.get();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          catch (ExecutionException e) {
+            LOGGER.debug("could not refresh " + key + " - keeping the old value: " + e.getCause());
+          }
+          finally {
+            loading.remove(key, task);
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      loading.remove(key, task);
+    }
+  }
+
+  /**
+   * load the value for the given key on the calling thread (or wait for an already running load of this key)
+   */
+  private T load(K key) {
+    FutureTask<T> task = newLoadTask(key);
+    FutureTask<T> existing = loading.putIfAbsent(key, task);
+    if (existing != null) {
+      // a refresh which is still queued is run right here (a task which has already been started is not run twice)
+      task = existing;
+      task.run();
+    }
+    else {
+      try {
+        // another load may have finished between the lookup and now
+        CacheObject c = cacheMap.get(key);
+        if (c != null && (timeToLive <= 0 || System.currentTimeMillis() - c.created < timeToLive * 1000)) {
+          return c.value;
+        }
+        task.run();
+      }
+      finally {
+        loading.remove(key, task);
+      }
+    }
+
+    try {
+      return task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException e) {
+      LOGGER.warn("could not load " + key + ": " + e.getCause());
+      return null;
+    }
+  }
+
+  private FutureTask<T> newLoadTask(final K key) {
+    return new FutureTask<>(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        long start = System.nanoTime();
+        T value;
+        try {
+          value = loader.load(key);
+          recordLoad(System.nanoTime() - start, true);
+        }
+        catch (Exception e) {
+          recordLoad(System.nanoTime() - start, false);
+          throw e;
+        }
+        if (value != null) {
+          put(key, value);
+        }
+        return value;
+      }
+    });
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(1000), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "cachemap-refresh");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
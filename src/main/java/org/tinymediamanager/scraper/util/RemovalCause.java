@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+/**
+ * The enum RemovalCause describes why an entry has been removed from a CacheMap
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public enum RemovalCause {
+  /** removed via remove() or a forced cleanup */
+  EXPLICIT,
+  /** replaced by a put() of the same key */
+  REPLACED,
+  /** the time to live has been exceeded */
+  EXPIRED,
+  /** evicted to make room for other entries */
+  SIZE,
+  /** not admitted to a size bounded cache at all (too big or accessed less frequently than the entries it would have evicted) */
+  REJECTED
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+/**
+ * The interface RemovalListener gets notified when an entry has been removed from a CacheMap. The listener is called synchronously on the thread
+ * which removed the entry (possibly while holding a lock of the map), so it must be fast and must not access the map
+ *
+ * @param <K>
+ *          the key
+ * @param <T>
+ *          the value
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface RemovalListener<K, T> {
+  /**
+   * an entry has been removed
+   *
+   * @param key
+   *          the key of the entry
+   * @param value
+   *          the value of the entry
+   * @param cause
+   *          the reason of the removal
+   */
+  void onRemoval(K key, T value, RemovalCause cause);
+}
@@ -0,0 +1,820 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class SegmentStore is a persistent key/value store for byte arrays. The values are appended to a segment file which is memory mapped for
+ * reading; the position of every value is recorded in a compact index log (key, offset, length, expiry) which is replayed on startup. Every entry has
+ * its own time to live, the size of all live values is limited by a size budget (entries which expire first are dropped first) and the space of
+ * removed/overwritten values is reclaimed by a background compaction which rewrites the live entries into a new segment generation.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class SegmentStore {
+  private static final Logger                   LOGGER               = LoggerFactory.getLogger(SegmentStore.class);
+
+  /** the maximum size budget (the segment is mapped into a single buffer) */
+  public static final long                      MAXIMUM_SIZE         = 512 * 1024 * 1024;
+
+  private static final int                      MAGIC                = 0x746d6d53;   // tmmS
+  private static final int                      VERSION              = 1;
+  private static final byte                     OP_PUT               = 1;
+  private static final byte                     OP_REMOVE            = 2;
+  private static final long                     REMAP_THRESHOLD      = 8 * 1024 * 1024;
+  private static final long                     MIN_COMPACTION_WASTE = 1024 * 1024;
+  private static final long                     MAINTENANCE_INTERVAL = 60;
+  // the index records keys with DataOutput.writeUTF
+  private static final int                      MAX_KEY_LENGTH       = 65535;
+
+  private static final ScheduledExecutorService MAINTENANCE          = createMaintenanceExecutor();
+
+  private final File                            directory;
+  private final ReadWriteLock                   lock                 = new ReentrantReadWriteLock();
+  private final Map<String, Entry>              index                = new HashMap<>();
+  private final AtomicBoolean                   compactionScheduled  = new AtomicBoolean(false);
+  // only one new generation may be written at a time
+  private final Object                          generationLock       = new Object();
+
+  private long                                  maxBytes;
+  private int                                   generation           = 0;
+  private RandomAccessFile                      dataFile;
+  private FileChannel                           dataChannel;
+  private DataOutputStream                      indexOut;
+  private MappedByteBuffer                      mapped;
+  private long                                  liveBytes            = 0;
+  private long                                  deadBytes            = 0;
+  private ScheduledFuture<?>                    maintenance;
+
+  /**
+   * an entry of the index
+   */
+  private static class Entry {
+    final long offset;
+    final int  length;
+    final long expiresAt;
+
+    Entry(long offset, int length, long expiresAt) {
+      this.offset = offset;
+      this.length = length;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAt > 0 && now > expiresAt;
+    }
+  }
+
+  /**
+   * open (or create) the store in the given directory
+   *
+   * @param directory
+   *          the directory for the segment and index files
+   * @param maxBytes
+   *          the size budget for all values (in bytes)
+   * @throws IOException
+   *           the store could not be opened
+   */
+  public SegmentStore(File directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = Math.min(maxBytes, MAXIMUM_SIZE);
+    open();
+
+    maintenance = MAINTENANCE.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        maintain();
+      }
+    }, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.SECONDS);
+  }
+
+  /**
+   * store the value
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value
+   * @param timeToLive
+   *          the time to live (in ms; <= 0 for no expiry)
+   */
+  public void put(String key, byte[] value, long timeToLive) {
+    if (value.length > maxBytes) {
+      return;
+    }
+    if (!isValidKey(key)) {
+      LOGGER.debug("key too long for segment store " + directory);
+      return;
+    }
+
+    lock.writeLock().lock();
+    boolean appended = false;
+    try {
+      if (dataChannel == null) {
+        return;
+      }
+
+      long offset = dataChannel.size();
+      ByteBuffer buffer = ByteBuffer.wrap(value);
+      appended = true;
+      while (buffer.hasRemaining()) {
+        dataChannel.write(buffer, offset + buffer.position());
+      }
+
+      long expiresAt = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0;
+      writeIndexRecord(indexOut, OP_PUT, key, offset, value.length, expiresAt);
+      appended = false;
+      addEntry(key, new Entry(offset, value.length, expiresAt));
+
+      if (liveBytes > maxBytes) {
+        evict();
+      }
+      if (dataChannel.size() - (mapped == null ? 0 : mapped.capacity()) > REMAP_THRESHOLD) {
+        remap();
+      }
+    }
+    catch (IOException e) {
+      if (appended) {
+        // the (maybe partially) written value is not referenced by the index
+        deadBytes += value.length;
+      }
+      LOGGER.warn("could not write to segment store " + directory + ": " + e.getMessage());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+
+    if (needsCompaction()) {
+      scheduleCompaction();
+    }
+  }
+
+  /**
+   * get the value for the given key
+   *
+   * @param key
+   *          the key
+   * @return the value or null if there is no (alive) value for the key
+   */
+  public byte[] get(String key) {
+    lock.readLock().lock();
+    try {
+      Entry entry = index.get(key);
+      if (entry == null || entry.isExpired(System.currentTimeMillis()) || dataChannel == null) {
+        return null;
+      }
+      return read(entry);
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not read from segment store " + directory + ": " + e.getMessage());
+      return null;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * is there an (alive) value for the given key?
+   *
+   * @param key
+   *          the key
+   * @return true/false
+   */
+  public boolean contains(String key) {
+    lock.readLock().lock();
+    try {
+      Entry entry = index.get(key);
+      return entry != null && !entry.isExpired(System.currentTimeMillis());
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * remove the value for the given key
+   *
+   * @param key
+   *          the key
+   */
+  public void remove(String key) {
+    lock.writeLock().lock();
+    try {
+      if (index.containsKey(key) && dataChannel != null) {
+        writeIndexRecord(indexOut, OP_REMOVE, key, 0, 0, 0);
+        removeEntry(key);
+      }
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not write to segment store " + directory + ": " + e.getMessage());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * remove all values
+   */
+  public void clear() {
+    synchronized (generationLock) {
+      lock.writeLock().lock();
+      try {
+        if (dataChannel == null) {
+          return;
+        }
+        RandomAccessFile newFile = createGeneration(generation + 1);
+        switchGeneration(newFile, new HashMap<String, Entry>());
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not clear segment store " + directory + ": " + e.getMessage());
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * get the amount of entries in this store (including expired, but not yet removed entries)
+   *
+   * @return the amount of entries
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * get the size of all live values
+   *
+   * @return the size in bytes
+   */
+  public long getLiveBytes() {
+    lock.readLock().lock();
+    try {
+      return liveBytes;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * get the size of all removed/overwritten values which have not been reclaimed by a compaction yet
+   *
+   * @return the size in bytes
+   */
+  public long getDeadBytes() {
+    lock.readLock().lock();
+    try {
+      return deadBytes;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * set a new size budget
+   *
+   * @param maxBytes
+   *          the size budget in bytes
+   */
+  public void setMaxBytes(long maxBytes) {
+    lock.writeLock().lock();
+    try {
+      this.maxBytes = Math.min(maxBytes, MAXIMUM_SIZE);
+      if (liveBytes > this.maxBytes) {
+        evict();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not write to segment store " + directory + ": " + e.getMessage());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * rewrite all live entries into a new segment generation and drop the old one. The segment is only appended to, so the entries are copied
+   * without holding a lock; only the entries written in the meantime are copied while switching to the new generation
+   */
+  public void compact() {
+    synchronized (generationLock) {
+      long start = System.currentTimeMillis();
+      Map<String, Entry> live = new HashMap<>();
+      MappedByteBuffer source;
+      FileChannel sourceChannel;
+      int newGeneration;
+      long before;
+
+      lock.readLock().lock();
+      try {
+        if (dataChannel == null) {
+          return;
+        }
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+          if (!entry.getValue().isExpired(start)) {
+            live.put(entry.getKey(), entry.getValue());
+          }
+        }
+        source = mapped;
+        sourceChannel = dataChannel;
+        newGeneration = generation + 1;
+        before = dataChannel.size();
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not compact segment store " + directory + ": " + e.getMessage());
+        return;
+      }
+      finally {
+        lock.readLock().unlock();
+      }
+
+      RandomAccessFile newFile = null;
+      try {
+        newFile = createGeneration(newGeneration);
+        Map<String, Entry> newIndex = new HashMap<>();
+        copyEntries(live, source, sourceChannel, newFile.getChannel(), newIndex);
+
+        lock.writeLock().lock();
+        try {
+          if (dataChannel != sourceChannel) {
+            // closed in the meantime
+            return;
+          }
+
+          // copy the entries which have been written in the meantime and forget the removed ones
+          long now = System.currentTimeMillis();
+          Map<String, Entry> changed = new HashMap<>();
+          for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            if (live.get(entry.getKey()) != entry.getValue() && !entry.getValue().isExpired(now)) {
+              changed.put(entry.getKey(), entry.getValue());
+            }
+          }
+          copyEntries(changed, mapped, dataChannel, newFile.getChannel(), newIndex);
+          newIndex.keySet().retainAll(index.keySet());
+
+          switchGeneration(newFile, newIndex);
+          newFile = null;
+        }
+        finally {
+          lock.writeLock().unlock();
+        }
+
+        LOGGER.debug("compacted segment store " + directory + " from " + before + " to " + getLiveBytes() + " bytes in "
+            + (System.currentTimeMillis() - start) + "ms");
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not compact segment store " + directory + ": " + e.getMessage());
+      }
+      finally {
+        IOUtils.closeQuietly(newFile);
+      }
+    }
+  }
+
+  /**
+   * close the store
+   */
+  public void close() {
+    if (maintenance != null) {
+      maintenance.cancel(false);
+    }
+
+    lock.writeLock().lock();
+    try {
+      closeFiles();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static ScheduledExecutorService createMaintenanceExecutor() {
+    return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "segment-store-maintenance");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  /*
+   * the following methods must be called with the write lock held
+   */
+
+  private void open() throws IOException {
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("could not create " + directory);
+    }
+
+    // find the latest generation - older ones are leftovers of a compaction and can be deleted
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith("segment-") && name.endsWith(".idx")) {
+          try {
+            generation = Math.max(generation, Integer.parseInt(name.substring(8, name.length() - 4)));
+          }
+          catch (NumberFormatException ignored) {
+          }
+        }
+      }
+      deleteStaleGenerations();
+    }
+
+    dataFile = new RandomAccessFile(dataFile(generation), "rw");
+    dataChannel = dataFile.getChannel();
+    if (!replayIndex(indexFile(generation), dataChannel.size())) {
+      // no (valid) index -> the data is worthless
+      dataChannel.truncate(0);
+    }
+
+    // rewrite the index to get rid of removed entries and a possibly truncated tail
+    File newIndex = new File(directory, "segment-" + generation + ".idx.tmp");
+    writeIndex(newIndex);
+    File index = indexFile(generation);
+    if (index.exists() && !index.delete()) {
+      throw new IOException("could not replace " + index);
+    }
+    if (!newIndex.renameTo(index)) {
+      throw new IOException("could not replace " + index);
+    }
+    indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, true)));
+
+    remap();
+  }
+
+  private boolean replayIndex(File file, long dataSize) {
+    if (!file.exists()) {
+      return false;
+    }
+
+    DataInputStream in = null;
+    boolean valid = false;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOGGER.info("unknown segment store format in " + directory + " - starting with an empty store");
+        return false;
+      }
+      valid = true;
+
+      long now = System.currentTimeMillis();
+      while (true) {
+        byte op = in.readByte();
+        String key = in.readUTF();
+        if (op == OP_PUT) {
+          long offset = in.readLong();
+          int length = in.readInt();
+          long expiresAt = in.readLong();
+          Entry entry = new Entry(offset, length, expiresAt);
+          if (offset + length <= dataSize && !entry.isExpired(now)) {
+            addEntry(key, entry);
+          }
+          else {
+            removeEntry(key);
+            deadBytes += length;
+          }
+        }
+        else if (op == OP_REMOVE) {
+          removeEntry(key);
+        }
+        else {
+          // corrupt tail
+          break;
+        }
+      }
+    }
+    catch (EOFException ignored) {
+      // end of the index (maybe a truncated record due to a crash)
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not read index of segment store " + directory + ": " + e.getMessage());
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+    return valid;
+  }
+
+  private void writeIndex(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (Map.Entry<String, Entry> entry : index.entrySet()) {
+        Entry e = entry.getValue();
+        writeIndexRecord(out, OP_PUT, entry.getKey(), e.offset, e.length, e.expiresAt);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private void writeIndexRecord(DataOutputStream out, byte op, String key, long offset, int length, long expiresAt) throws IOException {
+    out.writeByte(op);
+    out.writeUTF(key);
+    if (op == OP_PUT) {
+      out.writeLong(offset);
+      out.writeInt(length);
+      out.writeLong(expiresAt);
+    }
+    out.flush();
+  }
+
+  private RandomAccessFile createGeneration(int newGeneration) throws IOException {
+    RandomAccessFile newFile = new RandomAccessFile(dataFile(newGeneration), "rw");
+    try {
+      newFile.getChannel().truncate(0);
+    }
+    catch (IOException e) {
+      IOUtils.closeQuietly(newFile);
+      throw e;
+    }
+    return newFile;
+  }
+
+  /**
+   * switch to the next generation which contains the entries of the given index
+   */
+  private void switchGeneration(RandomAccessFile newFile, Map<String, Entry> newIndex) throws IOException {
+    FileChannel newChannel = newFile.getChannel();
+    newChannel.force(false);
+
+    closeFiles();
+    index.clear();
+    index.putAll(newIndex);
+    liveBytes = 0;
+    for (Entry entry : index.values()) {
+      liveBytes += entry.length;
+    }
+    deadBytes = newChannel.size() - liveBytes;
+
+    generation++;
+    dataFile = newFile;
+    dataChannel = newChannel;
+    writeIndex(indexFile(generation));
+    indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(generation), true)));
+    remap();
+
+    deleteStaleGenerations();
+  }
+
+  private void remap() throws IOException {
+    long size = dataChannel.size();
+    mapped = size > 0 ? dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+  }
+
+  private byte[] read(Entry entry) throws IOException {
+    return read(entry, mapped, dataChannel);
+  }
+
+  private void addEntry(String key, Entry entry) {
+    removeEntry(key);
+    index.put(key, entry);
+    liveBytes += entry.length;
+  }
+
+  private void removeEntry(String key) {
+    Entry old = index.remove(key);
+    if (old != null) {
+      liveBytes -= old.length;
+      deadBytes += old.length;
+    }
+  }
+
+  /**
+   * drop the entries which expire first until we are below 90% of the size budget
+   */
+  private void evict() throws IOException {
+    List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+      @Override
+      public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+        long e1 = o1.getValue().expiresAt > 0 ? o1.getValue().expiresAt : Long.MAX_VALUE;
+        long e2 = o2.getValue().expiresAt > 0 ? o2.getValue().expiresAt : Long.MAX_VALUE;
+        return e1 < e2 ? -1 : (e1 == e2 ? 0 : 1);
+      }
+    });
+
+    long target = maxBytes / 10 * 9;
+    for (Map.Entry<String, Entry> entry : entries) {
+      if (liveBytes <= target) {
+        break;
+      }
+      writeIndexRecord(indexOut, OP_REMOVE, entry.getKey(), 0, 0, 0);
+      removeEntry(entry.getKey());
+    }
+  }
+
+  private void dropExpired() throws IOException {
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Entry> entry = it.next();
+      if (entry.getValue().isExpired(now)) {
+        writeIndexRecord(indexOut, OP_REMOVE, entry.getKey(), 0, 0, 0);
+        it.remove();
+        liveBytes -= entry.getValue().length;
+        deadBytes += entry.getValue().length;
+      }
+    }
+  }
+
+  private void closeFiles() {
+    IOUtils.closeQuietly(indexOut);
+    IOUtils.closeQuietly(dataChannel);
+    IOUtils.closeQuietly(dataFile);
+    indexOut = null;
+    dataChannel = null;
+    dataFile = null;
+    mapped = null;
+  }
+
+  private void deleteStaleGenerations() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    String current = "segment-" + generation + ".";
+    for (File file : files) {
+      // mapped files of older generations may still be locked (Windows) - they will be deleted on the next start
+      if (file.getName().startsWith("segment-") && !file.getName().startsWith(current) && !file.delete()) {
+        LOGGER.trace("could not delete " + file);
+      }
+    }
+  }
+
+  private File dataFile(int generation) {
+    return new File(directory, "segment-" + generation + ".dat");
+  }
+
+  private File indexFile(int generation) {
+    return new File(directory, "segment-" + generation + ".idx");
+  }
+
+  /*
+   * the following methods only read from the (append only) segment and need no lock
+   */
+
+  private static byte[] read(Entry entry, MappedByteBuffer mapped, FileChannel channel) throws IOException {
+    byte[] bytes = new byte[entry.length];
+    if (mapped != null && entry.offset + entry.length <= mapped.capacity()) {
+      // read from the mapped segment
+      ByteBuffer view = mapped.duplicate();
+      view.position((int) entry.offset);
+      view.get(bytes);
+    }
+    else {
+      // the tail of the segment which has not been mapped yet
+      ByteBuffer view = ByteBuffer.wrap(bytes);
+      while (view.hasRemaining()) {
+        if (channel.read(view, entry.offset + view.position()) < 0) {
+          throw new EOFException();
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * append the given entries to the target segment and record their new position in the given index
+   */
+  private static void copyEntries(Map<String, Entry> entries, MappedByteBuffer mapped, FileChannel channel, FileChannel target,
+      Map<String, Entry> newIndex) throws IOException {
+    long offset = target.size();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      ByteBuffer buffer = ByteBuffer.wrap(read(entry.getValue(), mapped, channel));
+      while (buffer.hasRemaining()) {
+        target.write(buffer, offset + buffer.position());
+      }
+      newIndex.put(entry.getKey(), new Entry(offset, entry.getValue().length, entry.getValue().expiresAt));
+      offset += entry.getValue().length;
+    }
+  }
+
+  /**
+   * can the key be written to the index (DataOutput.writeUTF encodes a char in up to 3 bytes)?
+   */
+  private static boolean isValidKey(String key) {
+    if (key.length() <= MAX_KEY_LENGTH / 3) {
+      return true;
+    }
+    long length = 0;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      length += (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff ? 2 : 3);
+    }
+    return length <= MAX_KEY_LENGTH;
+  }
+
+  /*
+   * background maintenance
+   */
+
+  private boolean needsCompaction() {
+    lock.readLock().lock();
+    try {
+      return deadBytes > MIN_COMPACTION_WASTE && (deadBytes > liveBytes || deadBytes > maxBytes / 2);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void scheduleCompaction() {
+    if (compactionScheduled.compareAndSet(false, true)) {
+      MAINTENANCE.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            compact();
+          }
+          finally {
+            compactionScheduled.set(false);
+          }
+        }
+      });
+    }
+  }
+
+  private void maintain() {
+    lock.writeLock().lock();
+    try {
+      if (dataChannel != null) {
+        dropExpired();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not write to segment store " + directory + ": " + e.getMessage());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+
+    if (needsCompaction()) {
+      compact();
+    }
+  }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class SlabStore holds byte arrays off the Java heap. The memory is reserved in slabs (direct ByteBuffers) which are split into chunks of a
+ * fixed size class (512 bytes up to 256 KB, powers of two); a value is stored in as many chunks of the biggest size class as needed plus one chunk
+ * of the smallest fitting size class for the rest. Freed chunks are recycled within their size class; when the maximum size has been reached, a slab
+ * without any used chunk is reassigned to the size class which needs it. The memory itself is never given back (until the store is closed).<br>
+ * Only a small Handle is held on the heap. Handles are reference counted: the creator owns the first reference, every open stream holds another
+ * one, and the chunks are recycled when the last reference has been released - so a value which is removed while it is being read stays intact
+ * until the reader is finished.
+ *
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class SlabStore {
+  /** the default size of a slab (in bytes) */
+  public static final int   DEFAULT_SLAB_SIZE  = 4 * 1024 * 1024;
+
+  static final int          MIN_CHUNK_SHIFT    = 9;   // 512 bytes
+  static final int          MAX_CHUNK_SHIFT    = 18;  // 256 KB
+  static final int          MAX_CHUNK_SIZE     = 1 << MAX_CHUNK_SHIFT;
+
+  // address layout: slab (15 bits) | chunk within the slab (16 bits)
+  private static final int  MAX_SLABS          = 1 << 15;
+  private static final int  MAX_SLAB_SIZE      = 1 << (16 + MIN_CHUNK_SHIFT);
+  private static final int  NO_SPACE           = -1;
+
+  private final long        maximumBytes;
+  private final int         slabSize;
+  private final SizeClass[] sizeClasses;
+  // copy on write, so chunks can be read without locking
+  private volatile Slab[]   slabs              = new Slab[0];
+
+  private final AtomicLong  reservedBytes      = new AtomicLong();
+  private final AtomicLong  usedBytes          = new AtomicLong();
+  private final AtomicLong  allocationFailures = new AtomicLong();
+  private volatile boolean  closed             = false;
+
+  /**
+   * create a new store with the default slab size
+   *
+   * @param maximumBytes
+   *          the maximum amount of off heap memory to reserve (in bytes)
+   */
+  public SlabStore(long maximumBytes) {
+    this(maximumBytes, DEFAULT_SLAB_SIZE);
+  }
+
+  /**
+   * create a new store
+   *
+   * @param maximumBytes
+   *          the maximum amount of off heap memory to reserve (in bytes)
+   * @param slabSize
+   *          the size of a slab (a power of two between 256 KB and 32 MB)
+   */
+  public SlabStore(long maximumBytes, int slabSize) {
+    if (Integer.bitCount(slabSize) != 1 || slabSize < MAX_CHUNK_SIZE || slabSize > MAX_SLAB_SIZE) {
+      throw new IllegalArgumentException("invalid slab size: " + slabSize);
+    }
+    this.maximumBytes = maximumBytes;
+    this.slabSize = slabSize;
+    this.sizeClasses = new SizeClass[MAX_CHUNK_SHIFT - MIN_CHUNK_SHIFT + 1];
+    for (int i = 0; i < sizeClasses.length; i++) {
+      sizeClasses[i] = new SizeClass(1 << (MIN_CHUNK_SHIFT + i), slabSize);
+    }
+  }
+
+  /**
+   * store the given bytes off heap
+   *
+   * @param data
+   *          the bytes to store
+   * @return the handle of the stored bytes or null if there is not enough space left
+   */
+  public Handle put(byte[] data) {
+    return put(data, 0, data.length);
+  }
+
+  /**
+   * store the given bytes off heap
+   *
+   * @param data
+   *          the array containing the bytes to store
+   * @param offset
+   *          the offset of the first byte
+   * @param length
+   *          the amount of bytes to store
+   * @return the handle of the stored bytes or null if there is not enough space left
+   */
+  public Handle put(byte[] data, int offset, int length) {
+    if (closed) {
+      return null;
+    }
+
+    int fullChunks = length >>> MAX_CHUNK_SHIFT;
+    int rest = length & (MAX_CHUNK_SIZE - 1);
+    int[] addresses = new int[fullChunks + (rest > 0 ? 1 : 0)];
+
+    for (int i = 0; i < addresses.length; i++) {
+      SizeClass sizeClass = i < fullChunks ? sizeClasses[sizeClasses.length - 1] : sizeClassFor(rest);
+      int address = allocate(sizeClass);
+      if (address == NO_SPACE) {
+        // out of space - give back what we got so far
+        free(Arrays.copyOf(addresses, i));
+        allocationFailures.incrementAndGet();
+        return null;
+      }
+      addresses[i] = address;
+    }
+
+    int position = offset;
+    for (int i = 0; i < addresses.length; i++) {
+      int chunkLength = Math.min(MAX_CHUNK_SIZE, offset + length - position);
+      view(addresses[i], chunkLength).put(data, position, chunkLength);
+      position += chunkLength;
+    }
+
+    return new Handle(this, length, addresses);
+  }
+
+  /**
+   * the maximum amount of off heap memory this store may reserve (in bytes)
+   */
+  public long getMaximumBytes() {
+    return maximumBytes;
+  }
+
+  /**
+   * the amount of off heap memory which has been reserved for slabs (in bytes)
+   */
+  public long getReservedBytes() {
+    return reservedBytes.get();
+  }
+
+  /**
+   * the amount of off heap memory which is occupied by stored values (including the unused tail of their chunks; in bytes)
+   */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  /**
+   * the amount of values which could not be stored because the store was full
+   */
+  public long getAllocationFailureCount() {
+    return allocationFailures.get();
+  }
+
+  /**
+   * close the store: nothing can be stored any more and all handles become unreadable (streams which are already open can still be read to the
+   * end). The memory is given back when the garbage collector reclaims the store and its handles
+   */
+  public void close() {
+    closed = true;
+  }
+
+  private SizeClass sizeClassFor(int length) {
+    int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+    return sizeClasses[Math.max(0, shift - MIN_CHUNK_SHIFT)];
+  }
+
+  /**
+   * get a free chunk of the given size class
+   *
+   * @return the address of the chunk or NO_SPACE if there is no space left
+   */
+  private synchronized int allocate(SizeClass sizeClass) {
+    Slab slab = sizeClass.partialSlabs.peekFirst();
+    if (slab == null) {
+      slab = addSlab();
+      if (slab == null) {
+        slab = takeEmptySlab();
+      }
+      if (slab == null) {
+        return NO_SPACE;
+      }
+      slab.assign(sizeClass);
+      sizeClass.partialSlabs.addFirst(slab);
+    }
+
+    int chunk = slab.freeChunks[--slab.freeCount];
+    if (slab.freeCount == 0) {
+      // full - the slab comes back when one of its chunks has been freed
+      sizeClass.partialSlabs.pollFirst();
+    }
+    usedBytes.addAndGet(sizeClass.chunkSize);
+    return (slab.index << 16) | chunk;
+  }
+
+  private synchronized void free(int[] addresses) {
+    if (closed) {
+      return;
+    }
+    for (int address : addresses) {
+      Slab slab = slabs[address >>> 16];
+      SizeClass sizeClass = slab.sizeClass;
+      if (slab.freeCount == 0) {
+        sizeClass.partialSlabs.addLast(slab);
+      }
+      slab.freeChunks[slab.freeCount++] = address & 0xffff;
+      usedBytes.addAndGet(-sizeClass.chunkSize);
+    }
+  }
+
+  /**
+   * reserve the memory for a new slab (if it fits into the maximum size)
+   */
+  private Slab addSlab() {
+    if (slabs.length >= MAX_SLABS || closed || reservedBytes.get() + slabSize > maximumBytes) {
+      return null;
+    }
+
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.allocateDirect(slabSize);
+    }
+    catch (OutOfMemoryError e) {
+      // the direct memory of the JVM is exhausted (-XX:MaxDirectMemorySize)
+      return null;
+    }
+    reservedBytes.addAndGet(slabSize);
+
+    Slab slab = new Slab(slabs.length, buffer);
+    Slab[] newSlabs = Arrays.copyOf(slabs, slab.index + 1);
+    newSlabs[slab.index] = slab;
+    slabs = newSlabs;
+    return slab;
+  }
+
+  /**
+   * take a slab without any used chunk away from its size class, so that it can be reassigned to another one
+   */
+  private Slab takeEmptySlab() {
+    for (Slab slab : slabs) {
+      if (slab.freeCount == slab.sizeClass.chunksPerSlab) {
+        slab.sizeClass.partialSlabs.remove(slab);
+        return slab;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * get a view of the given chunk - positioned at the start of the chunk and limited to the given length
+   */
+  private ByteBuffer view(int address, int length) {
+    Slab slab = slabs[address >>> 16];
+    int position = (address & 0xffff) * slab.sizeClass.chunkSize;
+
+    ByteBuffer view = slab.buffer.duplicate();
+    view.limit(position + length);
+    view.position(position);
+    return view;
+  }
+
+  /**
+   * all chunks of one size class; the slabs with free chunks are kept in a queue (guarded by the store)
+   */
+  private static class SizeClass {
+    final int              chunkSize;
+    final int              chunksPerSlab;
+    final ArrayDeque<Slab> partialSlabs = new ArrayDeque<>();
+
+    SizeClass(int chunkSize, int slabSize) {
+      this.chunkSize = chunkSize;
+      this.chunksPerSlab = slabSize / chunkSize;
+    }
+  }
+
+  /**
+   * a slab of memory which is split into the chunks of the size class it is assigned to. The free chunks are guarded by the store
+   */
+  private static class Slab {
+    final int          index;
+    final ByteBuffer   buffer;
+
+    // read without locking - a slab is only reassigned while none of its chunks is in use
+    volatile SizeClass sizeClass;
+    int[]              freeChunks = new int[0];
+    int                freeCount  = 0;
+
+    Slab(int index, ByteBuffer buffer) {
+      this.index = index;
+      this.buffer = buffer;
+    }
+
+    void assign(SizeClass sizeClass) {
+      this.sizeClass = sizeClass;
+      if (freeChunks.length < sizeClass.chunksPerSlab) {
+        freeChunks = new int[sizeClass.chunksPerSlab];
+      }
+      freeCount = 0;
+      for (int chunk = sizeClass.chunksPerSlab - 1; chunk >= 0; chunk--) {
+        freeChunks[freeCount++] = chunk;
+      }
+    }
+  }
+
+  /**
+   * The handle of a value in the SlabStore
+   */
+  public static final class Handle {
+    private final SlabStore     store;
+    private final int           length;
+    private final int[]         addresses;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Handle(SlabStore store, int length, int[] addresses) {
+      this.store = store;
+      this.length = length;
+      this.addresses = addresses;
+    }
+
+    /**
+     * the length of the stored value (in bytes)
+     */
+    public int length() {
+      return length;
+    }
+
+    /**
+     * acquire another reference to the value
+     *
+     * @return true if the reference has been acquired; false if the value has already been released
+     */
+    public boolean retain() {
+      while (true) {
+        int count = references.get();
+        if (count <= 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * release a reference to the value; the chunks are recycled when the last reference has been released
+     */
+    public void release() {
+      if (references.decrementAndGet() == 0) {
+        store.free(addresses);
+      }
+    }
+
+    /**
+     * has the value been released (and may not be read any more)?
+     */
+    public boolean isReleased() {
+      return references.get() <= 0 || store.closed;
+    }
+
+    /**
+     * open a stream which reads the value directly from the slabs (without copying it to the heap first). The stream holds a reference to the value
+     * until it is closed or read to the end
+     *
+     * @return the stream or null if the value has already been released
+     */
+    public InputStream openStream() {
+      if (!retain()) {
+        return null;
+      }
+      if (store.closed) {
+        release();
+        return null;
+      }
+      return new SlabInputStream(this);
+    }
+
+    /**
+     * copy the value to the heap
+     *
+     * @return the value or null if the value has already been released
+     * @throws IOException
+     *           the value could not be read
+     */
+    public byte[] toByteArray() throws IOException {
+      InputStream is = openStream();
+      if (is == null) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      try {
+        int position = 0;
+        while (position < length) {
+          position += is.read(bytes, position, length - position);
+        }
+      }
+      finally {
+        is.close();
+      }
+      return bytes;
+    }
+  }
+
+  /**
+   * the stream reading a value chunk by chunk directly from the slabs
+   */
+  private static class SlabInputStream extends InputStream {
+    private final Handle        handle;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private int                 position = 0;
+    private ByteBuffer          chunk    = null;
+
+    SlabInputStream(Handle handle) {
+      this.handle = handle;
+    }
+
+    @Override
+    public int read() throws IOException {
+      ByteBuffer buffer = nextChunk();
+      if (buffer == null) {
+        return -1;
+      }
+      int value = buffer.get() & 0xff;
+      position++;
+      releaseAtEnd();
+      return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      ByteBuffer buffer = nextChunk();
+      if (buffer == null) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      position += count;
+      releaseAtEnd();
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long count = Math.max(0, Math.min(n, (long) handle.length - position));
+      position += (int) count;
+      chunk = null;
+      releaseAtEnd();
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return handle.length - position;
+    }
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        chunk = null;
+        handle.release();
+      }
+    }
+
+    /**
+     * release the chunks as soon as the last byte has been read - many readers (like the GZIPInputStream) never ask for the end of the stream
+     */
+    private void releaseAtEnd() {
+      if (position >= handle.length) {
+        close();
+      }
+    }
+
+    /**
+     * get the chunk containing the actual position (null at the end of the value)
+     */
+    private ByteBuffer nextChunk() throws IOException {
+      if (chunk != null && chunk.hasRemaining()) {
+        return chunk;
+      }
+      if (position >= handle.length) {
+        // read to the end - the chunks are not needed any more
+        close();
+        return null;
+      }
+      if (released.get()) {
+        throw new IOException("stream has been closed");
+      }
+
+      int index = position >>> MAX_CHUNK_SHIFT;
+      int start = index << MAX_CHUNK_SHIFT;
+      chunk = handle.store.view(handle.addresses[index], Math.min(MAX_CHUNK_SIZE, handle.length - start));
+      chunk.position(chunk.position() + position - start);
+      return chunk;
+    }
+  }
+}
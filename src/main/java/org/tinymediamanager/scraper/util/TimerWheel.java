@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The class TimerWheel is a hierarchical timing wheel for expiring cache entries in amortized O(1): every level has 64 slots, a slot of level n
+ * covers 64^n ticks. Scheduling an entry just appends it to the (lock free) queue of its slot; advancing the wheel drains the slots which are due
+ * and cascades the entries of higher levels down when their time range begins. Deadlines beyond the range of the wheel are parked in the last
+ * level and rescheduled when they come up.<br>
+ * The wheel is advanced by a single thread; schedule() may be called concurrently. An entry which is scheduled while the wheel is advanced may
+ * expire a rotation later - so the owner has to check the expiry on access too.
+ *
+ * @param <K>
+ *          the type of the keys
+ * @param <V>
+ *          the type of the values
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+class TimerWheel<K, V> {
+  static final int                      SLOT_BITS = 6;
+  static final int                      SLOTS     = 1 << SLOT_BITS;
+  static final int                      LEVELS    = 4;
+  private static final long             MASK      = SLOTS - 1;
+  private static final long             MAX_DELTA = 1L << (SLOT_BITS * LEVELS);
+
+  private final long                    tickMillis;
+  private final List<List<Queue<K, V>>> wheels    = new ArrayList<>(LEVELS);
+  private volatile long                 currentTick;
+
+  /**
+   * the callback for due entries
+   *
+   * @param <K>
+   *          the type of the keys
+   * @param <V>
+   *          the type of the values
+   */
+  interface Handler<K, V> {
+    /**
+     * the deadline of the given entry has been reached
+     *
+     * @param key
+     *          the key
+     * @param value
+     *          the value
+     * @param now
+     *          the actual time (in ms)
+     * @return the new deadline (in ms) if the entry has been accessed in the meantime or -1 if the entry is gone
+     */
+    long expired(K key, V value, long now);
+  }
+
+  TimerWheel(long tickMillis, long now) {
+    this.tickMillis = tickMillis;
+    this.currentTick = now / tickMillis;
+    for (int level = 0; level < LEVELS; level++) {
+      List<Queue<K, V>> slots = new ArrayList<>(SLOTS);
+      for (int slot = 0; slot < SLOTS; slot++) {
+        slots.add(new Queue<K, V>());
+      }
+      wheels.add(slots);
+    }
+  }
+
+  /**
+   * schedule the entry for the given deadline
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value
+   * @param deadline
+   *          the deadline (in ms)
+   */
+  void schedule(K key, V value, long deadline) {
+    schedule(new Node<>(key, value, (deadline + tickMillis - 1) / tickMillis), 1);
+  }
+
+  /**
+   * put the node into its slot
+   *
+   * @param node
+   *          the node
+   * @param minDelta
+   *          the minimum distance to the current tick (0 is only allowed while advancing - before the current slot is drained)
+   */
+  private void schedule(Node<K, V> node, int minDelta) {
+    long current = currentTick;
+    long tick = Math.max(node.tick, current + minDelta);
+    long delta = tick - current;
+    if (delta >= MAX_DELTA) {
+      // out of range: park it in the last level - it will be rescheduled from there
+      tick = current + MAX_DELTA - 1;
+      delta = MAX_DELTA - 1;
+    }
+
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    int slot = (int) ((tick >>> (SLOT_BITS * level)) & MASK);
+    wheels.get(level).get(slot).add(node);
+  }
+
+  /**
+   * advance the wheel to the given time and handle all due entries
+   *
+   * @param now
+   *          the actual time (in ms)
+   * @param handler
+   *          the handler for the due entries
+   */
+  synchronized void advance(long now, Handler<K, V> handler) {
+    long target = now / tickMillis;
+    while (currentTick < target) {
+      long tick = currentTick + 1;
+      currentTick = tick;
+
+      // the time range of a higher slot begins: move its entries down
+      for (int level = LEVELS - 1; level > 0; level--) {
+        if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+          int slot = (int) ((tick >>> (SLOT_BITS * level)) & MASK);
+          for (Node<K, V> node : wheels.get(level).get(slot).drain()) {
+            schedule(node, 0);
+          }
+        }
+      }
+
+      for (Node<K, V> node : wheels.get(0).get((int) (tick & MASK)).drain()) {
+        if (node.tick > tick) {
+          // not due yet (parked or scheduled late)
+          schedule(node, 1);
+          continue;
+        }
+        long deadline = handler.expired(node.key, node.value, now);
+        if (deadline >= 0) {
+          schedule(node.key, node.value, deadline);
+        }
+      }
+    }
+  }
+
+  /**
+   * remove all entries from the wheel
+   */
+  synchronized void clear() {
+    for (List<Queue<K, V>> slots : wheels) {
+      for (Queue<K, V> queue : slots) {
+        queue.drain();
+      }
+    }
+  }
+
+  /**
+   * a scheduled entry
+   */
+  private static class Node<K, V> {
+    final K    key;
+    final V    value;
+    final long tick;
+
+    Node(K key, V value, long tick) {
+      this.key = key;
+      this.value = value;
+      this.tick = tick;
+    }
+  }
+
+  /**
+   * the entries of a slot
+   */
+  private static class Queue<K, V> {
+    private final ConcurrentLinkedQueue<Node<K, V>> nodes = new ConcurrentLinkedQueue<>();
+
+    void add(Node<K, V> node) {
+      nodes.add(node);
+    }
+
+    List<Node<K, V>> drain() {
+      List<Node<K, V>> drained = new ArrayList<>();
+      Node<K, V> node;
+      while ((node = nodes.poll()) != null) {
+        drained.add(node);
+      }
+      return drained;
+    }
+  }
+}
@@ -23,6 +23,8 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.LocaleUtils;
 import org.apache.commons.lang3.SystemUtils;
@@ -36,7 +38,9 @@ import org.slf4j.LoggerFactory;
  * @since 1.0
  */
 public class UrlUtil {
-  private static final Logger LOGGER = LoggerFactory.getLogger(UrlUtil.class);
+  private static final Logger                        LOGGER   = LoggerFactory.getLogger(UrlUtil.class);
+  // the user agents per language (generating them needs a locale lookup and String.format)
+  private static final ConcurrentMap<String, String> UA_CACHE = new ConcurrentHashMap<>();
 
   /**
    * Casts url string to URI, and does the correct encoding (rfc2396) of query string ONLY (eg "|" character). URLEncoder encodes everything which
@@ -281,6 +285,15 @@ public class UrlUtil {
    *          take the given language rather than the systems default
    */
   public static String generateUA(String language) {
+    String ua = UA_CACHE.get(language);
+    if (ua == null) {
+      ua = createUA(language);
+      UA_CACHE.putIfAbsent(language, ua);
+    }
+    return ua;
+  }
+
+  private static String createUA(String language) {
     // this is due to the fact, that the OS is not correctly recognized (eg
     // Mobile FirefoxOS, where it isn't)
     String hardcodeOS = "";
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+/**
+ * The interface Weigher is used to calculate the weight (e.g. the size in bytes) of a cache entry
+ *
+ * @param <T>
+ *          the type of the value
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public interface Weigher<T> {
+  /**
+   * calculate the weight of the given value
+   *
+   * @param value
+   *          the value to weigh
+   * @return the weight (must not be negative)
+   */
+  int weigh(T value);
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class WeightedCacheMap is a CacheMap which is bounded by the weight (e.g. the size in bytes) of its entries. The entries are held in LRU order;
+ * if the maximum weight is exceeded, the least recently used entries are evicted - but only if the new entry is accessed at least as often as the
+ * victim (TinyLFU admission via a FrequencySketch). That way a burst of one-hit entries cannot flush frequently used entries out of the cache. The
+ * time to live of the CacheMap is still honored: the entries are scheduled in the timer wheel of the CacheMap, so an expired entry is reclaimed on
+ * its own (or on access) instead of sweeping all entries.<br>
+ * Reads go to the concurrent map of the CacheMap and do not take any lock: accesses are recorded in a lock free buffer and replayed (LRU order and
+ * frequency) under the eviction lock - with the next write or as soon as enough accesses have been buffered. If the buffer is full, accesses are
+ * dropped, so the LRU order is an approximation under heavy load. Writes, evictions and expirations are serialized by the eviction lock.
+ *
+ * @param <K>
+ *          the key of the map
+ * @param <T>
+ *          the value
+ * @author Manuel Laggner
+ * @since 2.15
+ */
+public class WeightedCacheMap<K, T> extends CacheMap<K, T> {
+  private static final int                    DRAIN_THRESHOLD       = 64;
+  private static final int                    MAX_BUFFERED_ACCESSES = 1024;
+
+  private final Weigher<T>                    weigher;
+  private final FrequencySketch<K>            sketch;
+
+  private final ReentrantLock                 evictionLock          = new ReentrantLock();
+  // the entries of the concurrent map in LRU order (accesses are moved to the end when the access buffer is replayed); guarded by the eviction lock
+  private final LinkedHashMap<K, CacheObject> lruOrder              = new LinkedHashMap<>();
+  private final ConcurrentLinkedQueue<K>      accessBuffer          = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger                 bufferedAccesses      = new AtomicInteger();
+
+  private volatile long                       maximumWeight;
+  // only written under the eviction lock
+  private volatile long                       weight                = 0;
+
+  /**
+   * inner class for managing the cache entries along with their weight
+   */
+  protected class WeightedCacheObject extends CacheObject {
+    public final int weight;
+
+    protected WeightedCacheObject(T value, int weight) {
+      super(value);
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Constructs a new WeightedCacheMap
+   *
+   * @param timeToLive
+   *          time to live in the map (in seconds)
+   * @param cleanupInterval
+   *          cache cleaning interval (in seconds; not used - the entries expire via the timer wheel which is advanced every second)
+   * @param maximumWeight
+   *          the maximum weight of all entries
+   * @param weigher
+   *          the weigher to calculate the weight of an entry
+   */
+  public WeightedCacheMap(long timeToLive, long cleanupInterval, long maximumWeight, Weigher<T> weigher) {
+    super(timeToLive, cleanupInterval, ExpirationMode.TIMER_WHEEL);
+    this.maximumWeight = maximumWeight;
+    this.weigher = weigher;
+    this.sketch = new FrequencySketch<>(4096);
+  }
+
+  @Override
+  public void put(K key, T value) {
+    int entryWeight = Math.max(0, weigher.weigh(value));
+    WeightedCacheObject c = new WeightedCacheObject(value, entryWeight);
+
+    evictionLock.lock();
+    try {
+      drainAccessBuffer();
+      sketch.increment(key);
+      removeEntry(key, RemovalCause.REPLACED);
+
+      // bigger than the whole cache or not worth evicting others -> do not admit (notify the listener, so it can release the value)
+      if (entryWeight > maximumWeight || !makeRoom(key, entryWeight)) {
+        notifyRemoval(key, c, RemovalCause.REJECTED);
+        return;
+      }
+
+      cacheMap.put(key, c);
+      lruOrder.put(key, c);
+      weight += entryWeight;
+    }
+    finally {
+      evictionLock.unlock();
+    }
+    scheduleExpiration(key, c);
+  }
+
+  @Override
+  public T get(K key) {
+    CacheObject c = cacheMap.get(key);
+    recordAccess(key);
+
+    if (c == null) {
+      recordMiss();
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    if (isExpired(c, now)) {
+      removeExpired(key, c);
+      recordMiss();
+      return null;
+    }
+
+    c.lastAccessed = now;
+    recordHit();
+    return c.value;
+  }
+
+  @Override
+  public void remove(K key) {
+    evictionLock.lock();
+    try {
+      drainAccessBuffer();
+      removeEntry(key, RemovalCause.EXPLICIT);
+    }
+    finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void cleanup(boolean force) {
+    if (!force) {
+      // advance the timer wheel (without a time to live there is nothing to expire)
+      if (timeToLive > 0) {
+        super.cleanup(false);
+      }
+      return;
+    }
+
+    evictionLock.lock();
+    try {
+      drainAccessBuffer();
+      for (Map.Entry<K, CacheObject> entry : lruOrder.entrySet()) {
+        cacheMap.remove(entry.getKey(), entry.getValue());
+        notifyRemoval(entry.getKey(), entry.getValue(), RemovalCause.EXPLICIT);
+      }
+      lruOrder.clear();
+      weight = 0;
+      sketch.clear();
+    }
+    finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  protected void removeExpired(K key, CacheObject c) {
+    evictionLock.lock();
+    try {
+      // only remove this very entry (it may have been replaced in the meantime)
+      if (lruOrder.get(key) == c) {
+        lruOrder.remove(key);
+        cacheMap.remove(key, c);
+        weight -= weightOf(c);
+        notifyRemoval(key, c, RemovalCause.EXPIRED);
+      }
+    }
+    finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * set a new maximum weight; if the actual weight exceeds the new maximum, the least recently used entries will be evicted immediately
+   *
+   * @param maximumWeight
+   *          the new maximum weight
+   */
+  public void setMaximumWeight(long maximumWeight) {
+    evictionLock.lock();
+    try {
+      drainAccessBuffer();
+      this.maximumWeight = maximumWeight;
+      while (weight > maximumWeight && !lruOrder.isEmpty()) {
+        Map.Entry<K, CacheObject> entry = lruOrder.entrySet().iterator().next();
+        removeEntry(entry.getKey(), RemovalCause.SIZE);
+      }
+    }
+    finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  protected long getEstimatedWeight() {
+    return getWeight();
+  }
+
+  /**
+   * get the maximum weight of this cache
+   *
+   * @return the maximum weight
+   */
+  public long getMaximumWeight() {
+    return maximumWeight;
+  }
+
+  /**
+   * get the actual weight of all entries in this cache
+   *
+   * @return the actual weight
+   */
+  public long getWeight() {
+    return weight;
+  }
+
+  /**
+   * get the amount of entries which have been evicted to make room for new entries
+   *
+   * @return the amount of evictions
+   */
+  public long getEvictionCount() {
+    return getStats().getSizeEvictionCount();
+  }
+
+  /**
+   * get the amount of entries which have not been admitted to the cache (because they were either too big or accessed less frequently than the
+   * entries which would have been evicted)
+   *
+   * @return the amount of rejected entries
+   */
+  public long getRejectionCount() {
+    return getStats().getRejectedCount();
+  }
+
+  /**
+   * get the amount of entries which have been removed because their time to live has been exceeded
+   *
+   * @return the amount of expired entries
+   */
+  public long getExpirationCount() {
+    return getStats().getExpiredCount();
+  }
+
+  /**
+   * evict entries in LRU order until the new entry fits into the cache. Expired entries are always victims; alive entries only if the candidate is
+   * accessed at least as often as them. Nothing is evicted if the candidate does not fit after all. Must be called with the eviction lock held
+   *
+   * @param candidate
+   *          the key of the new entry
+   * @param candidateWeight
+   *          the weight of the new entry
+   * @return true if there is enough room for the candidate
+   */
+  private boolean makeRoom(K candidate, int candidateWeight) {
+    if (weight + candidateWeight <= maximumWeight) {
+      return true;
+    }
+
+    long now = System.currentTimeMillis();
+    int candidateFrequency = sketch.frequency(candidate);
+    List<K> victims = new ArrayList<>();
+    long freed = 0;
+
+    for (Map.Entry<K, CacheObject> entry : lruOrder.entrySet()) {
+      if (weight - freed + candidateWeight <= maximumWeight) {
+        break;
+      }
+      CacheObject c = entry.getValue();
+      if (!isExpired(c, now) && sketch.frequency(entry.getKey()) > candidateFrequency) {
+        // the victim is hotter than the candidate
+        break;
+      }
+      victims.add(entry.getKey());
+      freed += weightOf(c);
+    }
+
+    // all or nothing: do not evict anything if the candidate would not fit anyway
+    if (weight - freed + candidateWeight > maximumWeight) {
+      return false;
+    }
+
+    for (K victim : victims) {
+      removeEntry(victim, isExpired(lruOrder.get(victim), now) ? RemovalCause.EXPIRED : RemovalCause.SIZE);
+    }
+
+    return true;
+  }
+
+  /**
+   * record an access for the LRU order and the frequency sketch. If enough accesses have been buffered, they are replayed right away (if the
+   * eviction lock is not held by someone else)
+   *
+   * @param key
+   *          the accessed key
+   */
+  private void recordAccess(K key) {
+    if (bufferedAccesses.get() < MAX_BUFFERED_ACCESSES) {
+      bufferedAccesses.incrementAndGet();
+      accessBuffer.offer(key);
+    }
+
+    if (bufferedAccesses.get() >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+      try {
+        drainAccessBuffer();
+      }
+      finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * replay the buffered accesses. Must be called with the eviction lock held
+   */
+  private void drainAccessBuffer() {
+    K key;
+    while ((key = accessBuffer.poll()) != null) {
+      bufferedAccesses.decrementAndGet();
+      sketch.increment(key);
+      // move the entry to the end of the LRU order
+      CacheObject c = lruOrder.remove(key);
+      if (c != null) {
+        lruOrder.put(key, c);
+      }
+    }
+  }
+
+  /**
+   * remove the entry of the given key. Must be called with the eviction lock held
+   */
+  private void removeEntry(K key, RemovalCause cause) {
+    CacheObject c = lruOrder.remove(key);
+    if (c != null) {
+      cacheMap.remove(key, c);
+      weight -= weightOf(c);
+      notifyRemoval(key, c, cause);
+    }
+  }
+
+  private boolean isExpired(CacheObject c, long now) {
+    return timeToLive > 0 && now > timeToLive * 1000 + c.lastAccessed;
+  }
+
+  private int weightOf(CacheObject c) {
+    if (c instanceof WeightedCacheMap.WeightedCacheObject) {
+      return ((WeightedCacheObject) c).weight;
+    }
+    return 0;
+  }
+}
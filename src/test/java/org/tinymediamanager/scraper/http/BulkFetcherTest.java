@@ -0,0 +1,213 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkFetcherTest {
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testResultOrder() throws Exception {
+    List<String> urls = Arrays.asList("http://a.example/1", "http://b.example/2", "http://c.example/3");
+
+    FakeBulkFetcher fetcher = new FakeBulkFetcher(16, 4);
+    completeInReverseOrder(fetcher, urls);
+    List<BulkFetcher.Result> results = fetcher.fetchAll(urls);
+
+    // in input order
+    Assert.assertEquals(3, results.size());
+    for (int i = 0; i < urls.size(); i++) {
+      Assert.assertEquals(i, results.get(i).getIndex());
+      Assert.assertEquals(urls.get(i), results.get(i).getUrl());
+      Assert.assertEquals(urls.get(i), new String(results.get(i).getContent(), StandardCharsets.UTF_8));
+    }
+
+    // the callback gets the results as they arrive
+    final List<Integer> arrival = new ArrayList<>();
+    fetcher = new FakeBulkFetcher(16, 4);
+    completeInReverseOrder(fetcher, urls);
+    fetcher.fetchAll(urls, new BulkFetcher.Callback() {
+      @Override
+      public void onResult(BulkFetcher.Result result) {
+        arrival.add(result.getIndex());
+      }
+    });
+    Assert.assertEquals(Arrays.asList(2, 1, 0), arrival);
+  }
+
+  @Test
+  public void testFailedRequest() throws Exception {
+    FakeBulkFetcher fetcher = new FakeBulkFetcher(16, 4);
+    fetcher.completeImmediately = true;
+
+    List<BulkFetcher.Result> results = fetcher.fetchAll(Arrays.asList("http://a.example/1", "no url", "http://a.example/fail"));
+    Assert.assertTrue(results.get(0).isSuccessful());
+    Assert.assertFalse(results.get(1).isSuccessful());
+    Assert.assertFalse(results.get(2).isSuccessful());
+    Assert.assertNull(results.get(2).getInputStream());
+  }
+
+  @Test
+  public void testConcurrencyCaps() throws Exception {
+    FakeBulkFetcher fetcher = new FakeBulkFetcher(3, 2);
+    fetcher.completeDelayed = true;
+
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      urls.add("http://a.example/" + i);
+    }
+    for (int i = 0; i < 4; i++) {
+      urls.add("http://b.example/" + i);
+    }
+
+    List<BulkFetcher.Result> results = fetcher.fetchAll(urls);
+    for (BulkFetcher.Result result : results) {
+      Assert.assertTrue(result.isSuccessful());
+    }
+    Assert.assertEquals(10, fetcher.started);
+    Assert.assertEquals(3, fetcher.maxInFlight);
+    Assert.assertEquals(2, (int) fetcher.maxPerHost.get("a.example"));
+    Assert.assertEquals(2, (int) fetcher.maxPerHost.get("b.example"));
+  }
+
+  @Test
+  public void testInterruptCancelsRequests() throws Exception {
+    final FakeBulkFetcher fetcher = new FakeBulkFetcher(2, 2);
+    final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          fetcher.fetchAll(Arrays.asList("http://a.example/1", "http://a.example/2", "http://a.example/3"));
+        }
+        catch (InterruptedException e) {
+          interrupted.set(true);
+        }
+      }
+    });
+    thread.start();
+
+    HttpFuture<InputStream> first = fetcher.awaitStarted("http://a.example/1");
+    HttpFuture<InputStream> second = fetcher.awaitStarted("http://a.example/2");
+    thread.interrupt();
+    thread.join(10000);
+
+    Assert.assertTrue(interrupted.get());
+    Assert.assertTrue(first.isCancelled());
+    Assert.assertTrue(second.isCancelled());
+    // never started
+    Assert.assertEquals(2, fetcher.started);
+  }
+
+  private void completeInReverseOrder(final FakeBulkFetcher fetcher, final List<String> urls) {
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = urls.size() - 1; i >= 0; i--) {
+            fetcher.awaitStarted(urls.get(i)).complete(content(urls.get(i)));
+            Thread.sleep(20);
+          }
+        }
+        catch (InterruptedException ignored) {
+          // the test is over
+        }
+      }
+    });
+  }
+
+  private static InputStream content(String url) {
+    return new ByteArrayInputStream(url.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * a BulkFetcher whose requests are answered by the test (or immediately/after a short delay) and which tracks the requests in flight
+   */
+  private class FakeBulkFetcher extends BulkFetcher {
+    private final Map<String, HttpFuture<InputStream>> futures             = new HashMap<>();
+    private final Map<String, Integer>                 perHost             = new HashMap<>();
+    final Map<String, Integer>                         maxPerHost          = new HashMap<>();
+    volatile boolean                                   completeImmediately = false;
+    volatile boolean                                   completeDelayed     = false;
+    int                                                started             = 0;
+    int                                                inFlight            = 0;
+    int                                                maxInFlight         = 0;
+
+    FakeBulkFetcher(int maxConcurrency, int maxPerHost) {
+      super(maxConcurrency, maxPerHost);
+    }
+
+    @Override
+    Url createUrl(final String urlString) throws MalformedURLException {
+      return new Url(urlString) {
+        @Override
+        public HttpFuture<InputStream> getInputStreamAsync() {
+          if (urlString.endsWith("fail")) {
+            return HttpFuture.failed(new IOException("failed"));
+          }
+          if (completeImmediately) {
+            return HttpFuture.completed(content(urlString));
+          }
+          return started(urlString, getHost());
+        }
+      };
+    }
+
+    synchronized HttpFuture<InputStream> started(final String url, final String host) {
+      final HttpFuture<InputStream> future = new HttpFuture<>();
+      futures.put(url, future);
+      started++;
+      inFlight++;
+      maxInFlight = Math.max(maxInFlight, inFlight);
+      int running = perHost.containsKey(host) ? perHost.get(host) + 1 : 1;
+      perHost.put(host, running);
+      maxPerHost.put(host, Math.max(running, maxPerHost.containsKey(host) ? maxPerHost.get(host) : 0));
+      notifyAll();
+
+      if (completeDelayed) {
+        executor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            finished(host);
+            future.complete(content(url));
+          }
+        }, 20, TimeUnit.MILLISECONDS);
+      }
+      return future;
+    }
+
+    synchronized void finished(String host) {
+      inFlight--;
+      perHost.put(host, perHost.get(host) - 1);
+    }
+
+    synchronized HttpFuture<InputStream> awaitStarted(String url) throws InterruptedException {
+      while (!futures.containsKey(url)) {
+        wait(10000);
+      }
+      return futures.get(url);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheCodecsTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      sb.append("{\"id\":").append(i).append(",\"poster_path\":\"/abc.jpg\",\"original_language\":\"en\"}");
+    }
+    byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+    for (CacheCodec codec : new CacheCodec[] { CacheCodecs.NONE, CacheCodecs.GZIP, CacheCodecs.deflate(Deflater.BEST_SPEED) }) {
+      byte[] encoded = codec.encode(content);
+      if (codec != CacheCodecs.NONE) {
+        Assert.assertTrue(encoded.length < content.length);
+      }
+      byte[] decoded = IOUtils.toByteArray(CacheCodecs.forId(codec.getId()).decode(encoded));
+      Assert.assertArrayEquals(content, decoded);
+
+      // decoding from a stream (off heap contents)
+      decoded = IOUtils.toByteArray(CacheCodecs.decode(codec, new ByteArrayInputStream(encoded)));
+      Assert.assertArrayEquals(content, decoded);
+    }
+  }
+}
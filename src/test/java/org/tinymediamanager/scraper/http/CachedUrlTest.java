@@ -0,0 +1,283 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.tinymediamanager.scraper.util.Pair;
+
+import okhttp3.Headers;
+
+public class CachedUrlTest {
+
+  @After
+  public void cleanup() {
+    CacheFallbackInterceptor.setOfflineMode(false);
+    CacheFallbackInterceptor.setMaxStaleness(CacheFallbackInterceptor.DEFAULT_MAX_STALENESS);
+    CachedUrl.clearCache();
+  }
+
+  @Test
+  public void testServableOnError() throws Exception {
+    CachedUrl.CachedRequest entry = newEntry(CachedUrl.FRESHNESS + 60);
+    Assert.assertFalse(entry.isFresh());
+    Assert.assertTrue(entry.isServableOnError());
+
+    // older than the maximum staleness
+    entry = newEntry(CachedUrl.FRESHNESS + CacheFallbackInterceptor.DEFAULT_MAX_STALENESS + 60);
+    Assert.assertFalse(entry.isServableOnError());
+
+    // stale-if-error disabled
+    CacheFallbackInterceptor.setMaxStaleness(0);
+    entry = newEntry(CachedUrl.FRESHNESS + 60);
+    Assert.assertFalse(entry.isServableOnError());
+  }
+
+  @Test
+  public void testStaleFallback() throws Exception {
+    CachedUrl cachedUrl = new CachedUrl("http://localhost/stale");
+    CachedUrl.CachedRequest stale = newEntry(CachedUrl.FRESHNESS + 60);
+    Url url = new Url("http://localhost/stale");
+
+    // provider not available
+    url.responseCode = 503;
+    Assert.assertSame(stale, cachedUrl.processResponse(url, null, stale));
+    url.responseCode = 0;
+    Assert.assertSame(stale, cachedUrl.processResponse(url, null, stale));
+
+    // a client error is no reason to serve the expired entry
+    url.responseCode = 404;
+    Assert.assertNull(cachedUrl.processResponse(url, null, stale));
+
+    // too old
+    url.responseCode = 503;
+    stale = newEntry(CachedUrl.FRESHNESS + CacheFallbackInterceptor.DEFAULT_MAX_STALENESS + 60);
+    Assert.assertNull(cachedUrl.processResponse(url, null, stale));
+    Assert.assertNull(cachedUrl.processResponse(url, null, null));
+  }
+
+  @Test
+  public void testOfflineMiss() throws Exception {
+    CacheFallbackInterceptor.setOfflineMode(true);
+
+    // not in our cache - the request is passed on (and answered from the OkHttp cache)
+    FakeCachedUrl cachedUrl = new FakeCachedUrl("http://localhost/offline", 200);
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals(1, cachedUrl.requests);
+
+    // cached now
+    cachedUrl = new FakeCachedUrl("http://localhost/offline", 200);
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals(0, cachedUrl.requests);
+
+    // not in the OkHttp cache either
+    cachedUrl = new FakeCachedUrl("http://localhost/offline-missing", 504);
+    Assert.assertNull(cachedUrl.getInputStream());
+    Assert.assertEquals(1, cachedUrl.requests);
+  }
+
+  @Test
+  public void testCoalescedFailure() throws Exception {
+    final FakeCachedUrl leader = new FakeCachedUrl("http://localhost/coalesced", 404);
+    leader.gate = new CountDownLatch(1);
+    final FakeCachedUrl follower = new FakeCachedUrl("http://localhost/coalesced", 404);
+
+    long coalesced = CachedUrl.getCoalescedRequestCount();
+    Thread leaderThread = startRequest(leader);
+    while (leader.requests == 0) {
+      Thread.sleep(10);
+    }
+    Thread followerThread = startRequest(follower);
+    while (CachedUrl.getCoalescedRequestCount() == coalesced) {
+      Thread.sleep(10);
+    }
+    leader.gate.countDown();
+    leaderThread.join(10000);
+    followerThread.join(10000);
+
+    // the follower shared the result of the leader - including the status of the failed request
+    Assert.assertEquals(0, follower.requests);
+    Assert.assertEquals(404, leader.getStatusCode());
+    Assert.assertEquals(404, follower.getStatusCode());
+    Assert.assertTrue(follower.isFault());
+  }
+
+  @Test
+  public void testStaleOnTimeout() throws Exception {
+    FakeCachedUrl cachedUrl = new FakeCachedUrl("http://localhost/timeout", 200);
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+    CachedUrl.lookup("http://localhost/timeout").storedAt = System.currentTimeMillis() - (CachedUrl.FRESHNESS + 60) * 1000L;
+
+    // the provider does not answer in time - the expired entry is served
+    cachedUrl = new FakeCachedUrl("http://localhost/timeout", 200);
+    cachedUrl.failure = Failure.TIMEOUT;
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals(1, cachedUrl.requests);
+    Assert.assertFalse(Thread.currentThread().isInterrupted());
+
+    // the connection breaks while reading the body
+    cachedUrl = new FakeCachedUrl("http://localhost/timeout", 200);
+    cachedUrl.failure = Failure.BROKEN_BODY;
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+
+    // too old - the timeout is passed on
+    CachedUrl.lookup("http://localhost/timeout").storedAt = System.currentTimeMillis()
+        - (CachedUrl.FRESHNESS + CacheFallbackInterceptor.DEFAULT_MAX_STALENESS + 60) * 1000L;
+    cachedUrl = new FakeCachedUrl("http://localhost/timeout", 200);
+    cachedUrl.failure = Failure.TIMEOUT;
+    try {
+      cachedUrl.getInputStream();
+      Assert.fail("timeout expected");
+    }
+    catch (InterruptedException e) {
+      Assert.assertTrue(cachedUrl.timedOut);
+    }
+  }
+
+  @Test
+  public void testRevalidationHeaders() throws Exception {
+    CachedUrl cachedUrl = new CachedUrl("http://localhost/revalidate");
+    CachedUrl.CachedRequest stale = newEntry(CachedUrl.FRESHNESS + 60);
+    stale.eTag = "\"v1\"";
+    stale.lastModified = "Sat, 17 Oct 2026 00:00:00 GMT";
+
+    // the request for an expired entry is a conditional one
+    Url url = cachedUrl.createUrl(stale);
+    Assert.assertEquals("\"v1\"", getRequestHeader(url, "If-None-Match"));
+    Assert.assertEquals("Sat, 17 Oct 2026 00:00:00 GMT", getRequestHeader(url, "If-Modified-Since"));
+
+    url = cachedUrl.createUrl(null);
+    Assert.assertNull(getRequestHeader(url, "If-None-Match"));
+    Assert.assertNull(getRequestHeader(url, "If-Modified-Since"));
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    FakeCachedUrl cachedUrl = new FakeCachedUrl("http://localhost/not-modified", 200);
+    cachedUrl.responseHeaders = Headers.of("ETag", "\"v1\"", "Last-Modified", "Sat, 17 Oct 2026 00:00:00 GMT");
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+
+    CachedUrl.CachedRequest entry = CachedUrl.lookup("http://localhost/not-modified");
+    long expired = System.currentTimeMillis() - (CachedUrl.FRESHNESS + 60) * 1000L;
+    entry.storedAt = expired;
+    long revalidations = CachedUrl.getRevalidationCount();
+
+    // the server confirms the entry and sends a new ETag
+    cachedUrl = new FakeCachedUrl("http://localhost/not-modified", 304);
+    cachedUrl.responseHeaders = Headers.of("ETag", "\"v2\"");
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals("\"v1\"", cachedUrl.ifNoneMatch);
+    Assert.assertEquals(revalidations + 1, CachedUrl.getRevalidationCount());
+
+    entry = CachedUrl.lookup("http://localhost/not-modified");
+    Assert.assertTrue(entry.storedAt > expired);
+    Assert.assertTrue(entry.isFresh());
+    Assert.assertEquals("\"v2\"", entry.eTag);
+    // not sent again - the old one is kept
+    Assert.assertEquals("Sat, 17 Oct 2026 00:00:00 GMT", entry.lastModified);
+
+    // fresh again - no request at all
+    cachedUrl = new FakeCachedUrl("http://localhost/not-modified", 200);
+    Assert.assertEquals("content", IOUtils.toString(cachedUrl.getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals(0, cachedUrl.requests);
+  }
+
+  private static Thread startRequest(final CachedUrl cachedUrl) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Assert.assertNull(cachedUrl.getInputStream());
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static String getRequestHeader(Url url, String key) {
+    for (Pair<String, String> header : url.headersRequest) {
+      if (key.equals(header.first())) {
+        return header.second();
+      }
+    }
+    return null;
+  }
+
+  private static CachedUrl.CachedRequest newEntry(long ageInSeconds) throws MalformedURLException {
+    CachedUrl.CachedRequest entry = new CachedUrl.CachedRequest(new Url("http://localhost/entry"), new byte[0], 0);
+    entry.storedAt = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ageInSeconds);
+    return entry;
+  }
+
+  /**
+   * a CachedUrl whose requests are answered with the given status code (or fail in the given way)
+   */
+  private static class FakeCachedUrl extends CachedUrl {
+    private final int       code;
+    volatile int            requests        = 0;
+    // the request waits for the gate to be opened
+    volatile CountDownLatch gate            = null;
+    volatile Failure        failure         = Failure.NONE;
+    volatile Headers        responseHeaders = null;
+    volatile String         ifNoneMatch     = null;
+
+    FakeCachedUrl(String url, int code) throws MalformedURLException {
+      super(url);
+      this.code = code;
+    }
+
+    @Override
+    Url createUrl(CachedRequest stale) throws MalformedURLException {
+      requests++;
+      Url url = new Url(this.url) {
+        @Override
+        public InputStream getInputStream() throws IOException, InterruptedException {
+          if (gate != null) {
+            gate.await();
+          }
+          ifNoneMatch = getRequestHeader(this, "If-None-Match");
+          if (failure == Failure.TIMEOUT) {
+            timedOut = true;
+            throw new InterruptedException();
+          }
+          responseCode = code;
+          responseMessage = code == 200 ? "OK" : "Unsatisfiable Request (only-if-cached)";
+          headersResponse = responseHeaders;
+          if (failure == Failure.BROKEN_BODY) {
+            return new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("connection reset");
+              }
+            };
+          }
+          if (code == 304) {
+            return new ByteArrayInputStream(new byte[0]);
+          }
+          return code == 200 ? new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8)) : null;
+        }
+      };
+      // along with the conditional headers
+      url.headersRequest = super.createUrl(stale).headersRequest;
+      return url;
+    }
+  }
+
+  private enum Failure {
+    NONE,
+    TIMEOUT,
+    BROKEN_BODY
+  }
+}
@@ -0,0 +1,61 @@
+package org.tinymediamanager.scraper.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.Dns;
+
+public class CachingDnsTest {
+
+  @Test
+  public void testCache() throws Exception {
+    final int[] lookups = new int[1];
+    final boolean[] fail = new boolean[1];
+    Dns delegate = new Dns() {
+      @Override
+      public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        lookups[0]++;
+        if (fail[0]) {
+          throw new UnknownHostException(hostname);
+        }
+        return Collections.singletonList(InetAddress.getByAddress(hostname, new byte[] { 127, 0, 0, 1 }));
+      }
+    };
+
+    CachingDns.clear();
+    CachingDns.setTimeToLive(1);
+    CachingDns dns = new CachingDns(delegate);
+    dns.lookup("example.com");
+    dns.lookup("EXAMPLE.com");
+    Assert.assertEquals(1, lookups[0]);
+    Assert.assertTrue(CachingDns.isCached("example.com"));
+
+    // expired entries survive a failing resolver
+    Thread.sleep(1100);
+    Assert.assertFalse(CachingDns.isCached("example.com"));
+    fail[0] = true;
+    Assert.assertEquals(1, dns.lookup("example.com").size());
+    Assert.assertEquals(2, lookups[0]);
+
+    // but there is no fallback for unknown hosts
+    try {
+      dns.lookup("unknown.example.com");
+      Assert.fail("lookup of an unknown host succeeded");
+    }
+    catch (UnknownHostException expected) {
+    }
+
+    // a ttl of 0 disables the cache
+    fail[0] = false;
+    CachingDns.clear();
+    CachingDns.setTimeToLive(0);
+    dns.lookup("example.com");
+    Assert.assertFalse(CachingDns.isCached("example.com"));
+    CachingDns.setTimeToLive(CachingDns.DEFAULT_TTL);
+  }
+}
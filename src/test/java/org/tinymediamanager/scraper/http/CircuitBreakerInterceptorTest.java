@@ -0,0 +1,45 @@
+package org.tinymediamanager.scraper.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tinymediamanager.scraper.http.CircuitBreakerInterceptor.HostBreaker;
+import org.tinymediamanager.scraper.http.CircuitBreakerInterceptor.State;
+import org.tinymediamanager.scraper.http.CircuitBreakerInterceptor.Thresholds;
+
+public class CircuitBreakerInterceptorTest {
+
+  @Test
+  public void testOpenAfterThreshold() {
+    HostBreaker breaker = new HostBreaker("example.com", new Thresholds(3, 60000));
+    Assert.assertTrue(breaker.tryAcquire());
+    Assert.assertFalse(breaker.failed());
+    Assert.assertFalse(breaker.failed());
+    Assert.assertTrue(breaker.failed());
+    Assert.assertEquals(State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.tryAcquire());
+    Assert.assertFalse(breaker.isAvailable());
+  }
+
+  @Test
+  public void testHalfOpenProbe() throws Exception {
+    HostBreaker breaker = new HostBreaker("example.com", new Thresholds(1, 50));
+    breaker.failed();
+    Assert.assertEquals(State.OPEN, breaker.getState());
+    Thread.sleep(60);
+
+    // only a single probe passes
+    Assert.assertTrue(breaker.tryAcquire());
+    Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+    Assert.assertFalse(breaker.tryAcquire());
+
+    // failed probe opens the breaker again
+    breaker.failed();
+    Assert.assertEquals(State.OPEN, breaker.getState());
+    Thread.sleep(60);
+
+    Assert.assertTrue(breaker.tryAcquire());
+    Assert.assertTrue(breaker.succeeded());
+    Assert.assertEquals(State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.tryAcquire());
+  }
+}
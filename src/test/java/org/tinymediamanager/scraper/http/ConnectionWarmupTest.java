@@ -0,0 +1,38 @@
+package org.tinymediamanager.scraper.http;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.OkHttpClient;
+
+public class ConnectionWarmupTest {
+
+  @Test
+  public void testRegister() {
+    ConnectionWarmup.register("warmup-test", "API.example.com/", "http://img.example.com", " ");
+    ConnectionWarmup.register("warmup-test", "api.example.com");
+
+    List<String> hosts = ConnectionWarmup.getHosts("warmup-test");
+    Assert.assertEquals(2, hosts.size());
+    Assert.assertTrue(hosts.contains("https://api.example.com"));
+    Assert.assertTrue(hosts.contains("http://img.example.com"));
+    Assert.assertTrue(ConnectionWarmup.getHosts("unknown").isEmpty());
+  }
+
+  @Test
+  public void testClient() {
+    OkHttpClient mainClient = TmmHttpClient.getHttpClient();
+    OkHttpClient client = ConnectionWarmup.getClient();
+
+    // shares the pool and the dns cache of the main client, but bypasses all interceptors
+    Assert.assertNotSame(mainClient, client);
+    Assert.assertSame(mainClient.connectionPool(), client.connectionPool());
+    Assert.assertSame(mainClient.dns(), client.dns());
+    Assert.assertFalse(mainClient.interceptors().isEmpty());
+    Assert.assertTrue(client.interceptors().isEmpty());
+    Assert.assertTrue(client.networkInterceptors().isEmpty());
+    Assert.assertSame(client, ConnectionWarmup.getClient());
+  }
+}
@@ -0,0 +1,96 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DownloadCheckpointTest {
+  private static final String URL = "http://localhost/file";
+
+  private File                folder;
+  private File                target;
+
+  @Before
+  public void setUp() throws Exception {
+    folder = Files.createTempDirectory("checkpoint").toFile();
+    target = new File(folder, "file.bin");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(folder);
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(target, URL);
+    Assert.assertFalse(checkpoint.canResume());
+
+    FileUtils.writeStringToFile(checkpoint.getPartFile(), "0123456789", StandardCharsets.UTF_8);
+    checkpoint.start(URL, "\"v1\"", 0);
+    checkpoint.update(8);
+
+    checkpoint = new DownloadCheckpoint(target, URL);
+    Assert.assertTrue(checkpoint.canResume());
+    Assert.assertEquals("\"v1\"", checkpoint.getValidator());
+    Assert.assertEquals(8, checkpoint.getOffset());
+
+    // another url must not be resumed from this part file
+    Assert.assertFalse(new DownloadCheckpoint(target, URL + "2").canResume());
+  }
+
+  @Test
+  public void testOffsetIsLimitedToThePartFile() throws Exception {
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(target, URL);
+    FileUtils.writeStringToFile(checkpoint.getPartFile(), "01234", StandardCharsets.UTF_8);
+    checkpoint.start(URL, "\"v1\"", 0);
+    // recorded, but not flushed to the part file
+    checkpoint.update(100);
+
+    Assert.assertEquals(5, new DownloadCheckpoint(target, URL).getOffset());
+  }
+
+  @Test
+  public void testMissingValidator() throws Exception {
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(target, URL);
+    FileUtils.writeStringToFile(checkpoint.getPartFile(), "01234", StandardCharsets.UTF_8);
+    checkpoint.start(URL, "", 0);
+    checkpoint.update(5);
+
+    // without a validator there is no sidecar - the download cannot be resumed
+    Assert.assertFalse(new File(folder, "file.bin.part.meta").exists());
+    Assert.assertFalse(new DownloadCheckpoint(target, URL).canResume());
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+    FileUtils.writeStringToFile(target, "old content", StandardCharsets.UTF_8);
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(target, URL);
+    FileUtils.writeStringToFile(checkpoint.getPartFile(), "0123456789", StandardCharsets.UTF_8);
+    checkpoint.start(URL, "\"v1\"", 10);
+
+    // the part file replaces the target and the sidecar is removed
+    checkpoint.complete();
+    Assert.assertEquals("0123456789", FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+    Assert.assertFalse(checkpoint.getPartFile().exists());
+    Assert.assertFalse(new File(folder, "file.bin.part.meta").exists());
+  }
+
+  @Test
+  public void testDiscard() throws Exception {
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(target, URL);
+    FileUtils.writeStringToFile(checkpoint.getPartFile(), "01234", StandardCharsets.UTF_8);
+    checkpoint.start(URL, "\"v1\"", 5);
+
+    checkpoint.discard();
+    Assert.assertFalse(checkpoint.canResume());
+    Assert.assertFalse(checkpoint.getPartFile().exists());
+    Assert.assertFalse(new File(folder, "file.bin.part.meta").exists());
+  }
+}
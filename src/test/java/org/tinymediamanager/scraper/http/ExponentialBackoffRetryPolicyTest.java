@@ -0,0 +1,36 @@
+package org.tinymediamanager.scraper.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExponentialBackoffRetryPolicyTest {
+
+  @Test
+  public void testDelayBounds() {
+    ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(100, 1000, 100000);
+    long previous = 0;
+    for (int i = 1; i < 50; i++) {
+      long delay = policy.nextDelay(i, previous, 0, 0);
+      Assert.assertTrue(delay >= 100);
+      Assert.assertTrue(delay <= 1000);
+      Assert.assertTrue(delay <= Math.max(100, previous * 3));
+      previous = delay;
+    }
+  }
+
+  @Test
+  public void testRetryAfterAndBudget() {
+    ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(100, 1000, 10000);
+    Assert.assertEquals(5000, policy.nextDelay(1, 0, 0, 5000));
+    Assert.assertEquals(RetryPolicy.NO_RETRY, policy.nextDelay(1, 0, 6000, 5000));
+    Assert.assertEquals(RetryPolicy.NO_RETRY, policy.nextDelay(3, 500, 9950, 0));
+  }
+
+  @Test
+  public void testIdempotency() {
+    ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy();
+    Assert.assertTrue(policy.isRetryable("GET"));
+    Assert.assertTrue(policy.isRetryable("head"));
+    Assert.assertFalse(policy.isRetryable("POST"));
+  }
+}
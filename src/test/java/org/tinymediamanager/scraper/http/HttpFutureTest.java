@@ -0,0 +1,178 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpFutureTest {
+
+  @Test
+  public void testCompleted() throws Exception {
+    HttpFuture<String> future = HttpFuture.completed("result");
+    Assert.assertTrue(future.isDone());
+    Assert.assertFalse(future.isCancelled());
+    Assert.assertEquals("result", future.get());
+    Assert.assertEquals("result", future.get(1, TimeUnit.MILLISECONDS));
+
+    // a null result is a valid result
+    Assert.assertNull(HttpFuture.completed(null).get());
+  }
+
+  @Test
+  public void testFailed() throws Exception {
+    IOException cause = new IOException("failed");
+    HttpFuture<String> future = HttpFuture.failed(cause);
+    Assert.assertTrue(future.isDone());
+    Assert.assertFalse(future.isCancelled());
+    try {
+      future.get();
+      Assert.fail("no ExecutionException");
+    }
+    catch (ExecutionException e) {
+      Assert.assertSame(cause, e.getCause());
+    }
+  }
+
+  @Test
+  public void testCompleteOnce() throws Exception {
+    HttpFuture<String> future = new HttpFuture<>();
+    Assert.assertFalse(future.isDone());
+    Assert.assertTrue(future.complete("first"));
+    Assert.assertFalse(future.complete("second"));
+    Assert.assertFalse(future.completeExceptionally(new IOException()));
+    Assert.assertFalse(future.cancel(true));
+    Assert.assertEquals("first", future.get());
+  }
+
+  @Test
+  public void testCallbacks() throws Exception {
+    final List<String> events = new ArrayList<>();
+    HttpFuture<String> future = new HttpFuture<>();
+
+    // registered before the completion
+    future.addCallback(new RecordingCallback(events, "early"));
+    // a failing callback does not prevent the others from being called
+    future.addCallback(new HttpFuture.Callback<String>() {
+      @Override
+      public void onSuccess(String result) {
+        throw new IllegalStateException("callback failure");
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+      }
+    });
+    future.addCallback(new RecordingCallback(events, "early2"));
+    Assert.assertTrue(events.isEmpty());
+
+    future.complete("result");
+    Assert.assertEquals(2, events.size());
+    Assert.assertEquals("early:result", events.get(0));
+    Assert.assertEquals("early2:result", events.get(1));
+
+    // registered after the completion - called immediately
+    future.addCallback(new RecordingCallback(events, "late"));
+    Assert.assertEquals(3, events.size());
+    Assert.assertEquals("late:result", events.get(2));
+
+    // failure
+    events.clear();
+    HttpFuture<String> failed = new HttpFuture<>();
+    failed.addCallback(new RecordingCallback(events, "early"));
+    failed.completeExceptionally(new IOException("failed"));
+    failed.addCallback(new RecordingCallback(events, "late"));
+    Assert.assertEquals(2, events.size());
+    Assert.assertEquals("early:IOException", events.get(0));
+    Assert.assertEquals("late:IOException", events.get(1));
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    final List<String> events = new ArrayList<>();
+    HttpFuture<String> future = new HttpFuture<>();
+    future.addCallback(new RecordingCallback(events, "callback"));
+
+    Assert.assertTrue(future.cancel(true));
+    Assert.assertTrue(future.isCancelled());
+    Assert.assertTrue(future.isDone());
+    Assert.assertFalse(future.complete("result"));
+    Assert.assertEquals(1, events.size());
+    Assert.assertEquals("callback:CancellationException", events.get(0));
+
+    try {
+      future.get();
+      Assert.fail("no CancellationException");
+    }
+    catch (CancellationException expected) {
+    }
+  }
+
+  @Test
+  public void testUpstreamPropagation() throws Exception {
+    HttpFuture<String> upstream = new HttpFuture<>();
+    HttpFuture<String> future = new HttpFuture<>();
+    future.setUpstream(upstream);
+
+    future.cancel(true);
+    Assert.assertTrue(upstream.isCancelled());
+
+    // attached after the cancellation
+    upstream = new HttpFuture<>();
+    future.setUpstream(upstream);
+    Assert.assertTrue(upstream.isCancelled());
+
+    // a completed future does not touch its upstream
+    upstream = new HttpFuture<>();
+    future = new HttpFuture<>();
+    future.setUpstream(upstream);
+    future.complete("result");
+    Assert.assertFalse(future.cancel(true));
+    Assert.assertFalse(upstream.isDone());
+  }
+
+  @Test
+  public void testGetFromOtherThread() throws Exception {
+    final HttpFuture<String> future = new HttpFuture<>();
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      Assert.fail("no TimeoutException");
+    }
+    catch (TimeoutException expected) {
+    }
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        future.complete("result");
+      }
+    }).start();
+    Assert.assertEquals("result", future.get(10, TimeUnit.SECONDS));
+  }
+
+  private static class RecordingCallback implements HttpFuture.Callback<String> {
+    private final List<String> events;
+    private final String       name;
+
+    RecordingCallback(List<String> events, String name) {
+      this.events = events;
+      this.name = name;
+    }
+
+    @Override
+    public void onSuccess(String result) {
+      events.add(name + ":" + result);
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+      events.add(name + ":" + t.getClass().getSimpleName());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.tinymediamanager.scraper.http;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpMetricsTest {
+
+  @Test
+  public void testHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    Assert.assertEquals(100, snapshot.getCount());
+    Assert.assertEquals(50, snapshot.getMean());
+    Assert.assertEquals(50, snapshot.getP50());
+    Assert.assertEquals(100, snapshot.getP95());
+    Assert.assertEquals(100, snapshot.getMax());
+
+    histogram.reset();
+    Assert.assertEquals(0, histogram.getSnapshot().getCount());
+  }
+
+  @Test
+  public void testHostSnapshot() {
+    HttpMetrics metrics = HttpMetrics.getInstance();
+    metrics.reset();
+    Assert.assertNull(metrics.getSnapshot("api.example.org"));
+
+    HttpMetrics.HostMetrics host = metrics.getHostMetrics("API.example.org");
+    host.recordStatus(200);
+    host.recordStatus(404);
+    host.bytesIn.addAndGet(1000);
+    host.timeToFirstByte.record(120);
+    metrics.recordCacheHit();
+    metrics.recordCacheMiss();
+
+    HttpMetrics.HostSnapshot snapshot = metrics.getSnapshot("api.example.org");
+    Assert.assertNotNull(snapshot);
+    Assert.assertEquals(1, snapshot.getStatus2xx());
+    Assert.assertEquals(1, snapshot.getStatus4xx());
+    Assert.assertEquals(1000, snapshot.getBytesIn());
+    Assert.assertEquals(1, snapshot.getTimeToFirstByte().getCount());
+    Assert.assertEquals(0.5, metrics.getCacheHitRatio(), 0.001);
+  }
+
+  @Test
+  public void testMXBean() throws Exception {
+    HttpMetrics.getInstance().reset();
+    HttpMetrics.getInstance().getHostMetrics("api.example.org").recordStatus(200);
+    HttpMetrics.registerMBean();
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    CompositeData[] snapshots = (CompositeData[]) server.getAttribute(new ObjectName(HttpMetrics.OBJECT_NAME), "HostSnapshots");
+    Assert.assertEquals(1, snapshots.length);
+    Assert.assertEquals("api.example.org", snapshots[0].get("host"));
+    Assert.assertEquals(1L, snapshots[0].get("status2xx"));
+  }
+}
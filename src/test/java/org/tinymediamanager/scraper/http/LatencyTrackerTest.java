@@ -0,0 +1,25 @@
+package org.tinymediamanager.scraper.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyTrackerTest {
+
+  @Test
+  public void testPercentile() {
+    LatencyTracker.clear();
+    Assert.assertEquals(1000, LatencyTracker.getPercentile("example.com", 0.95, 1000));
+
+    for (int i = 1; i <= 100; i++) {
+      LatencyTracker.record("Example.com", i);
+    }
+    Assert.assertEquals(95, LatencyTracker.getPercentile("example.com", 0.95, 1000));
+    Assert.assertEquals(50, LatencyTracker.getPercentile("example.com", 0.5, 1000));
+
+    // only the latest samples are kept
+    for (int i = 0; i < LatencyTracker.SAMPLES; i++) {
+      LatencyTracker.record("example.com", 10);
+    }
+    Assert.assertEquals(10, LatencyTracker.getPercentile("example.com", 0.99, 1000));
+  }
+}
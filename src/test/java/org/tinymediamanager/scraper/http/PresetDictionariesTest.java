@@ -0,0 +1,82 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.tinymediamanager.scraper.http.PresetDictionaries.DictionaryCodec;
+import org.tinymediamanager.scraper.util.SegmentStore;
+
+public class PresetDictionariesTest {
+
+  private static byte[] json(int id) {
+    return ("{\"id\":" + id + ",\"title\":\"Movie " + id + "\",\"poster_path\":\"https://image.tmdb.org/t/p/original/" + (id * 31)
+        + ".jpg\",\"original_language\":\"en\",\"genre_ids\":[18,80],\"adult\":false,\"vote_average\":7.5}").getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testTrainAndRoundTrip() throws Exception {
+    List<byte[]> samples = new ArrayList<>();
+    for (int i = 0; i < PresetDictionaries.SAMPLE_COUNT; i++) {
+      samples.add(json(i));
+    }
+    byte[] dictionary = PresetDictionaries.train(samples, PresetDictionaries.DICTIONARY_SIZE);
+    Assert.assertTrue(dictionary.length > 0);
+    Assert.assertTrue(dictionary.length <= PresetDictionaries.DICTIONARY_SIZE);
+
+    DictionaryCodec codec = new DictionaryCodec(dictionary);
+    byte[] content = json(4711);
+    byte[] encoded = codec.encode(content);
+    Assert.assertArrayEquals(content, IOUtils.toByteArray(codec.decode(encoded)));
+
+    // the dictionary beats plain deflate on small responses
+    byte[] plain = CacheCodecs.deflate(Deflater.BEST_SPEED).encode(content);
+    Assert.assertTrue(encoded.length < plain.length);
+  }
+
+  @Test
+  public void testPersist() throws Exception {
+    for (int i = 0; i < PresetDictionaries.SAMPLE_COUNT; i++) {
+      PresetDictionaries.sample("persist.test", json(i));
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (PresetDictionaries.getCodec("persist.test") == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    DictionaryCodec codec = PresetDictionaries.getCodec("persist.test");
+    Assert.assertNotNull(codec);
+
+    File dir = new File("target/test-dictionaries");
+    FileUtils.deleteQuietly(dir);
+    SegmentStore store = new SegmentStore(dir, 1024 * 1024);
+    try {
+      // known dictionaries are written to a new store
+      PresetDictionaries.setStore(store);
+      Assert.assertEquals(1, store.size());
+
+      // and again whenever an entry needs them
+      store.clear();
+      Assert.assertEquals(0, store.size());
+      PresetDictionaries.persist(codec.getDictionaryId());
+      Assert.assertEquals(1, store.size());
+      PresetDictionaries.persist(codec.getDictionaryId());
+      Assert.assertEquals(1, store.size());
+
+      store.clear();
+      PresetDictionaries.persistAll();
+      Assert.assertEquals(1, store.size());
+    }
+    finally {
+      PresetDictionaries.setStore(null);
+      PresetDictionaries.clear();
+      store.close();
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class PriorityInterceptorTest {
+  private static final RequestPriority LANE = RequestPriority.BULK_ARTWORK;
+
+  @Test
+  public void testReleaseOnClose() throws Exception {
+    Response response = execute(newClient(200), get());
+    Assert.assertEquals(1, PriorityInterceptor.getRunningRequests(LANE));
+
+    response.body().close();
+    Assert.assertEquals(0, PriorityInterceptor.getRunningRequests(LANE));
+  }
+
+  @Test
+  public void testReleaseOnEof() throws Exception {
+    Response response = execute(newClient(200), get());
+    Assert.assertEquals(1, PriorityInterceptor.getRunningRequests(LANE));
+
+    // read to the end without closing
+    InputStream is = response.body().byteStream();
+    Assert.assertEquals("content", new String(IOUtils.toByteArray(is), StandardCharsets.UTF_8));
+    Assert.assertEquals(0, PriorityInterceptor.getRunningRequests(LANE));
+  }
+
+  @Test
+  public void testReleaseOnErrorResponse() throws Exception {
+    Response response = execute(newClient(404), get());
+    Assert.assertEquals(404, response.code());
+    Assert.assertEquals(0, PriorityInterceptor.getRunningRequests(LANE));
+    response.close();
+  }
+
+  @Test
+  public void testReleaseOnHead() throws Exception {
+    Request request = new Request.Builder().url("http://localhost/test").head().tag(LANE).build();
+    Response response = execute(newClient(200), request);
+    Assert.assertEquals(0, PriorityInterceptor.getRunningRequests(LANE));
+    response.close();
+  }
+
+  @Test
+  public void testReleaseOnException() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new PriorityInterceptor()).addInterceptor(new Interceptor() {
+      @Override
+      public Response intercept(Chain chain) throws IOException {
+        throw new IOException("connection reset");
+      }
+    }).build();
+
+    try {
+      execute(client, get());
+      Assert.fail("expected an IOException");
+    }
+    catch (IOException expected) {
+    }
+    Assert.assertEquals(0, PriorityInterceptor.getRunningRequests(LANE));
+  }
+
+  private static Request get() {
+    return new Request.Builder().url("http://localhost/test").tag(LANE).build();
+  }
+
+  private static Response execute(OkHttpClient client, Request request) throws IOException {
+    Assert.assertEquals(0, PriorityInterceptor.getRunningRequests(LANE));
+    return client.newCall(request).execute();
+  }
+
+  /**
+   * a client which answers every request with the given code (without hitting the network)
+   */
+  private static OkHttpClient newClient(final int code) {
+    return new OkHttpClient.Builder().addInterceptor(new PriorityInterceptor()).addInterceptor(new Interceptor() {
+      @Override
+      public Response intercept(Chain chain) {
+        return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1).code(code).message("test")
+            .body(ResponseBody.create(MediaType.parse("text/plain"), "content")).build();
+      }
+    }).build();
+  }
+}
@@ -0,0 +1,85 @@
+package org.tinymediamanager.scraper.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrioritySchedulerTest {
+  private static final long WAIT = TimeUnit.SECONDS.toNanos(10);
+
+  @Test
+  public void testReservedCapacity() throws Exception {
+    PriorityScheduler scheduler = new PriorityScheduler(4);
+    scheduler.setReserved(RequestPriority.INTERACTIVE, 1);
+    scheduler.setReserved(RequestPriority.METADATA, 1);
+
+    // bulk may only use the unreserved slots
+    Assert.assertTrue(scheduler.acquire(RequestPriority.BULK_ARTWORK, WAIT));
+    Assert.assertTrue(scheduler.acquire(RequestPriority.BULK_ARTWORK, WAIT));
+    final CountDownLatch bulk = acquireAsync(scheduler, RequestPriority.BULK_ARTWORK);
+    Assert.assertFalse(bulk.await(100, TimeUnit.MILLISECONDS));
+
+    // the reserved slots are still available
+    Assert.assertTrue(scheduler.acquire(RequestPriority.METADATA, WAIT));
+    Assert.assertTrue(scheduler.acquire(RequestPriority.INTERACTIVE, WAIT));
+    Assert.assertEquals(2, scheduler.getRunning(RequestPriority.BULK_ARTWORK));
+
+    scheduler.release(RequestPriority.INTERACTIVE);
+    scheduler.release(RequestPriority.METADATA);
+    // the reserved slots are free again, but bulk still has to wait for one of its own
+    Assert.assertFalse(bulk.await(100, TimeUnit.MILLISECONDS));
+
+    scheduler.release(RequestPriority.BULK_ARTWORK);
+    Assert.assertTrue(bulk.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testHigherLaneFirst() throws Exception {
+    PriorityScheduler scheduler = new PriorityScheduler(1);
+    Assert.assertTrue(scheduler.acquire(RequestPriority.METADATA, WAIT));
+
+    CountDownLatch bulk = acquireAsync(scheduler, RequestPriority.BULK_ARTWORK);
+    Thread.sleep(50);
+    CountDownLatch interactive = acquireAsync(scheduler, RequestPriority.INTERACTIVE);
+    Thread.sleep(50);
+
+    scheduler.release(RequestPriority.METADATA);
+    Assert.assertTrue(interactive.await(1, TimeUnit.SECONDS));
+    Assert.assertFalse(bulk.await(100, TimeUnit.MILLISECONDS));
+
+    scheduler.release(RequestPriority.INTERACTIVE);
+    Assert.assertTrue(bulk.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    PriorityScheduler scheduler = new PriorityScheduler(1);
+    Assert.assertTrue(scheduler.acquire(RequestPriority.METADATA, WAIT));
+    Assert.assertFalse(scheduler.acquire(RequestPriority.INTERACTIVE, TimeUnit.MILLISECONDS.toNanos(50)));
+
+    // the request which gave up does not block the lower lanes any more
+    scheduler.release(RequestPriority.METADATA);
+    Assert.assertTrue(scheduler.acquire(RequestPriority.BULK_ARTWORK, TimeUnit.MILLISECONDS.toNanos(50)));
+  }
+
+  private CountDownLatch acquireAsync(final PriorityScheduler scheduler, final RequestPriority priority) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (scheduler.acquire(priority, WAIT)) {
+            latch.countDown();
+          }
+        }
+        catch (InterruptedException ignored) {
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return latch;
+  }
+}
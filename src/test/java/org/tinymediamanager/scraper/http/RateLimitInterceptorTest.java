@@ -0,0 +1,143 @@
+package org.tinymediamanager.scraper.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.Headers;
+
+public class RateLimitInterceptorTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testUnlimited() {
+    RateLimitInterceptor.HostLimiter limiter = new RateLimitInterceptor.HostLimiter();
+    long now = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(0, limiter.reserve(now));
+    }
+  }
+
+  @Test
+  public void testReserve() {
+    RateLimitInterceptor.HostLimiter limiter = newLimiter(2, 1);
+    long now = System.nanoTime();
+
+    // the waiting time queues up
+    Assert.assertEquals(0, limiter.reserve(now));
+    Assert.assertEquals(SECOND / 2, limiter.reserve(now));
+    Assert.assertEquals(SECOND, limiter.reserve(now));
+
+    // all reservations are due - and a new token is available
+    Assert.assertEquals(0, limiter.reserve(now + 3 * SECOND / 2));
+  }
+
+  @Test
+  public void testBurst() {
+    RateLimitInterceptor.HostLimiter limiter = newLimiter(1, 3);
+    // the bucket fills up while idle
+    long now = System.nanoTime() + 3 * SECOND;
+
+    Assert.assertEquals(0, limiter.reserve(now));
+    Assert.assertEquals(0, limiter.reserve(now));
+    Assert.assertEquals(0, limiter.reserve(now));
+    Assert.assertEquals(SECOND, limiter.reserve(now));
+  }
+
+  @Test
+  public void testThrottledHalvesRate() {
+    RateLimitInterceptor.HostLimiter limiter = newLimiter(4, 1);
+    long now = System.nanoTime();
+
+    limiter.throttled(0, now);
+    Assert.assertEquals(2, limiter.getCurrentRate(), 0.0001);
+    limiter.throttled(0, now);
+    Assert.assertEquals(1, limiter.getCurrentRate(), 0.0001);
+
+    for (int i = 0; i < 10; i++) {
+      limiter.throttled(0, now);
+    }
+    Assert.assertEquals(RateLimitInterceptor.MIN_RATE, limiter.getCurrentRate(), 0.0001);
+
+    // a host without a configured rate gets limited on the first throttling
+    limiter = new RateLimitInterceptor.HostLimiter();
+    limiter.throttled(0, now);
+    Assert.assertEquals(RateLimitInterceptor.DEFAULT_THROTTLED_RATE, limiter.getCurrentRate(), 0.0001);
+  }
+
+  @Test
+  public void testRetryAfter() {
+    RateLimitInterceptor.HostLimiter limiter = new RateLimitInterceptor.HostLimiter();
+    long now = System.nanoTime();
+
+    // the host is paused for the Retry-After
+    limiter.throttled(7000, now);
+    Assert.assertEquals(7 * SECOND, limiter.reserve(now));
+    Assert.assertEquals(SECOND, limiter.reserve(now + 6 * SECOND));
+
+    // over
+    Assert.assertEquals(0, limiter.reserve(now + 8 * SECOND));
+  }
+
+  @Test
+  public void testRecovery() {
+    RateLimitInterceptor.HostLimiter limiter = newLimiter(4, 1);
+    long now = System.nanoTime();
+    limiter.throttled(0, now);
+    Assert.assertEquals(2, limiter.getCurrentRate(), 0.0001);
+
+    // not within the recovery interval
+    limiter.succeeded(now + SECOND);
+    Assert.assertEquals(2, limiter.getCurrentRate(), 0.0001);
+
+    // additive increase by 10% of the configured rate
+    now += TimeUnit.MILLISECONDS.toNanos(RateLimitInterceptor.RECOVERY_INTERVAL);
+    limiter.succeeded(now);
+    Assert.assertEquals(2.4, limiter.getCurrentRate(), 0.0001);
+
+    // up to the configured rate
+    for (int i = 0; i < 20; i++) {
+      now += TimeUnit.MILLISECONDS.toNanos(RateLimitInterceptor.RECOVERY_INTERVAL);
+      limiter.succeeded(now);
+    }
+    Assert.assertEquals(4, limiter.getCurrentRate(), 0.0001);
+  }
+
+  @Test
+  public void testUnconfiguredHostRecoversToUnlimited() {
+    RateLimitInterceptor.HostLimiter limiter = new RateLimitInterceptor.HostLimiter();
+    long now = System.nanoTime();
+    limiter.throttled(0, now);
+
+    int steps = 0;
+    while (limiter.getCurrentRate() > 0 && steps < 100) {
+      now += TimeUnit.MILLISECONDS.toNanos(RateLimitInterceptor.RECOVERY_INTERVAL);
+      limiter.succeeded(now);
+      steps++;
+    }
+
+    // from 5 to 20 requests per second in steps of 0.5 - then unlimited again
+    Assert.assertEquals(30, steps);
+    Assert.assertEquals(0, limiter.getCurrentRate(), 0.0001);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(0, limiter.reserve(now));
+    }
+  }
+
+  @Test
+  public void testParseRetryAfter() {
+    Assert.assertEquals(7000, RateLimitInterceptor.parseRetryAfter(Headers.of("Retry-After", "7")));
+    // capped
+    Assert.assertEquals(TimeUnit.SECONDS.toMillis(RateLimitInterceptor.MAX_RETRY_AFTER),
+        RateLimitInterceptor.parseRetryAfter(Headers.of("Retry-After", "3600")));
+    Assert.assertEquals(0, RateLimitInterceptor.parseRetryAfter(Headers.of()));
+    Assert.assertEquals(0, RateLimitInterceptor.parseRetryAfter((Headers) null));
+  }
+
+  private static RateLimitInterceptor.HostLimiter newLimiter(double requestsPerSecond, int burst) {
+    RateLimitInterceptor.HostLimiter limiter = new RateLimitInterceptor.HostLimiter();
+    limiter.configure(new RateLimitInterceptor.ProviderRate(requestsPerSecond, burst));
+    return limiter;
+  }
+}
@@ -0,0 +1,204 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.tinymediamanager.scraper.MediaSearchResult;
+import org.tinymediamanager.scraper.entities.MediaType;
+
+public class SearchPrefetcherTest {
+  private final List<SearchPrefetcher.Prefetch> prefetches = new ArrayList<>();
+
+  @After
+  public void cleanup() {
+    for (SearchPrefetcher.Prefetch prefetch : prefetches) {
+      prefetch.cancel();
+    }
+    CachedUrl.clearCache();
+  }
+
+  @Test
+  public void testScoreThresholdAndMaxResults() throws Exception {
+    List<MediaSearchResult> results = Arrays.asList(result("http://localhost/p1", 0.9f), result("http://localhost/p2", 0.8f),
+        result("http://localhost/p3", 0.95f), result("http://localhost/p4", 0.5f));
+
+    // the best two results
+    FakePrefetcher prefetcher = new FakePrefetcher(true);
+    prefetch(prefetcher, results);
+    Assert.assertEquals(Arrays.asList("http://localhost/p3", "http://localhost/p1"), prefetcher.requested);
+
+    // all results above the threshold
+    CachedUrl.clearCache();
+    prefetcher = new FakePrefetcher(true);
+    prefetcher.setMaxResults(10);
+    prefetcher.setScoreThreshold(0.85f);
+    prefetch(prefetcher, results);
+    Assert.assertEquals(Arrays.asList("http://localhost/p3", "http://localhost/p1"), prefetcher.requested);
+
+    // nothing to prefetch
+    prefetcher = new FakePrefetcher(true);
+    prefetcher.setMaxResults(0);
+    prefetch(prefetcher, results);
+    Assert.assertTrue(prefetcher.requested.isEmpty());
+  }
+
+  @Test
+  public void testCachedUrlsAreNotPrefetched() throws Exception {
+    FakePrefetcher prefetcher = new FakePrefetcher(true);
+    SearchPrefetcher.Prefetch prefetch = prefetch(prefetcher, Collections.singletonList(result("http://localhost/cached", 0.9f)));
+    Assert.assertTrue(prefetch.isDone());
+    Assert.assertTrue(CachedUrl.isCached("http://localhost/cached"));
+
+    prefetcher = new FakePrefetcher(true);
+    prefetch(prefetcher, Collections.singletonList(result("http://localhost/cached", 0.9f)));
+    Assert.assertTrue(prefetcher.requested.isEmpty());
+  }
+
+  @Test
+  public void testDropPastMaxInFlight() throws Exception {
+    List<MediaSearchResult> results = new ArrayList<>();
+    for (int i = 0; i < SearchPrefetcher.MAX_IN_FLIGHT + 2; i++) {
+      results.add(result("http://localhost/drop" + i, 0.9f));
+    }
+    long dropped = SearchPrefetcher.getDroppedCount();
+
+    // the requests do not complete - the prefetches pile up
+    FakePrefetcher prefetcher = new FakePrefetcher(false);
+    prefetcher.setMaxResults(results.size());
+    SearchPrefetcher.Prefetch prefetch = prefetch(prefetcher, results);
+    Assert.assertEquals(SearchPrefetcher.MAX_IN_FLIGHT, prefetcher.requested.size());
+    Assert.assertEquals(dropped + 2, SearchPrefetcher.getDroppedCount());
+    Assert.assertFalse(prefetch.isDone());
+
+    // cancelled prefetches make room again
+    prefetch.cancel();
+    Assert.assertTrue(prefetch.isDone());
+    prefetcher = new FakePrefetcher(true);
+    prefetch(prefetcher, Collections.singletonList(result("http://localhost/after-drop", 0.9f)));
+    Assert.assertEquals(1, prefetcher.requested.size());
+  }
+
+  @Test
+  public void testHitCounting() throws Exception {
+    long prefetched = SearchPrefetcher.getPrefetchCount();
+    long hits = SearchPrefetcher.getHitCount();
+    prefetch(new FakePrefetcher(true), Collections.singletonList(result("http://localhost/hit", 0.9f)));
+    Assert.assertEquals(prefetched + 1, SearchPrefetcher.getPrefetchCount());
+    Assert.assertEquals(hits, SearchPrefetcher.getHitCount());
+
+    // the real request is answered from the cache - a hit
+    Assert.assertEquals("content", IOUtils.toString(new CachedUrl("http://localhost/hit").getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals(hits + 1, SearchPrefetcher.getHitCount());
+
+    // but only once
+    Assert.assertEquals("content", IOUtils.toString(new CachedUrl("http://localhost/hit").getInputStream(), StandardCharsets.UTF_8));
+    Assert.assertEquals(hits + 1, SearchPrefetcher.getHitCount());
+  }
+
+  @Test
+  public void testRealRequestDoesNotWaitForPrefetch() throws Exception {
+    // a prefetch which does not complete
+    FakePrefetcher prefetcher = new FakePrefetcher(false);
+    prefetch(prefetcher, Collections.singletonList(result("http://localhost/slow", 0.9f)));
+    Assert.assertEquals(1, prefetcher.requested.size());
+
+    final AtomicReference<String> content = new AtomicReference<>();
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          content.set(IOUtils.toString(new DirectCachedUrl("http://localhost/slow").getInputStream(), StandardCharsets.UTF_8));
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    thread.start();
+    thread.join(10000);
+
+    // the real request has been sent on its own
+    Assert.assertFalse(thread.isAlive());
+    Assert.assertEquals("direct", content.get());
+  }
+
+  private SearchPrefetcher.Prefetch prefetch(SearchPrefetcher prefetcher, List<MediaSearchResult> results) {
+    SearchPrefetcher.Prefetch prefetch = prefetcher.prefetch(results);
+    prefetches.add(prefetch);
+    return prefetch;
+  }
+
+  private static MediaSearchResult result(String url, float score) {
+    MediaSearchResult result = new MediaSearchResult("test", MediaType.MOVIE, score);
+    result.setUrl(url);
+    return result;
+  }
+
+  private static InputStream content(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * a prefetcher whose requests are answered immediately (or never)
+   */
+  private static class FakePrefetcher extends SearchPrefetcher {
+    private final boolean complete;
+    final List<String>    requested = Collections.synchronizedList(new ArrayList<String>());
+
+    FakePrefetcher(boolean complete) {
+      this.complete = complete;
+    }
+
+    @Override
+    CachedUrl createUrl(final String urlString) throws MalformedURLException {
+      return new CachedUrl(urlString) {
+        @Override
+        Url createUrl(CachedRequest stale) throws MalformedURLException {
+          requested.add(urlString);
+          return new Url(urlString) {
+            @Override
+            public HttpFuture<InputStream> getInputStreamAsync() {
+              if (!complete) {
+                return new HttpFuture<>();
+              }
+              responseCode = 200;
+              return HttpFuture.completed(content("content"));
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+   * a CachedUrl whose (blocking) request is answered immediately
+   */
+  private static class DirectCachedUrl extends CachedUrl {
+    DirectCachedUrl(String url) throws MalformedURLException {
+      super(url);
+    }
+
+    @Override
+    Url createUrl(CachedRequest stale) throws MalformedURLException {
+      return new Url(url) {
+        @Override
+        public InputStream getInputStream() throws IOException, InterruptedException {
+          responseCode = 200;
+          return content("direct");
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.tinymediamanager.scraper.util.Pair;
+
+import okhttp3.Headers;
+import okhttp3.Request;
+
+public class SegmentedDownloadTest {
+  private static final String LENGTH = Long.toString(2 * Url.MIN_SEGMENT_SIZE);
+
+  private File                folder;
+
+  @Before
+  public void setUp() throws Exception {
+    folder = Files.createTempDirectory("segmented").toFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(folder);
+  }
+
+  @Test
+  public void testSupportsRanges() {
+    Assert.assertTrue(SegmentedDownload.supportsRanges(200, Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH)));
+    Assert.assertTrue(
+        SegmentedDownload.supportsRanges(200, Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH, "Content-Encoding", "identity")));
+
+    // the Content-Length of a compressed body does not fit to the byte ranges
+    Assert.assertFalse(
+        SegmentedDownload.supportsRanges(200, Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH, "Content-Encoding", "gzip")));
+    Assert.assertFalse(SegmentedDownload.supportsRanges(200, Headers.of("Accept-Ranges", "none", "Content-Length", LENGTH)));
+    Assert.assertFalse(SegmentedDownload.supportsRanges(200, Headers.of("Accept-Ranges", "bytes")));
+    Assert.assertFalse(SegmentedDownload.supportsRanges(404, Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH)));
+  }
+
+  @Test
+  public void testCheckContentRange() throws Exception {
+    SegmentedDownload.checkContentRange("bytes 100-199/1000", 100, 199, 1000);
+    SegmentedDownload.checkContentRange("bytes 100-199/*", 100, 199, 1000);
+
+    assertRangeRejected("bytes 0-199/1000", 100, 199, 1000);
+    assertRangeRejected("bytes 100-299/1000", 100, 199, 1000);
+    // the resource changed its length
+    assertRangeRejected("bytes 100-199/2000", 100, 199, 1000);
+    assertRangeRejected(null, 100, 199, 1000);
+  }
+
+  @Test
+  public void testProbeRequest() throws Exception {
+    Request request = new Url("http://localhost/file").buildProbeRequest();
+    Assert.assertEquals("HEAD", request.method());
+    Assert.assertEquals("identity", request.header("Accept-Encoding"));
+  }
+
+  @Test
+  public void testGzipProbeFallsBack() throws Exception {
+    FakeUrl url = new FakeUrl(Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH, "Content-Encoding", "gzip"));
+    File file = new File(folder, "gzip.bin");
+
+    Assert.assertTrue(url.download(file, 4));
+    Assert.assertEquals(1, url.probes);
+    Assert.assertEquals(0, url.segmentedDownloads);
+    Assert.assertEquals("0123456789", FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRangeNotSupportedFallsBack() throws Exception {
+    FakeUrl url = new FakeUrl(Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH, "ETag", "\"v1\""));
+    url.rangeNotSupported = true;
+    File file = new File(folder, "fallback.bin");
+
+    Assert.assertTrue(url.download(file, 4));
+    Assert.assertEquals(1, url.segmentedDownloads);
+    // the ranges are requested with If-Range
+    Assert.assertEquals("\"v1\"", url.validator);
+    Assert.assertEquals("0123456789", FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    Assert.assertFalse(new File(folder, "fallback.bin.part").exists());
+  }
+
+  @Test
+  public void testResumablePartIsKept() throws Exception {
+    File file = new File(folder, "resume.bin");
+    FakeUrl url = new FakeUrl(Headers.of("Accept-Ranges", "bytes", "Content-Length", LENGTH));
+
+    // an interrupted single stream download
+    FileUtils.writeStringToFile(new File(folder, "resume.bin.part"), "01234", StandardCharsets.UTF_8);
+    new DownloadCheckpoint(file, "http://localhost/file").start("http://localhost/file", "\"v1\"", 5);
+
+    Assert.assertTrue(url.download(file, 4));
+    Assert.assertEquals(0, url.probes);
+    Assert.assertEquals(0, url.segmentedDownloads);
+    Assert.assertEquals("bytes=5-", url.range);
+    Assert.assertEquals("0123456789", FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+  }
+
+  private static void assertRangeRejected(String contentRange, long start, long end, long contentLength) {
+    try {
+      SegmentedDownload.checkContentRange(contentRange, start, end, contentLength);
+      Assert.fail("range " + contentRange + " must be rejected");
+    }
+    catch (SegmentedDownload.RangeNotSupportedException expected) {
+      // expected
+    }
+  }
+
+  /**
+   * an Url whose probe answers with the given headers; the single stream download delivers 0123456789 (or the rest of it for a range request)
+   */
+  private static class FakeUrl extends Url {
+    private final Headers probeHeaders;
+    boolean               rangeNotSupported  = false;
+    int                   probes             = 0;
+    int                   segmentedDownloads = 0;
+    String                validator          = null;
+    String                range              = null;
+
+    FakeUrl(Headers probeHeaders) throws MalformedURLException {
+      super("http://localhost/file");
+      this.probeHeaders = probeHeaders;
+    }
+
+    @Override
+    void probe() throws IOException {
+      probes++;
+      responseCode = 200;
+      headersResponse = probeHeaders;
+    }
+
+    @Override
+    void downloadSegments(File partFile, long contentLength, int segmentCount, String validator) throws IOException {
+      segmentedDownloads++;
+      this.validator = validator;
+      // a segment has already been written
+      FileUtils.writeStringToFile(partFile, "garbage", StandardCharsets.UTF_8);
+      if (rangeNotSupported) {
+        throw new SegmentedDownload.RangeNotSupportedException("server responded with 200 to a range request");
+      }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException, InterruptedException {
+      String content = "0123456789";
+      for (Pair<String, String> header : headersRequest) {
+        if ("Range".equals(header.first())) {
+          range = header.second();
+        }
+      }
+      if (range != null) {
+        responseCode = 206;
+        headersResponse = Headers.of("Content-Range", "bytes 5-9/10", "ETag", "\"v1\"");
+        content = content.substring(5);
+      }
+      else {
+        responseCode = 200;
+        headersResponse = Headers.of("ETag", "\"v1\"");
+      }
+      return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package org.tinymediamanager.scraper.http;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.LocaleUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import okhttp3.Request;
+
+/**
+ * micro benchmark of the request path of Url (everything up to the network call). Run the main method; the GC profiler reports the allocations per
+ * operation (gc.alloc.rate.norm) of the legacy path and the current path
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlBenchmark {
+  private static final String URL = "https://api.themoviedb.org/3/movie/603?api_key=0123456789abcdef&language=de&append_to_response=credits";
+
+  /**
+   * the request path as it has been before: UA generation, pattern compilation, URL/URI parsing and eager masking of the API keys
+   */
+  @Benchmark
+  public void legacy(Blackhole blackhole) throws Exception {
+    String url = URL;
+
+    if (url.contains("|")) {
+      Matcher m = Pattern.compile(".*\\|(.*?)=(.*?)$").matcher(url);
+      blackhole.consume(m.find());
+    }
+    URL u = new URL(url);
+    blackhole.consume(new URI(u.getProtocol(), u.getUserInfo(), u.getHost(), u.getPort(), u.getPath(), u.getQuery(), u.getRef()));
+
+    Locale l = LocaleUtils.countriesByLanguage(Locale.getDefault().getLanguage()).get(0);
+    String ua = String.format("Mozilla/5.0 (%1$s; %2$s %3$s; U; %4$s; %5$s-%6$s; rv:40.0) Gecko/20100101 Firefox/40.0", "X11",
+        System.getProperty("os.name", ""), System.getProperty("os.version", ""), System.getProperty("os.arch", ""), l.getLanguage(), l.getCountry());
+
+    blackhole.consume(url.replaceAll("api_key=\\w+", "api_key=<API_KEY>").replaceAll("api/\\d+\\w+", "api/<API_KEY>"));
+    blackhole.consume(new Request.Builder().url(url).addHeader("User-Agent", ua).build());
+  }
+
+  /**
+   * the current request path
+   */
+  @Benchmark
+  public void current(Blackhole blackhole) throws Exception {
+    Url url = new Url(URL);
+    blackhole.consume(url.buildRequest(false));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().include(UrlBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,223 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.tinymediamanager.scraper.util.Pair;
+
+import okhttp3.Headers;
+
+public class UrlDownloadTest {
+  private static final String URL     = "http://localhost/file";
+  private static final String CONTENT = "0123456789";
+
+  private File                folder;
+  private File                file;
+
+  @Before
+  public void setUp() throws Exception {
+    folder = Files.createTempDirectory("download").toFile();
+    file = new File(folder, "file.bin");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteQuietly(folder);
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    interruptedDownload("\"v1\"");
+
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(206, Headers.of("Content-Range", "bytes 5-9/10", "ETag", "\"v1\""), CONTENT.substring(5));
+
+    Assert.assertTrue(url.download(file));
+    Assert.assertEquals("bytes=5-", url.ranges.get(0));
+    Assert.assertEquals("\"v1\"", url.ifRanges.get(0));
+    Assert.assertEquals(CONTENT, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    // renamed to the target
+    Assert.assertFalse(new File(folder, "file.bin.part").exists());
+    Assert.assertFalse(new File(folder, "file.bin.part.meta").exists());
+  }
+
+  @Test
+  public void testRangeNotSatisfiable() throws Exception {
+    interruptedDownload("\"v1\"");
+
+    // the part file does not fit to the resource anymore - start from scratch
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(416, Headers.of(), null);
+    url.answer(200, Headers.of("ETag", "\"v2\""), CONTENT);
+
+    Assert.assertTrue(url.download(file));
+    Assert.assertEquals("bytes=5-", url.ranges.get(0));
+    Assert.assertNull(url.ranges.get(1));
+    Assert.assertEquals(CONTENT, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testMismatchedValidator() throws Exception {
+    interruptedDownload("\"v1\"");
+
+    // a 206 for another version of the resource
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(206, Headers.of("Content-Range", "bytes 5-9/10", "ETag", "\"v2\""), "abcde");
+    url.answer(200, Headers.of("ETag", "\"v2\""), CONTENT);
+
+    Assert.assertTrue(url.download(file));
+    Assert.assertEquals(2, url.ranges.size());
+    Assert.assertNull(url.ranges.get(1));
+    Assert.assertEquals(CONTENT, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testMismatchedContentRange() throws Exception {
+    interruptedDownload("\"v1\"");
+
+    // the server starts at another offset than the part file ends
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(206, Headers.of("Content-Range", "bytes 3-9/10", "ETag", "\"v1\""), CONTENT.substring(3));
+    url.answer(200, Headers.of("ETag", "\"v1\""), CONTENT);
+
+    Assert.assertTrue(url.download(file));
+    Assert.assertEquals(2, url.ranges.size());
+    Assert.assertNull(url.ranges.get(1));
+    Assert.assertEquals(CONTENT, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testUnexpectedPartialContent() throws Exception {
+    // no range requested
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(206, Headers.of("Content-Range", "bytes 5-9/10"), CONTENT.substring(5));
+
+    Assert.assertFalse(url.download(file));
+    Assert.assertFalse(file.exists());
+  }
+
+  @Test
+  public void testMissingValidator() throws Exception {
+    interruptedDownload("");
+    Assert.assertFalse(new DownloadCheckpoint(file, URL).canResume());
+
+    // nothing to resume - the download starts from scratch
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(200, Headers.of(), CONTENT);
+
+    Assert.assertTrue(url.download(file));
+    Assert.assertNull(url.ranges.get(0));
+    Assert.assertEquals(CONTENT, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testWeakETag() throws Exception {
+    // a weak ETag is no validator for If-Range - the Last-Modified date is used instead
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(200, Headers.of("ETag", "W/\"v1\"", "Last-Modified", "Sat, 17 Oct 2026 00:00:00 GMT"), CONTENT, 5);
+    Assert.assertFalse(url.download(file));
+
+    DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, URL);
+    Assert.assertTrue(checkpoint.canResume());
+    Assert.assertEquals("Sat, 17 Oct 2026 00:00:00 GMT", checkpoint.getValidator());
+    Assert.assertEquals(5, checkpoint.getOffset());
+  }
+
+  /**
+   * a download which broke after 5 bytes
+   */
+  private void interruptedDownload(String validator) throws Exception {
+    ScriptedUrl url = new ScriptedUrl();
+    url.answer(200, validator.isEmpty() ? Headers.of() : Headers.of("ETag", validator), CONTENT, 5);
+    Assert.assertFalse(url.download(file));
+    Assert.assertFalse(file.exists());
+    Assert.assertEquals(5, new File(folder, "file.bin.part").length());
+  }
+
+  /**
+   * an Url which answers with the scripted responses and records the Range/If-Range headers of the requests
+   */
+  private static class ScriptedUrl extends Url {
+    private final LinkedList<Answer> answers  = new LinkedList<>();
+    final List<String>               ranges   = new ArrayList<>();
+    final List<String>               ifRanges = new ArrayList<>();
+
+    ScriptedUrl() throws MalformedURLException {
+      super(URL);
+    }
+
+    void answer(int code, Headers headers, String body) {
+      answer(code, headers, body, -1);
+    }
+
+    void answer(int code, Headers headers, String body, int breakAfter) {
+      answers.add(new Answer(code, headers, body, breakAfter));
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException, InterruptedException {
+      ranges.add(getRequestHeader("Range"));
+      ifRanges.add(getRequestHeader("If-Range"));
+
+      final Answer answer = answers.removeFirst();
+      responseCode = answer.code;
+      headersResponse = answer.headers;
+      if (answer.body == null) {
+        return null;
+      }
+
+      final byte[] bytes = answer.body.getBytes(StandardCharsets.UTF_8);
+      if (answer.breakAfter < 0) {
+        return new ByteArrayInputStream(bytes);
+      }
+      // the connection breaks after the given amount of bytes
+      return new InputStream() {
+        private int position = 0;
+
+        @Override
+        public int read() throws IOException {
+          if (position >= answer.breakAfter) {
+            throw new IOException("connection reset");
+          }
+          return bytes[position++];
+        }
+      };
+    }
+
+    private String getRequestHeader(String key) {
+      for (Pair<String, String> header : headersRequest) {
+        if (key.equals(header.first())) {
+          return header.second();
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class Answer {
+    final int     code;
+    final Headers headers;
+    final String  body;
+    final int     breakAfter;
+
+    Answer(int code, Headers headers, String body, int breakAfter) {
+      this.code = code;
+      this.headers = headers;
+      this.body = body;
+      this.breakAfter = breakAfter;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package org.tinymediamanager.scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.Headers;
+
+public class UrlRetryTest {
+
+  private static final RetryPolicy NO_DELAY = new RetryPolicy() {
+    @Override
+    public boolean isRetryable(String method) {
+      return true;
+    }
+
+    @Override
+    public long nextDelay(int attempt, long previousDelay, long elapsed, long retryAfter) {
+      return 0;
+    }
+  };
+
+  @Test
+  public void testTimeoutIsRetried() throws Exception {
+    FailingUrl url = new FailingUrl(2, true);
+    InputStream is = url.getInputStreamWithRetry(3);
+
+    Assert.assertNotNull(is);
+    Assert.assertEquals(3, url.attempts);
+    Assert.assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void testInterruptStops() throws Exception {
+    FailingUrl url = new FailingUrl(2, false);
+    InputStream is = url.getInputStreamWithRetry(3);
+
+    Assert.assertNull(is);
+    Assert.assertEquals(1, url.attempts);
+    // clears the flag for the following tests too
+    Assert.assertTrue(Thread.interrupted());
+  }
+
+  @Test
+  public void testCachedUrlTimeoutIsRetried() throws Exception {
+    FailingCachedUrl url = new FailingCachedUrl("http://localhost/cached-timeout", 2, true);
+    InputStream is = url.getInputStreamWithRetry(3);
+
+    Assert.assertNotNull(is);
+    Assert.assertEquals(3, url.attempts);
+    Assert.assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void testCachedUrlInterruptStops() throws Exception {
+    FailingCachedUrl url = new FailingCachedUrl("http://localhost/cached-abort", 2, false);
+    InputStream is = url.getInputStreamWithRetry(3);
+
+    Assert.assertNull(is);
+    Assert.assertEquals(1, url.attempts);
+    Assert.assertTrue(Thread.interrupted());
+  }
+
+  @Test
+  public void testCachedUrlRetryAfter() throws Exception {
+    final List<Long> retryAfters = new ArrayList<>();
+    CachedUrl url = new CachedUrl("http://localhost/cached-retry-after") {
+      @Override
+      Url createUrl(CachedRequest stale) throws MalformedURLException {
+        return new Url(this.url) {
+          @Override
+          public InputStream getInputStream() throws IOException, InterruptedException {
+            responseCode = 503;
+            headersResponse = Headers.of("Retry-After", "7");
+            return null;
+          }
+        };
+      }
+    };
+    url.setRetryPolicy(new RetryPolicy() {
+      @Override
+      public boolean isRetryable(String method) {
+        return true;
+      }
+
+      @Override
+      public long nextDelay(int attempt, long previousDelay, long elapsed, long retryAfter) {
+        retryAfters.add(retryAfter);
+        return -1;
+      }
+    });
+
+    Assert.assertNull(url.getInputStreamWithRetry(3));
+    Assert.assertEquals(503, url.getStatusCode());
+    Assert.assertEquals(1, retryAfters.size());
+    Assert.assertEquals(7000L, (long) retryAfters.get(0));
+  }
+
+  /**
+   * fails the first attempts either by a timeout or by an abort
+   */
+  private static class FailingUrl extends Url {
+    private final int     failures;
+    private final boolean timeout;
+    int                   attempts = 0;
+
+    FailingUrl(int failures, boolean timeout) throws MalformedURLException {
+      super("http://localhost/test");
+      this.failures = failures;
+      this.timeout = timeout;
+      setRetryPolicy(NO_DELAY);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException, InterruptedException {
+      attempts++;
+      if (attempts <= failures) {
+        timedOut = timeout;
+        throw new InterruptedException();
+      }
+      return new ByteArrayInputStream(new byte[] { 1 });
+    }
+  }
+
+  /**
+   * a CachedUrl whose (inner) requests fail the first attempts either by a timeout or by an abort
+   */
+  private static class FailingCachedUrl extends CachedUrl {
+    private final int     failures;
+    private final boolean timeout;
+    int                   attempts = 0;
+
+    FailingCachedUrl(String url, int failures, boolean timeout) throws MalformedURLException {
+      super(url);
+      this.failures = failures;
+      this.timeout = timeout;
+      setRetryPolicy(NO_DELAY);
+    }
+
+    @Override
+    Url createUrl(CachedRequest stale) throws MalformedURLException {
+      return new Url(url) {
+        @Override
+        public InputStream getInputStream() throws IOException, InterruptedException {
+          attempts++;
+          if (attempts <= failures) {
+            timedOut = timeout;
+            throw new InterruptedException();
+          }
+          responseCode = 200;
+          return new ByteArrayInputStream(new byte[] { 1 });
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package org.tinymediamanager.scraper.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class UrlStaleTest {
+
+  @Test
+  public void testNetworkResponse() throws Exception {
+    Url url = new Url("http://localhost/test");
+    url.processResponse(response(false, null));
+    Assert.assertFalse(url.isStale());
+  }
+
+  @Test
+  public void testFreshCacheResponse() throws Exception {
+    Url url = new Url("http://localhost/test");
+    url.processResponse(response(true, null));
+    Assert.assertFalse(url.isStale());
+  }
+
+  @Test
+  public void testStaleCacheResponse() throws Exception {
+    Url url = new Url("http://localhost/test");
+    url.processResponse(response(true, "110 HttpURLConnection \"Response is stale\""));
+    Assert.assertTrue(url.isStale());
+
+    url = new Url("http://localhost/test");
+    url.processResponse(response(true, CacheFallbackInterceptor.STALE_WARNING));
+    Assert.assertTrue(url.isStale());
+  }
+
+  @Test
+  public void testOtherWarning() throws Exception {
+    Url url = new Url("http://localhost/test");
+    url.processResponse(response(true, "199 - \"Miscellaneous Warning\""));
+    Assert.assertFalse(url.isStale());
+  }
+
+  private static Response response(boolean fromCache, String warning) {
+    Request request = new Request.Builder().url("http://localhost/test").build();
+    Response.Builder builder = new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+        .body(ResponseBody.create(MediaType.parse("text/plain"), "content"));
+    if (fromCache) {
+      builder.cacheResponse(new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK").build());
+    }
+    if (warning != null) {
+      builder.header("Warning", warning);
+    }
+    return builder.build();
+  }
+}
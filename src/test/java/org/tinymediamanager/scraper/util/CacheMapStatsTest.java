@@ -0,0 +1,85 @@
+package org.tinymediamanager.scraper.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheMapStatsTest {
+
+  @Test
+  public void testHitsAndMisses() {
+    CacheMap<String, String> cache = new CacheMap<>(600, 0);
+    cache.put("key", "value");
+
+    Assert.assertEquals("value", cache.get("key"));
+    Assert.assertEquals("value", cache.get("key"));
+    Assert.assertNull(cache.get("other"));
+
+    CacheStats stats = cache.getStats();
+    Assert.assertEquals(1, stats.getSize());
+    Assert.assertEquals(2, stats.getHitCount());
+    Assert.assertEquals(1, stats.getMissCount());
+    Assert.assertEquals(2d / 3d, stats.getHitRatio(), 0.001);
+  }
+
+  @Test
+  public void testRemovalListener() {
+    final List<RemovalCause> causes = new ArrayList<>();
+    WeightedCacheMap<String, String> cache = new WeightedCacheMap<>(600, 0, 10, new Weigher<String>() {
+      @Override
+      public int weigh(String value) {
+        return value.length();
+      }
+    });
+    cache.setRemovalListener(new RemovalListener<String, String>() {
+      @Override
+      public void onRemoval(String key, String value, RemovalCause cause) {
+        causes.add(cause);
+      }
+    });
+
+    cache.put("a", "12345");
+    cache.put("a", "67890");
+    cache.remove("a");
+    cache.put("b", "12345");
+    cache.put("c", "12345");
+    cache.put("d", "12345");
+
+    Assert.assertEquals(RemovalCause.REPLACED, causes.get(0));
+    Assert.assertEquals(RemovalCause.EXPLICIT, causes.get(1));
+    Assert.assertEquals(RemovalCause.SIZE, causes.get(2));
+    Assert.assertEquals(3, causes.size());
+
+    CacheStats stats = cache.getStats();
+    Assert.assertEquals(1, stats.getReplacedCount());
+    Assert.assertEquals(1, stats.getExplicitRemovalCount());
+    Assert.assertEquals(1, stats.getSizeEvictionCount());
+    Assert.assertEquals(10, stats.getWeight());
+  }
+
+  @Test
+  public void testRegistry() throws Exception {
+    CacheMap<String, String> cache = new CacheMap<>(600, 0);
+    CacheMapRegistry.register("CacheMapStatsTest", cache);
+    cache.put("key", "value");
+    cache.get("key");
+
+    Assert.assertTrue(CacheMapRegistry.getNames().contains("CacheMapStatsTest"));
+    CacheStats stats = CacheMapRegistry.getStats("CacheMapStatsTest");
+    Assert.assertEquals("CacheMapStatsTest", stats.getName());
+    Assert.assertEquals(1, stats.getHitCount());
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    String[] names = (String[]) server.getAttribute(new ObjectName(CacheMapRegistry.OBJECT_NAME), "CacheNames");
+    Assert.assertTrue(names.length > 0);
+
+    CacheMapRegistry.unregister("CacheMapStatsTest");
+    Assert.assertNull(CacheMapRegistry.getStats("CacheMapStatsTest"));
+  }
+}
@@ -0,0 +1,68 @@
+package org.tinymediamanager.scraper.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheMapTest {
+
+  @Test
+  public void testPutGetRemove() {
+    CacheMap<String, String> cache = new CacheMap<>(600, 0);
+    cache.put("key", "value");
+    Assert.assertEquals("value", cache.get("key"));
+    Assert.assertEquals(1, cache.size());
+
+    cache.remove("key");
+    Assert.assertNull(cache.get("key"));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testCleanup() throws Exception {
+    CacheMap<String, String> cache = new CacheMap<>(1, 0);
+    cache.put("old", "value");
+    Thread.sleep(1100);
+    cache.put("new", "value");
+
+    cache.cleanup();
+    Assert.assertNull(cache.get("old"));
+    Assert.assertEquals("value", cache.get("new"));
+
+    cache.cleanup(true);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testConcurrentModification() throws Exception {
+    final CacheMap<Integer, String> cache = new CacheMap<>(600, 0);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        int i = 0;
+        while (running.get()) {
+          cache.put(i % 1000, "value");
+          cache.remove((i + 500) % 1000);
+          i++;
+        }
+      }
+    });
+    writer.start();
+
+    try {
+      // iterating the keys while the map is modified must not fail
+      for (int i = 0; i < 100; i++) {
+        for (Integer key : cache.keySet()) {
+          Assert.assertNotNull(key);
+        }
+        cache.cleanup();
+      }
+    }
+    finally {
+      running.set(false);
+      writer.join();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.tinymediamanager.scraper.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadingCacheMapTest {
+
+  @Test
+  public void testLoad() {
+    final AtomicInteger loads = new AtomicInteger();
+    LoadingCacheMap<String, String> cache = new LoadingCacheMap<>(600, 0, new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) {
+        loads.incrementAndGet();
+        return "missing".equals(key) ? null : key.toUpperCase();
+      }
+    });
+
+    Assert.assertNull(cache.getIfPresent("key"));
+    Assert.assertEquals("KEY", cache.get("key"));
+    Assert.assertEquals("KEY", cache.get("key"));
+    Assert.assertEquals(1, loads.get());
+
+    // null values are not cached
+    Assert.assertNull(cache.get("missing"));
+    Assert.assertNull(cache.get("missing"));
+    Assert.assertEquals(3, loads.get());
+  }
+
+  @Test
+  public void testConcurrentLoadsAreMerged() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final LoadingCacheMap<String, String> cache = new LoadingCacheMap<>(600, 0, new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws Exception {
+        loads.incrementAndGet();
+        Thread.sleep(300);
+        return "value";
+      }
+    });
+
+    List<Thread> threads = new ArrayList<>();
+    final AtomicInteger results = new AtomicInteger();
+    for (int i = 0; i < 5; i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          if ("value".equals(cache.get("key"))) {
+            results.incrementAndGet();
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(5, results.get());
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testRefreshAhead() throws Exception {
+    final AtomicInteger version = new AtomicInteger();
+    LoadingCacheMap<String, Integer> cache = new LoadingCacheMap<>(2, 0, new CacheLoader<String, Integer>() {
+      @Override
+      public Integer load(String key) throws Exception {
+        if (version.get() > 0) {
+          Thread.sleep(200);
+        }
+        return version.incrementAndGet();
+      }
+    });
+    cache.setRefreshFraction(0.25);
+
+    Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+    Thread.sleep(600);
+
+    // due for refresh: the old value is served without waiting for the reload
+    long start = System.currentTimeMillis();
+    Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+    Assert.assertTrue(System.currentTimeMillis() - start < 150);
+
+    Thread.sleep(500);
+    Assert.assertEquals(Integer.valueOf(2), cache.get("key"));
+  }
+
+  @Test(timeout = 10000)
+  public void testQueuedRefreshRunsInline() throws Exception {
+    final CountDownLatch started = new CountDownLatch(2);
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final List<String> loadingThreads = new ArrayList<>();
+    LoadingCacheMap<String, String> cache = new LoadingCacheMap<>(60, 0, new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws Exception {
+        if (key.startsWith("block")) {
+          started.countDown();
+          blocker.await();
+        }
+        synchronized (loadingThreads) {
+          loadingThreads.add(Thread.currentThread().getName());
+        }
+        return key;
+      }
+    });
+
+    try {
+      // keep the refresh threads busy, so the refresh of "key" stays in the queue
+      cache.refresh("block1");
+      cache.refresh("block2");
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+      cache.refresh("key");
+
+      // the synchronous load does not wait for the queued refresh, but runs it
+      Assert.assertEquals("key", cache.get("key"));
+      Assert.assertEquals(1, loadingThreads.size());
+      Assert.assertEquals(Thread.currentThread().getName(), loadingThreads.get(0));
+    }
+    finally {
+      blocker.countDown();
+    }
+  }
+}
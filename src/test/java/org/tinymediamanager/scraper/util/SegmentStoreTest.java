@@ -0,0 +1,104 @@
+package org.tinymediamanager.scraper.util;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentStoreTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private File                 dir;
+
+  @Before
+  public void setup() throws Exception {
+    dir = new File("target/test-segmentstore");
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @After
+  public void cleanup() {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @Test
+  public void testPersistence() throws Exception {
+    SegmentStore store = new SegmentStore(dir, 1024 * 1024);
+    store.put("a", "value a".getBytes(UTF8), 0);
+    store.put("b", "value b".getBytes(UTF8), 0);
+    store.put("a", "value a2".getBytes(UTF8), 0);
+    store.put("c", "value c".getBytes(UTF8), 0);
+    store.remove("c");
+    Assert.assertEquals("value a2", new String(store.get("a"), UTF8));
+    store.close();
+
+    // reopen
+    store = new SegmentStore(dir, 1024 * 1024);
+    Assert.assertEquals(2, store.size());
+    Assert.assertEquals("value a2", new String(store.get("a"), UTF8));
+    Assert.assertEquals("value b", new String(store.get("b"), UTF8));
+    Assert.assertNull(store.get("c"));
+
+    // compaction keeps the live entries
+    store.compact();
+    Assert.assertEquals(0, store.getDeadBytes());
+    Assert.assertEquals("value a2", new String(store.get("a"), UTF8));
+    Assert.assertEquals("value b", new String(store.get("b"), UTF8));
+    store.close();
+
+    store = new SegmentStore(dir, 1024 * 1024);
+    Assert.assertEquals("value b", new String(store.get("b"), UTF8));
+    store.close();
+  }
+
+  @Test
+  public void testTimeToLive() throws Exception {
+    SegmentStore store = new SegmentStore(dir, 1024 * 1024);
+    store.put("a", new byte[10], 50);
+    store.put("b", new byte[10], 0);
+    Assert.assertNotNull(store.get("a"));
+    Thread.sleep(100);
+    Assert.assertNull(store.get("a"));
+    Assert.assertNotNull(store.get("b"));
+    store.close();
+  }
+
+  @Test
+  public void testSizeBudget() throws Exception {
+    SegmentStore store = new SegmentStore(dir, 10000);
+    for (int i = 0; i < 100; i++) {
+      store.put("key" + i, new byte[1000], 60000 + i);
+      Assert.assertTrue(store.getLiveBytes() <= 10000);
+    }
+    // the entries which expire first are dropped first
+    Assert.assertNull(store.get("key0"));
+    Assert.assertNotNull(store.get("key99"));
+    store.close();
+  }
+
+  @Test
+  public void testKeyTooLong() throws Exception {
+    SegmentStore store = new SegmentStore(dir, 1024 * 1024);
+    String key = StringUtils.repeat('\u00e4', 40000);
+    store.put(key, new byte[1000], 0);
+    Assert.assertNull(store.get(key));
+    Assert.assertEquals(0, store.getDeadBytes());
+
+    store.put("a", "value a".getBytes(UTF8), 0);
+    store.clear();
+    Assert.assertEquals(0, store.size());
+    Assert.assertNull(store.get("a"));
+    store.put("a", "value a".getBytes(UTF8), 0);
+    store.close();
+
+    store = new SegmentStore(dir, 1024 * 1024);
+    Assert.assertEquals(1, store.size());
+    Assert.assertEquals("value a", new String(store.get("a"), UTF8));
+    store.close();
+  }
+}
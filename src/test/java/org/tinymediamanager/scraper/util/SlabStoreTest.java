@@ -0,0 +1,142 @@
+package org.tinymediamanager.scraper.util;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlabStoreTest {
+
+  @Test
+  public void testPutAndRead() throws Exception {
+    SlabStore store = new SlabStore(64 * 1024 * 1024);
+
+    byte[] small = randomBytes(1000);
+    // spans two chunks of the biggest size class plus a smaller one
+    byte[] big = randomBytes(2 * SlabStore.MAX_CHUNK_SIZE + 12345);
+
+    SlabStore.Handle smallHandle = store.put(small);
+    SlabStore.Handle bigHandle = store.put(big);
+    SlabStore.Handle emptyHandle = store.put(new byte[0]);
+
+    Assert.assertArrayEquals(small, smallHandle.toByteArray());
+    Assert.assertArrayEquals(big, bigHandle.toByteArray());
+    Assert.assertEquals(0, emptyHandle.toByteArray().length);
+
+    // read with odd buffer sizes and skip
+    InputStream is = bigHandle.openStream();
+    Assert.assertEquals(big[0] & 0xff, is.read());
+    Assert.assertEquals(SlabStore.MAX_CHUNK_SIZE, is.skip(SlabStore.MAX_CHUNK_SIZE));
+    byte[] rest = IOUtils.toByteArray(is);
+    Assert.assertEquals(big.length - SlabStore.MAX_CHUNK_SIZE - 1, rest.length);
+    Assert.assertEquals(big[SlabStore.MAX_CHUNK_SIZE + 1], rest[0]);
+    Assert.assertEquals(big[big.length - 1], rest[rest.length - 1]);
+    is.close();
+
+    // 1024 + 2 * 256K + 16K
+    Assert.assertEquals(1024 + 2 * SlabStore.MAX_CHUNK_SIZE + 16 * 1024, store.getUsedBytes());
+  }
+
+  @Test
+  public void testRelease() throws Exception {
+    SlabStore store = new SlabStore(64 * 1024 * 1024);
+    byte[] data = randomBytes(5000);
+
+    SlabStore.Handle handle = store.put(data);
+    InputStream is = handle.openStream();
+
+    // the open stream keeps the chunks alive
+    handle.release();
+    Assert.assertFalse(handle.isReleased());
+    Assert.assertEquals(8 * 1024, store.getUsedBytes());
+    Assert.assertArrayEquals(data, IOUtils.toByteArray(is));
+
+    // read to the end -> released
+    Assert.assertTrue(handle.isReleased());
+    Assert.assertEquals(0, store.getUsedBytes());
+    Assert.assertNull(handle.openStream());
+    Assert.assertFalse(handle.retain());
+
+    // the chunks are recycled
+    long reserved = store.getReservedBytes();
+    for (int i = 0; i < 100; i++) {
+      store.put(data).release();
+    }
+    Assert.assertEquals(reserved, store.getReservedBytes());
+  }
+
+  @Test
+  public void testMaximumSize() throws Exception {
+    SlabStore store = new SlabStore(SlabStore.DEFAULT_SLAB_SIZE);
+    byte[] data = randomBytes(SlabStore.MAX_CHUNK_SIZE);
+
+    int count = SlabStore.DEFAULT_SLAB_SIZE / SlabStore.MAX_CHUNK_SIZE;
+    List<SlabStore.Handle> handles = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      SlabStore.Handle handle = store.put(data);
+      Assert.assertNotNull(handle);
+      handles.add(handle);
+    }
+    Assert.assertNull(store.put(data));
+    // another size class would need another slab
+    Assert.assertNull(store.put(new byte[100]));
+    Assert.assertEquals(2, store.getAllocationFailureCount());
+    Assert.assertEquals(SlabStore.DEFAULT_SLAB_SIZE, store.getReservedBytes());
+
+    // as soon as the slab is empty, it is reassigned to the size class which needs it
+    handles.remove(0).release();
+    Assert.assertNull(store.put(new byte[100]));
+    for (SlabStore.Handle handle : handles) {
+      handle.release();
+    }
+    SlabStore.Handle small = store.put(new byte[100]);
+    Assert.assertNotNull(small);
+    Assert.assertEquals(100, small.toByteArray().length);
+    Assert.assertEquals(SlabStore.DEFAULT_SLAB_SIZE, store.getReservedBytes());
+
+    // and back again
+    Assert.assertNull(store.put(data));
+    small.release();
+    Assert.assertArrayEquals(data, store.put(data).toByteArray());
+  }
+
+  @Test
+  public void testReleaseWithoutEndOfStream() throws Exception {
+    SlabStore store = new SlabStore(64 * 1024 * 1024);
+    byte[] data = randomBytes(SlabStore.MAX_CHUNK_SIZE + 100);
+
+    SlabStore.Handle handle = store.put(data);
+    InputStream is = handle.openStream();
+    handle.release();
+
+    // read exactly the length of the value (like a GZIPInputStream does) and do not close the stream
+    byte[] bytes = new byte[data.length];
+    int position = 0;
+    while (position < bytes.length) {
+      position += is.read(bytes, position, bytes.length - position);
+    }
+    Assert.assertArrayEquals(data, bytes);
+    Assert.assertTrue(handle.isReleased());
+    Assert.assertEquals(0, store.getUsedBytes());
+
+    // single bytes
+    handle = store.put(new byte[] { 1, 2 });
+    is = handle.openStream();
+    handle.release();
+    Assert.assertEquals(1, is.read());
+    Assert.assertFalse(handle.isReleased());
+    Assert.assertEquals(2, is.read());
+    Assert.assertTrue(handle.isReleased());
+    Assert.assertEquals(-1, is.read());
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
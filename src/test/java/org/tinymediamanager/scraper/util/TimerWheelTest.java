@@ -0,0 +1,120 @@
+package org.tinymediamanager.scraper.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+  @Test
+  public void testExpiryOnAllLevels() {
+    final Map<String, Long> expired = new HashMap<>();
+    TimerWheel.Handler<String, Long> handler = new TimerWheel.Handler<String, Long>() {
+      @Override
+      public long expired(String key, Long deadline, long now) {
+        expired.put(key, now);
+        return -1;
+      }
+    };
+
+    long start = 1000000L * 1000;
+    TimerWheel<String, Long> wheel = new TimerWheel<>(1000, start);
+    // level 0, 1, 2, 3 and beyond the range of the wheel
+    long[] delays = { 5, 100, 10000, 500000, 20000000 };
+    for (long delay : delays) {
+      wheel.schedule("key" + delay, delay, start + delay * 1000);
+    }
+
+    long now = start;
+    for (long delay : delays) {
+      // one tick before the deadline
+      now = start + (delay - 1) * 1000;
+      wheel.advance(now, handler);
+      Assert.assertFalse("key" + delay, expired.containsKey("key" + delay));
+
+      now = start + delay * 1000;
+      wheel.advance(now, handler);
+      Assert.assertEquals("key" + delay, Long.valueOf(now), expired.get("key" + delay));
+    }
+  }
+
+  @Test
+  public void testReschedule() {
+    final long start = 2000000L * 1000;
+    final int[] calls = { 0 };
+    TimerWheel.Handler<String, String> handler = new TimerWheel.Handler<String, String>() {
+      @Override
+      public long expired(String key, String value, long now) {
+        calls[0]++;
+        // accessed in the meantime: extend once
+        return calls[0] == 1 ? now + 10000 : -1;
+      }
+    };
+
+    TimerWheel<String, String> wheel = new TimerWheel<>(1000, start);
+    wheel.schedule("key", "value", start + 10000);
+    wheel.advance(start + 10000, handler);
+    Assert.assertEquals(1, calls[0]);
+    wheel.advance(start + 19000, handler);
+    Assert.assertEquals(1, calls[0]);
+    wheel.advance(start + 20000, handler);
+    Assert.assertEquals(2, calls[0]);
+  }
+
+  @Test
+  public void testCacheMapTimerWheel() throws Exception {
+    CacheMap<String, String> cache = new CacheMap<>(1, 0, CacheMap.ExpirationMode.TIMER_WHEEL);
+    cache.put("key", "value");
+    Assert.assertEquals("value", cache.get("key"));
+
+    Thread.sleep(2100);
+    cache.cleanup();
+    Assert.assertEquals(0, cache.size());
+    Assert.assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testCacheMapTimerWheelIsAdvanced() throws Exception {
+    // no cleanup interval - the wheel is advanced in the background anyway
+    CacheMap<String, String> cache = new CacheMap<>(1, 0, CacheMap.ExpirationMode.TIMER_WHEEL);
+    cache.put("key", "value");
+    Assert.assertEquals(1, cache.size());
+
+    Thread.sleep(3500);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testCacheMapForcedCleanupKeepsNewEntries() throws Exception {
+    final CacheMap<Integer, String> cache = new CacheMap<>(1, 0, CacheMap.ExpirationMode.TIMER_WHEEL);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        int i = 0;
+        while (running.get()) {
+          cache.put(i++ % 1000, "value");
+        }
+      }
+    });
+    writer.start();
+
+    try {
+      for (int i = 0; i < 200; i++) {
+        cache.cleanup(true);
+      }
+    }
+    finally {
+      running.set(false);
+      writer.join();
+    }
+
+    // every entry put during a forced cleanup must still be in the wheel
+    Thread.sleep(2100);
+    cache.cleanup();
+    Assert.assertEquals(0, cache.size());
+  }
+}
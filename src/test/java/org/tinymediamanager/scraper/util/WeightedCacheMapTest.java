@@ -0,0 +1,108 @@
+package org.tinymediamanager.scraper.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WeightedCacheMapTest {
+
+  private static final Weigher<byte[]> WEIGHER = new Weigher<byte[]>() {
+    @Override
+    public int weigh(byte[] value) {
+      return value.length;
+    }
+  };
+
+  @Test
+  public void testMaximumWeight() {
+    WeightedCacheMap<String, byte[]> cache = new WeightedCacheMap<>(600, 0, 1000, WEIGHER);
+    for (int i = 0; i < 50; i++) {
+      cache.put("key" + i, new byte[100]);
+      Assert.assertTrue(cache.getWeight() <= 1000);
+    }
+    Assert.assertEquals(1000, cache.getWeight());
+    Assert.assertEquals(10, cache.size());
+    Assert.assertEquals(40, cache.getEvictionCount());
+
+    // too big to be cached at all
+    cache.put("big", new byte[2000]);
+    Assert.assertNull(cache.get("big"));
+    Assert.assertEquals(1, cache.getRejectionCount());
+    // a rejection is no eviction
+    Assert.assertEquals(40, cache.getEvictionCount());
+
+    cache.remove("key49");
+    Assert.assertEquals(900, cache.getWeight());
+
+    cache.cleanup(true);
+    Assert.assertEquals(0, cache.getWeight());
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testFrequentEntriesSurvive() {
+    WeightedCacheMap<String, byte[]> cache = new WeightedCacheMap<>(600, 0, 1000, WEIGHER);
+    cache.put("hot", new byte[100]);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertNotNull(cache.get("hot"));
+    }
+
+    // a burst of one-hit entries must not flush the hot entry (even though it is the least recently used one)
+    for (int i = 0; i < 9; i++) {
+      cache.put("key" + i, new byte[100]);
+    }
+    cache.get("hot");
+    for (int i = 9; i < 100; i++) {
+      cache.put("key" + i, new byte[100]);
+    }
+    Assert.assertNotNull(cache.get("hot"));
+    Assert.assertTrue(cache.getWeight() <= 1000);
+  }
+
+  @Test
+  public void testRejectionDoesNotEvict() {
+    WeightedCacheMap<String, byte[]> cache = new WeightedCacheMap<>(600, 0, 1000, WEIGHER);
+    cache.put("cold", new byte[100]);
+    cache.put("hot", new byte[800]);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertNotNull(cache.get("hot"));
+    }
+
+    // the candidate would need the room of the hot entry too -> rejected without evicting the cold one
+    cache.put("candidate", new byte[300]);
+    Assert.assertNull(cache.get("candidate"));
+    Assert.assertNotNull(cache.get("cold"));
+    Assert.assertEquals(900, cache.getWeight());
+    Assert.assertEquals(0, cache.getEvictionCount());
+    Assert.assertEquals(1, cache.getRejectionCount());
+    Assert.assertEquals(0, cache.getStats().getSizeEvictionCount());
+  }
+
+  @Test
+  public void testExpiration() throws Exception {
+    WeightedCacheMap<String, byte[]> cache = new WeightedCacheMap<>(1, 0, 1000, WEIGHER);
+    cache.put("old", new byte[100]);
+    cache.put("expired", new byte[100]);
+    Thread.sleep(2100);
+    cache.put("new", new byte[100]);
+
+    // reclaimed by the timer wheel (advanced in the background too) or on access
+    cache.cleanup();
+    Assert.assertNull(cache.get("expired"));
+    Assert.assertEquals(100, cache.getWeight());
+    Assert.assertEquals(1, cache.size());
+    Assert.assertNotNull(cache.get("new"));
+    Assert.assertEquals(2, cache.getExpirationCount());
+  }
+
+  @Test
+  public void testShrinkMaximumWeight() {
+    WeightedCacheMap<String, byte[]> cache = new WeightedCacheMap<>(600, 0, 1000, WEIGHER);
+    for (int i = 0; i < 10; i++) {
+      cache.put("key" + i, new byte[100]);
+    }
+    cache.setMaximumWeight(500);
+    Assert.assertEquals(500, cache.getWeight());
+    Assert.assertNull(cache.get("key0"));
+    Assert.assertNotNull(cache.get("key9"));
+  }
+}